@@ -0,0 +1,124 @@
+/*
+ * BatchHasher.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * BatchHasher hashes a block of values at once, both with the one function of the top
+ * level of a table and with a different function for every value, as when every value
+ * is hashed into its own bin.  Both levels of hashing are pure arithmetic over the bits
+ * of the values, so a block can be hashed in the lanes of vector registers instead of
+ * one value after the other.
+ * 
+ * This class hashes one value after the other and works on every JVM.  When the
+ * incubating Vector API, module jdk.incubator.vector, is present at run time,
+ * getInstance returns the vectorized subclass in package com.mjnrand.dphashing.vector
+ * instead.  That package is the only code of the DPHash that depends on the module; it
+ * is loaded by name, so the rest of the DPHash runs without it.  Setting the system
+ * property com.mjnrand.dphashing.vector to false keeps the vectorized hasher from being
+ * used even when the module is present.
+ * 
+ * Every BatchHasher returns exactly what hashing each value with HashFunction.hash or
+ * HashFamily.hash returns.
+ */
+public class BatchHasher {
+	/** Hasher hashing one value after the other */
+	public static final BatchHasher SCALAR = new BatchHasher();
+	
+	/** Name of the vectorized hasher, loaded only if its module is present */
+	protected static final String VECTOR_CLASS = "com.mjnrand.dphashing.vector.VectorBatchHasher";
+	
+	/** Name of the module of the Vector API */
+	protected static final String VECTOR_MODULE = "jdk.incubator.vector";
+	
+	/** Fastest hasher available to this JVM */
+	private static final BatchHasher INSTANCE = BatchHasher.load();
+	
+	/**
+	 * Constructor.  Subclasses are created by getInstance.
+	 */
+	protected BatchHasher() {
+	}
+	
+	/**
+	 * Returns the fastest hasher available to this JVM: the vectorized one if the Vector
+	 * API is present and not disabled, and SCALAR otherwise.
+	 * 
+	 * @return	fastest hasher available
+	 */
+	public static BatchHasher getInstance() {
+		return BatchHasher.INSTANCE;
+	}
+	
+	/**
+	 * Loads the vectorized hasher, falling back to SCALAR if its module is missing or the
+	 * class cannot be loaded or initialized.
+	 * 
+	 * @return	fastest hasher available
+	 */
+	private static BatchHasher load() {
+		if (!Boolean.parseBoolean(System.getProperty("com.mjnrand.dphashing.vector", "true")) ||
+				!ModuleLayer.boot().findModule(BatchHasher.VECTOR_MODULE).isPresent()) {
+			return BatchHasher.SCALAR;
+		}
+	
+		try {
+			return (BatchHasher) Class.forName(BatchHasher.VECTOR_CLASS).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			return BatchHasher.SCALAR;
+		}
+	}
+	
+	/**
+	 * Hash the values keys[keysPos] to keys[keysPos + n - 1] with the given function,
+	 * storing the result of keys[keysPos + k] into out[outPos + k].  The positions are
+	 * given just as to System.arraycopy.
+	 * 
+	 * @param h	hash function every value is hashed with
+	 * @param keys	values to be hashed
+	 * @param keysPos	index of the first value to be hashed
+	 * @param out	array receiving the results
+	 * @param outPos	index receiving the result of the first value
+	 * @param n	number of values to be hashed
+	 */
+	public void hash(HashFunction h, int[] keys, int keysPos, int[] out, int outPos, int n) {
+		for (int k=0; k < n; k++) {
+			out[outPos + k] = h.hash(keys[keysPos + k]);
+		}
+	}
+	
+	/**
+	 * Hash the values keys[keysPos] to keys[keysPos + n - 1], each with its own function
+	 * of the given family: keys[keysPos + k] is hashed with the variables a[outPos + k] and
+	 * b[outPos + k] into a table of size m[outPos + k], and the result is stored into
+	 * out[outPos + k].  Every size must be at least 1.
+	 * 
+	 * @param family	family of all the hash functions
+	 * @param a	variable a of the function of every value
+	 * @param b	variable b of the function of every value
+	 * @param m	size of the table of every value
+	 * @param keys	values to be hashed
+	 * @param keysPos	index of the first value to be hashed
+	 * @param out	array receiving the results
+	 * @param outPos	index of the variables and the result of the first value
+	 * @param n	number of values to be hashed
+	 */
+	public void hash(HashFamily family, long[] a, long[] b, int[] m, int[] keys, int keysPos, int[] out, int outPos, int n) {
+		for (int k=0; k < n; k++) {
+			int i = outPos + k;
+			
+			out[i] = family.hash(a[i], b[i], m[i], keys[keysPos + k]);
+		}
+	}
+	
+	/**
+	 * @return	true if this hasher hashes in vector lanes
+	 */
+	public boolean isVectorized() {
+		return false;
+	}
+	
+	public String toString() {
+		return "scalar";
+	}
+}
@@ -17,15 +17,18 @@ package com.mjnrand.dphashing;
  * @author mark
  */
 public class Bin {
-  /** Scale factor in which the size of the bin grows when full */
-  public static int SCALE_FACTOR = 2;
-  
   /** Hash function currently in use by this bin. */
   public HashFunction h = null;
   
+  /** Second hash function of a bin of the two-choice space policy; null for a bin probed once. */
+  public HashFunction h2 = null;
+  
   /** Number of values currently stored within this bin. */
   public int b = 0;
   
+  /** Number of the values stored within this bin that are marked deleted. */
+  public int dead = 0;
+  
   /** Number of elements permitted within this bin */
   public int m = 0;
   
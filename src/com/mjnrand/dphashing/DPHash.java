@@ -5,14 +5,20 @@
  */
 package com.mjnrand.dphashing;
 
+import java.util.function.IntFunction;
+
 /**
  * DPHash is the interface that all implementations of the dynamic perfect hashing data
  * structure must implement.  It declares the methods that must be supported by
  * any dynamic perfect hashing data structure.
  * 
+ * Besides the set operations, a DPHash can be used as a map from int keys to values of
+ * type V.  Reading a value back costs the same two probes as a lookup.
+ * 
+ * @param <V> type of the data stored with each element
  * @author mark
  */
-public interface DPHash {
+public interface DPHash<V> {
   /**
    * Insert the element with value x into the hash, and store the given data with
    * the entry.
@@ -20,7 +26,7 @@ public interface DPHash {
    * @param x value of the element to be stored
    * @param data  data to be stored with the inserted element
    */
-  public void insert(int x, Object data);
+  public void insert(int x, V data);
   
   /**
    * Delete the element with the value given from the hash, if it exists.
@@ -37,4 +43,113 @@ public interface DPHash {
    * @return  true if element with the given value is found; false otherwise
    */
   public boolean lookup(int x);
+  
+  /**
+   * Returns the data stored with the element with the value given, or null if the element
+   * is not found in the hash.
+   * 
+   * @param x value to be queried
+   * @return  data stored with the element; null if the element is not found
+   */
+  public V get(int x);
+  
+  /**
+   * Returns the data stored with the element with the value given, or the default given
+   * if the element is not found in the hash.
+   * 
+   * @param x value to be queried
+   * @param defaultValue  value returned when the element is not found
+   * @return  data stored with the element; defaultValue if the element is not found
+   */
+  public V getOrDefault(int x, V defaultValue);
+  
+  /**
+   * Insert the element with value x into the hash, replacing any data previously stored
+   * with the element.
+   * 
+   * @param x value of the element to be stored
+   * @param data  data to be stored with the element
+   * @return  data previously stored with the element; null if the element was not found
+   */
+  public V put(int x, V data);
+  
+  /**
+   * Returns the data stored with the element with the value given.  If the element is not
+   * found, or has no data, the mapping function is used to compute the data which is then
+   * inserted into the hash, unless it is null.
+   * 
+   * @param x value to be queried
+   * @param mappingFunction function computing the data for an element that is not found
+   * @return  current (existing or computed) data stored with the element; null if none
+   */
+  public V computeIfAbsent(int x, IntFunction<? extends V> mappingFunction);
+  
+  /**
+   * Inserts all the given elements, replacing any data previously stored with them.  The
+   * default simply puts the elements one at a time; implementations may apply the whole
+   * batch at once.
+   * 
+   * @param keys  values of the elements to be stored
+   * @param values  data to be stored with each element, in the order of the keys; null for none
+   * @throws IllegalArgumentException if the arrays differ in length
+   */
+  public default void insertAll(int[] keys, V[] values) {
+    if ((values != null) && (values.length != keys.length)) {
+      throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+    }
+    
+    for (int i=0; i < keys.length; i++) {
+      this.put(keys[i], (values != null) ? values[i] : null);
+    }
+  }
+  
+  /**
+   * Deletes all the elements with the given values that exist.  The default simply deletes
+   * the elements one at a time; implementations may apply the whole batch at once.
+   * 
+   * @param keys  values of the elements to be deleted
+   */
+  public default void deleteAll(int[] keys) {
+    for (int i=0; i < keys.length; i++) {
+      this.delete(keys[i]);
+    }
+  }
+  
+  /**
+   * Looks up all the given values at once, storing into out[i] whether keys[i] is found in
+   * the hash.  The default simply looks the values up one at a time; implementations may
+   * overlap the memory accesses of many lookups.
+   * 
+   * @param keys  values to be queried
+   * @param out array receiving the result of every query
+   * @throws IllegalArgumentException if out is shorter than keys
+   */
+  public default void lookupAll(int[] keys, boolean[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but room for " + out.length + " results");
+    }
+    
+    for (int i=0; i < keys.length; i++) {
+      out[i] = this.lookup(keys[i]);
+    }
+  }
+  
+  /**
+   * Looks up all the given values at once, storing into out[i] the data stored with keys[i],
+   * or null if it is not found.  The default simply looks the values up one at a time;
+   * implementations may overlap the memory accesses of many lookups.
+   * 
+   * @param keys  values to be queried
+   * @param out array receiving the data of every query
+   * @throws IllegalArgumentException if out is shorter than keys
+   */
+  public default void getAll(int[] keys, V[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but room for " + out.length + " results");
+    }
+    
+    for (int i=0; i < keys.length; i++) {
+      out[i] = this.get(keys[i]);
+    }
+  }
 }
@@ -0,0 +1,631 @@
+/*
+ * DPHashConfig.java
+ */
+package com.mjnrand.dphashing;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * DPHashConfig is the immutable set of parameters that a single DPHash is created with.
+ * Every table owns its own configuration, so any number of tables with different sizing
+ * may live side by side within the same JVM.
+ *
+ * Instances are created through the {@link Builder}:
+ *
+ *  DPHashConfig config = DPHashConfig.builder().universeSize(10000).prime(10007).build();
+ *
+ * By default no prime is set, in which case the DPHash hashes in 64 bits modulo the
+ * Mersenne prime 2^61 - 1 and accepts every int as a value.  Any other HashFamily may be
+ * plugged in through {@link Builder#hashFamily(HashFamily)}.
+ *
+ * Every random choice a DPHash makes is drawn from a generator seeded with the seed of its
+ * configuration.  When no seed is set a random one is chosen, and it is recorded so that
+ * a table can be rebuilt exactly by creating it again from the same configuration.
+ */
+public final class DPHashConfig {
+  /** Maximum size of the universe, U, that can be stored in the DPHash */
+  private final int universeSize;
+
+  /** Prime number >= universeSize; 0 to hash modulo 2^61 - 1 */
+  private final int prime;
+
+  /** Universal family the hash functions of the DPHash are drawn from */
+  private final HashFamily hashFamily;
+
+  /** Seed of the random number generator of the DPHash */
+  private final long seed;
+
+  /** Constant factor in which the top level of the DPHash grows */
+  private final int c;
+
+  /** Least number of bins moved by every update during an incremental rehash; 0 to rehash at once */
+  private final int migrationRate;
+
+  /** Executor that global rehashes are run on in the background; null to rehash in the caller's thread */
+  private final Executor rehashExecutor;
+
+  /** Pool that large tables are rebuilt in by a global rehash; null to rebuild in a single thread */
+  private final ForkJoinPool rehashPool;
+
+  /** Number of locks that the bins of a concurrent DPHash are striped over */
+  private final int lockStripes;
+
+  /** Amount that the subtables should be scaled by */
+  private final double scale;
+
+  /** Amount that the scale factor of each dynamic bin is changed when it is resized */
+  private final double step;
+
+  /** Flag for whether the dynamic bin scale is being incremented or decremented */
+  private final boolean increment;
+
+  /** Slots per element above which dynamic bins scale down as they grow; 0 for no target */
+  private final double maxSlotsPerKey;
+
+  /** Rebuilds of bins per second above which dynamic bins scale up as they grow; 0 for no target */
+  private final double maxRebuildRate;
+
+  /** Share of the entries of a bin marked deleted at which the bin is compacted; 0 to never compact */
+  private final double compactionThreshold;
+
+  /** Share of the elements a table was sized for below which it is shrunk; 0 to never shrink */
+  private final double lowWaterMark;
+
+  /** Policy deciding the space of every bin */
+  private final SpacePolicy spacePolicy;
+
+  /**
+   * Constructor.  Made private since configurations are only created by the builder.
+   *
+   * @param builder builder holding the values of the configuration
+   * @param hashFamily  family of the hash functions, resolved from the builder
+   * @param seed  seed of the random number generator, resolved from the builder
+   */
+  private DPHashConfig(Builder builder, HashFamily hashFamily, long seed) {
+    this.universeSize = builder.universeSize;
+    this.prime = builder.prime;
+    this.hashFamily = hashFamily;
+    this.seed = seed;
+    this.c = builder.c;
+    this.migrationRate = builder.migrationRate;
+    this.rehashExecutor = builder.rehashExecutor;
+    this.rehashPool = builder.rehashPool;
+    this.lockStripes = builder.lockStripes;
+    this.scale = builder.scale;
+    this.step = builder.step;
+    this.increment = builder.increment;
+    this.maxSlotsPerKey = builder.maxSlotsPerKey;
+    this.maxRebuildRate = builder.maxRebuildRate;
+    this.compactionThreshold = builder.compactionThreshold;
+    this.lowWaterMark = builder.lowWaterMark;
+    this.spacePolicy = builder.spacePolicy;
+  }
+
+  /**
+   * Returns a new builder initialized with the default values.
+   *
+   * @return  new configuration builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns a new builder initialized with the values of this configuration.
+   *
+   * @return  new configuration builder
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * @return  maximum value that may be inserted into the hash
+   */
+  public int getUniverseSize() {
+    return this.universeSize;
+  }
+
+  /**
+   * @return  prime number that is >= the universe size; 0 if hashing modulo 2^61 - 1
+   */
+  public int getPrime() {
+    return this.prime;
+  }
+
+  /**
+   * @return  universal family the hash functions of the DPHash are drawn from
+   */
+  public HashFamily getHashFamily() {
+    return this.hashFamily;
+  }
+
+  /**
+   * @return  seed of the random number generator of the DPHash
+   */
+  public long getSeed() {
+    return this.seed;
+  }
+
+  /**
+   * @return  constant factor that M is bigger than n
+   */
+  public int getC() {
+    return this.c;
+  }
+
+  /**
+   * @return  least number of bins moved by every update during an incremental rehash; 0 if
+   *  the table is rehashed at once
+   */
+  public int getMigrationRate() {
+    return this.migrationRate;
+  }
+
+  /**
+   * @return  executor that global rehashes are run on in the background; null if the table
+   *  is rehashed in the caller's thread
+   */
+  public Executor getRehashExecutor() {
+    return this.rehashExecutor;
+  }
+
+  /**
+   * @return  fork-join pool that large tables are rebuilt in; null if they are rebuilt in a
+   *  single thread
+   */
+  public ForkJoinPool getRehashPool() {
+    return this.rehashPool;
+  }
+
+  /**
+   * @return  number of locks that the bins of a concurrent DPHash are striped over
+   */
+  public int getLockStripes() {
+    return this.lockStripes;
+  }
+
+  /**
+   * @return  amount that the subtables are scaled by
+   */
+  public double getScale() {
+    return this.scale;
+  }
+
+  /**
+   * @return  amount that the scale factor of a dynamic bin changes on each resize
+   */
+  public double getStep() {
+    return this.step;
+  }
+
+  /**
+   * @return  true if dynamic bin scales are incremented; false if they are decremented
+   */
+  public boolean isIncrement() {
+    return this.increment;
+  }
+
+  /**
+   * @return  slots per element above which dynamic bins are scaled down as they grow; 0 if
+   *  there is no target
+   */
+  public double getMaxSlotsPerKey() {
+    return this.maxSlotsPerKey;
+  }
+
+  /**
+   * @return  rebuilds of bins per second above which dynamic bins are scaled up as they
+   *  grow; 0 if there is no target
+   */
+  public double getMaxRebuildRate() {
+    return this.maxRebuildRate;
+  }
+
+  /**
+   * @return  share of the entries of a bin marked deleted at which the bin is compacted; 0
+   *  if bins are only compacted on request
+   */
+  public double getCompactionThreshold() {
+    return this.compactionThreshold;
+  }
+
+  /**
+   * @return  share of the elements a table was sized for below which it is shrunk; 0 if
+   *  tables are only shrunk by the global rehash that the updates lead to
+   */
+  public double getLowWaterMark() {
+    return this.lowWaterMark;
+  }
+
+  /**
+   * @return  policy deciding the space of every bin
+   */
+  public SpacePolicy getSpacePolicy() {
+    return this.spacePolicy;
+  }
+
+  /**
+   * Checks that none of the options that only DPHashImpl and its subclasses carry out is
+   * set: incremental and background rehashing, a rehash pool, compaction, a low-water
+   * mark, a space policy other than the quadratic one and the targets of the dynamic
+   * scale.  The flat, concurrent, off-heap and primitive engines call this when they are
+   * created, so that such an option is rejected instead of being silently ignored.
+   *
+   * @param engine  name of the engine being created
+   * @throws IllegalArgumentException if any of the options is set
+   */
+  public void checkRehashOptions(String engine) {
+    if (this.migrationRate != 0) {
+      throw new IllegalArgumentException(engine + " does not support incremental rehashing");
+    }
+    if (this.rehashExecutor != null) {
+      throw new IllegalArgumentException(engine + " does not support background rehashing");
+    }
+    if (this.rehashPool != null) {
+      throw new IllegalArgumentException(engine + " does not support parallel rehashing");
+    }
+    if (this.compactionThreshold != 0) {
+      throw new IllegalArgumentException(engine + " does not support compaction");
+    }
+    if (this.lowWaterMark != 0) {
+      throw new IllegalArgumentException(engine + " does not support a low water mark");
+    }
+    if (this.spacePolicy != QuadraticSpacePolicy.INSTANCE) {
+      throw new IllegalArgumentException(engine + " does not support the space policy " + this.spacePolicy);
+    }
+    this.checkScaleTargets(engine);
+  }
+
+  /**
+   * Checks that neither of the targets that only the feedback controller of
+   * DPHashDynamicImpl steers by is set: a maximum of slots per element and a maximum
+   * rebuild rate.  Every other engine calls this when it is created.
+   *
+   * @param engine  name of the engine being created
+   * @throws IllegalArgumentException if either target is set
+   */
+  public void checkScaleTargets(String engine) {
+    if (this.maxSlotsPerKey != 0) {
+      throw new IllegalArgumentException(engine + " does not support a maximum of slots per key");
+    }
+    if (this.maxRebuildRate != 0) {
+      throw new IllegalArgumentException(engine + " does not support a maximum rebuild rate");
+    }
+  }
+
+  public String toString() {
+    return "U = " + universeSize + ", h = " + hashFamily + ", seed = " + seed + ", c = " + c + ", migration rate = " + migrationRate +
+      ", background rehash = " + (rehashExecutor != null) +
+      ", parallel rehash = " + (rehashPool != null) +
+      ", lock stripes = " + lockStripes + ", scale = " + scale +
+      ", step = " + step + ", increment = " + increment +
+      ", max slots per key = " + maxSlotsPerKey + ", max rebuild rate = " + maxRebuildRate +
+      ", compaction threshold = " + compactionThreshold + ", low water mark = " + lowWaterMark +
+      ", space policy = " + spacePolicy;
+  }
+
+  /**
+   * Builder is used to create instances of DPHashConfig.  Values that are not set keep
+   * their defaults.
+   */
+  public static class Builder {
+    private int universeSize = 0;
+    private int prime = 0;
+    private HashFamily hashFamily = null;
+    private boolean seeded = false;
+    private long seed = 0;
+    private int c = 2;
+    private int migrationRate = 0;
+    private Executor rehashExecutor = null;
+    private ForkJoinPool rehashPool = null;
+    private int lockStripes = 64;
+    private double scale = 2;
+    private double step = 0.25;
+    private boolean increment = false;
+    private double maxSlotsPerKey = 0;
+    private double maxRebuildRate = 0;
+    private double compactionThreshold = 0;
+    private double lowWaterMark = 0;
+    private SpacePolicy spacePolicy = QuadraticSpacePolicy.INSTANCE;
+
+    /**
+     * Constructor.  Creates a builder with the default values.
+     */
+    public Builder() {
+    }
+
+    /**
+     * Constructor.  Creates a builder with the values of the given configuration.
+     *
+     * @param config  configuration to copy
+     */
+    public Builder(DPHashConfig config) {
+      this.universeSize = config.universeSize;
+      this.prime = config.prime;
+      this.hashFamily = config.hashFamily;
+      this.seeded = true;
+      this.seed = config.seed;
+      this.c = config.c;
+      this.migrationRate = config.migrationRate;
+      this.rehashExecutor = config.rehashExecutor;
+      this.rehashPool = config.rehashPool;
+      this.lockStripes = config.lockStripes;
+      this.scale = config.scale;
+      this.step = config.step;
+      this.increment = config.increment;
+      this.maxSlotsPerKey = config.maxSlotsPerKey;
+      this.maxRebuildRate = config.maxRebuildRate;
+      this.compactionThreshold = config.compactionThreshold;
+      this.lowWaterMark = config.lowWaterMark;
+      this.spacePolicy = config.spacePolicy;
+    }
+
+    /**
+     * @param universeSize  maximum value that may be inserted into the hash
+     * @return  this builder
+     */
+    public Builder universeSize(int universeSize) {
+      this.universeSize = universeSize;
+      return this;
+    }
+
+    /**
+     * @param prime prime number that is >= universeSize; 0 to hash modulo 2^61 - 1
+     * @return  this builder
+     */
+    public Builder prime(int prime) {
+      this.prime = prime;
+      return this;
+    }
+
+    /**
+     * Sets the universal family the hash functions are drawn from.  If none is set, a
+     * PrimeHashFamily is used when a prime is given and a MersenneHashFamily otherwise.
+     *
+     * @param hashFamily  universal family of hash functions
+     * @return  this builder
+     */
+    public Builder hashFamily(HashFamily hashFamily) {
+      this.hashFamily = hashFamily;
+      return this;
+    }
+
+    /**
+     * @param seed  seed of the random number generator of the DPHash
+     * @return  this builder
+     */
+    public Builder seed(long seed) {
+      this.seeded = true;
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * @param c constant factor that M is bigger than n
+     * @return  this builder
+     */
+    public Builder c(int c) {
+      this.c = c;
+      return this;
+    }
+
+    /**
+     * Makes the DPHash rehash incrementally: instead of rebuilding the whole table within
+     * the update that crosses M, every update moves the given number of bins of the old
+     * table into the new one.  Updates move more bins when that rate would not move the
+     * whole old table before the new one fills up, so a rate too low for the table never
+     * leaves a remainder to be moved at once.  0, the default, rehashes the whole table at
+     * once.  Only DPHashImpl and its subclasses rehash incrementally.
+     *
+     * @param migrationRate least number of bins moved by every update during a rehash
+     * @return  this builder
+     */
+    public Builder incrementalRehash(int migrationRate) {
+      this.migrationRate = migrationRate;
+      return this;
+    }
+
+    /**
+     * Makes the DPHash rehash in the background: the update that crosses M only freezes the
+     * current table and hands it to the given executor, which builds the new table from it.
+     * Updates made in the meantime are kept in a small delta that is replayed onto the new
+     * table before it replaces the frozen one.  null, the default, rehashes in the caller's
+     * thread.  Cannot be combined with an incremental rehash.  Only DPHashImpl and its
+     * subclasses rehash in the background.
+     *
+     * @param rehashExecutor  executor that global rehashes are run on
+     * @return  this builder
+     */
+    public Builder backgroundRehash(Executor rehashExecutor) {
+      this.rehashExecutor = rehashExecutor;
+      return this;
+    }
+
+    /**
+     * Makes a global rehash of a large table run in the given fork-join pool, which both
+     * partitions the elements into bins and searches the hash functions of the bins in
+     * parallel.  The table built is the same as when it is built in a single thread.  null,
+     * the default, rebuilds in the thread doing the rehash.  Only DPHashImpl and its
+     * subclasses rebuild in parallel.
+     *
+     * @param rehashPool  pool that large tables are rebuilt in
+     * @return  this builder
+     */
+    public Builder parallelRehash(ForkJoinPool rehashPool) {
+      this.rehashPool = rehashPool;
+      return this;
+    }
+
+    /**
+     * Sets the number of locks that the writers of a concurrent DPHash are striped over.
+     * Writers of bins guarded by different locks proceed in parallel.  The number is
+     * rounded up to a power of two; the default is 64.
+     *
+     * @param lockStripes number of write locks
+     * @return  this builder
+     */
+    public Builder lockStripes(int lockStripes) {
+      this.lockStripes = lockStripes;
+      return this;
+    }
+
+    /**
+     * @param scale amount that the subtables should be scaled by
+     * @return  this builder
+     */
+    public Builder scale(double scale) {
+      this.scale = scale;
+      return this;
+    }
+
+    /**
+     * @param step  amount that the scale factor of a dynamic bin changes on each resize
+     * @return  this builder
+     */
+    public Builder step(double step) {
+      this.step = step;
+      return this;
+    }
+
+    /**
+     * @param increment if true, dynamic bin scales are incremented instead of decremented
+     * @return  this builder
+     */
+    public Builder increment(boolean increment) {
+      this.increment = increment;
+      return this;
+    }
+
+    /**
+     * Sets the target for the space of a dynamic DPHash: while the bins hold more slots per
+     * element than this, every bin that grows is scaled down a step.  The target takes
+     * precedence over the rebuild rate.  0, the default, sets no target.
+     *
+     * @param maxSlotsPerKey  slots per element the bins should stay within, or 0
+     * @return  this builder
+     */
+    public Builder maxSlotsPerKey(double maxSlotsPerKey) {
+      this.maxSlotsPerKey = maxSlotsPerKey;
+      return this;
+    }
+
+    /**
+     * Sets the target for the rebuilds of a dynamic DPHash: while its bins are rebuilt more
+     * often than this many times a second, every bin that grows is scaled up a step, so
+     * that bins collide and fill up less often.  0, the default, sets no target.
+     *
+     * @param maxRebuildRate  rebuilds of bins per second the DPHash should stay within, or 0
+     * @return  this builder
+     */
+    public Builder maxRebuildRate(double maxRebuildRate) {
+      this.maxRebuildRate = maxRebuildRate;
+      return this;
+    }
+
+    /**
+     * Sets the share of the entries of a bin that have to be marked deleted before the bin
+     * is compacted: rebuilt without them, and shrunk to fit the entries left.  0 leaves
+     * deleted entries in place until the next global rehash, or until the bins are
+     * compacted explicitly, and is the default.  Only DPHashImpl and its subclasses
+     * compact bins.
+     *
+     * @param compactionThreshold share of dead entries at which a bin is compacted, from 0 to 1
+     * @return  this builder
+     */
+    public Builder compactionThreshold(double compactionThreshold) {
+      this.compactionThreshold = compactionThreshold;
+      return this;
+    }
+
+    /**
+     * Sets the share of the elements that the table was last sized for below which the
+     * number of elements stored may fall before the table is shrunk.  Once a delete takes
+     * it below the mark the table is rehashed, at once, incrementally or in the background
+     * as configured, into a smaller top level sized for the elements left.  0, the default,
+     * only lets the table shrink once enough updates have been made to set off a global
+     * rehash.  Only DPHashImpl and its subclasses shrink at a low-water mark.
+     *
+     * @param lowWaterMark  share of the elements the table was sized for, from 0 up to 1
+     * @return  this builder
+     */
+    public Builder lowWaterMark(double lowWaterMark) {
+      this.lowWaterMark = lowWaterMark;
+      return this;
+    }
+
+    /**
+     * Sets the policy deciding the space of every bin, and so how many hash functions a
+     * rebuild of a bin tries on average.  The default is the quadratic space of
+     * Dietzfelbinger et al, QuadraticSpacePolicy.INSTANCE.  Used by the implementations
+     * built on DPHashImpl.
+     *
+     * @param spacePolicy policy deciding the space of every bin
+     * @return  this builder
+     */
+    public Builder spacePolicy(SpacePolicy spacePolicy) {
+      this.spacePolicy = spacePolicy;
+      return this;
+    }
+
+    /**
+     * Creates the configuration after checking that the values given are sane.
+     *
+     * @return  new immutable configuration
+     * @throws IllegalArgumentException if any of the values are out of range
+     */
+    public DPHashConfig build() {
+      if (universeSize < 0) {
+        throw new IllegalArgumentException("universe size must not be negative: " + universeSize);
+      }
+      if ((prime != 0) && (prime < universeSize)) {
+        throw new IllegalArgumentException("prime " + prime + " must be >= universe size " + universeSize);
+      }
+      if (prime < 0) {
+        throw new IllegalArgumentException("prime must not be negative: " + prime);
+      }
+      if (c < 1) {
+        throw new IllegalArgumentException("c must be >= 1: " + c);
+      }
+      if (migrationRate < 0) {
+        throw new IllegalArgumentException("migration rate must not be negative: " + migrationRate);
+      }
+      if ((migrationRate != 0) && (rehashExecutor != null)) {
+        throw new IllegalArgumentException("incremental and background rehashing cannot be combined");
+      }
+      if ((lockStripes < 1) || (lockStripes > (1 << 30))) {
+        throw new IllegalArgumentException("lock stripes must be between 1 and 2^30: " + lockStripes);
+      }
+      if (scale <= 1) {
+        throw new IllegalArgumentException("scale must be > 1: " + scale);
+      }
+      if (step < 0) {
+        throw new IllegalArgumentException("step must not be negative: " + step);
+      }
+      if (!(maxSlotsPerKey >= 0)) {
+        throw new IllegalArgumentException("max slots per key must not be negative: " + maxSlotsPerKey);
+      }
+      if (!(maxRebuildRate >= 0)) {
+        throw new IllegalArgumentException("max rebuild rate must not be negative: " + maxRebuildRate);
+      }
+      if (!(compactionThreshold >= 0) || (compactionThreshold > 1)) {
+        throw new IllegalArgumentException("compaction threshold must be between 0 and 1: " + compactionThreshold);
+      }
+      if (!(lowWaterMark >= 0) || (lowWaterMark >= 1)) {
+        throw new IllegalArgumentException("low water mark must be at least 0 and below 1: " + lowWaterMark);
+      }
+      if (spacePolicy == null) {
+        throw new IllegalArgumentException("space policy must not be null");
+      }
+
+      // defaults are resolved per build, so a builder used twice gives each table its own seed
+      HashFamily family = (hashFamily != null) ? hashFamily :
+        (prime != 0) ? new PrimeHashFamily(prime) : MersenneHashFamily.INSTANCE;
+      long seed = seeded ? this.seed : ThreadLocalRandom.current().nextLong();
+
+      return new DPHashConfig(this, family, seed);
+    }
+  }
+}
@@ -3,43 +3,1915 @@
  */
 package com.mjnrand.dphashing;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
 /**
+ * DPHashImpl contains the parts of dynamic perfect hashing that are shared by all
+ * implementations: the two level table of bins, the insert, delete and lookup algorithms
+ * and the global rehash.  Subclasses decide what kind of bin is used and by how much a
+ * bin is scaled when it grows.
+ * 
+ * The global rehash is normally carried out at once, within the update that triggers it.
+ * When the configuration asks for incremental rehashing, the rehash instead creates a new,
+ * empty generation of the table and every following update moves a bounded number of bins
+ * of the old generation into the new one.  Lookups consult both generations until all
+ * bins have been moved, so no single operation ever pays for the whole rehash.
+ * 
+ * When the configuration gives a rehash executor, the rehash is instead run in the
+ * background.  The current generation is frozen and the executor builds the new one from
+ * a copy of its elements, while updates made in the meantime are recorded in a small delta
+ * that lookups consult before the frozen generation.  Once the new generation is built the
+ * delta is replayed onto it and it replaces the frozen one.  The delta may take as many
+ * updates as the new generation is sized for, so only an update that would find the new
+ * generation full before it is even built waits for the build.  The DPHash is still meant
+ * to be used by one thread at a time.  The background thread only reads the frozen
+ * generation, which is handed to it when the build is submitted, and hands the new one
+ * back through its future, so the two threads share no field of the DPHash.
+ * 
+ * A deleted element is only marked deleted and keeps its slot, as a tombstone, until its
+ * bin is rebuilt.  Every bin counts its tombstones, and a bin in which the share of them
+ * reaches the compaction threshold of the configuration is compacted right away: rebuilt
+ * from its live elements and shrunk to fit them, which frees the space of the bin without
+ * waiting for the next global rehash.  Bins may also be compacted a few at a time, during
+ * idle time, by compact.
+ * 
+ * The number of elements stored is kept apart from the number of updates made.  When
+ * deletes take the former below the low-water mark of the configuration, a share of the
+ * elements the current generation was sized for, the table is rehashed into a generation
+ * sized for the elements left, so that the top level and the bins shrink and the memory
+ * held after a spike of inserts is given back.
+ * 
+ * The space of every bin is decided by the space policy of the configuration.  Under the
+ * two-choice policy every bin has a second hash function, and an element may lie in the
+ * slot of either one, so a lookup probes a second slot when the first does not hold the
+ * value.  The number of slots per element and the number of hash functions tried per
+ * rebuild of a bin are kept track of, so that the policies can be compared.
+ * 
+ * Building a generation consists of two phases that are both embarrassingly parallel:
+ * partitioning the elements into the bins of the top level, and searching a perfect hash
+ * function for every bin.  When the configuration gives a fork-join pool, large tables
+ * run both phases in that pool.  Every bin's search starts from a seed derived from the
+ * bin's index, so a generation comes out the same however many threads build it.
+ * 
+ * @param <V> type of the data stored with each element
  * @author mark
  */
-public abstract class DPHashImpl implements DPHash {
-  /** Maximum size of the universe, U, that can be stored in the DPHash */ 
-  public static int MAX_UNIVERSE_SIZE = 0;
+public abstract class DPHashImpl<V> implements DPHash<V> {
+  /** Configuration this DPHash was created with */
+  protected final DPHashConfig config;
   
-  /** Prime number >= MAX_UNIVERSE_SIZE */
-  public static int P = 0;
+  /** Universal family the hash functions of the DPHash are drawn from */
+  protected final HashFamily family;
   
   /** Constant factor in which the top level of the DPHash grows */
-  public static int C = 2;
+  protected final int C;
   
-  /** Number of elements accomadated within hash */
-  public static int M = 0;
+  /** Source of the seeds of all hash functions chosen by this DPHash */
+  protected final SplittableRandom random;
   
-  /** Number of sets that top level hash partitions S into */
-  public static int SM = 0;
-
-  /** Hash function currently being used by the DPHash */
-  protected HashFunction h = null;
+  /** Least number of bins of the old generation moved by every update while rehashing incrementally; 0 if not incremental */
+  protected final int migrationRate;
+  
+  /** Number of elements from which a generation is built in parallel, when a pool is given */
+  protected static final int PARALLEL_THRESHOLD = 1 << 14;
+  
+  /** Number of elements or bins below which a parallel phase is not split any further */
+  protected static final int PARALLEL_GRAIN = 1 << 11;
+  
+  /** Number of values looked up together, stage by stage, by lookupAll and getAll */
+  protected static final int LOOKUP_BLOCK = 64;
+  
+  /** Executor that global rehashes are run on in the background; null to rehash in the caller's thread */
+  protected final Executor executor;
+  
+  /** Pool that large generations are built in; null to build them in a single thread */
+  protected final ForkJoinPool pool;
+  
+  /** Hasher hashing blocks of values for lookupAll, getAll and the builds of generations */
+  protected final BatchHasher hasher;
+  
+  /** Share of the entries of a bin marked deleted at which the bin is compacted; 0 to never compact */
+  protected final double compactionThreshold;
+  
+  /** Share of the elements the current generation was sized for below which it is shrunk; 0 to never shrink */
+  protected final double lowWaterMark;
+  
+  /** Policy deciding the space of every bin */
+  protected final SpacePolicy spacePolicy;
+  
+  /** Number of hash functions tried by all rebuilds of bins */
+  protected final LongAdder tries = new LongAdder();
+  
+  /** Number of rebuilds of bins */
+  protected final LongAdder rebuilds = new LongAdder();
+  
+  /** Current generation of the table, which all new elements are inserted into */
+  protected DPHashTable table = null;
+  
+  /** Generation being moved into the current one by an incremental rehash; null if none */
+  protected DPHashTable old = null;
+  
+  /** Index of the next bin of the old generation to be moved */
+  protected int cursor = 0;
+  
+  /** New generation being built by a background rehash; null if none */
+  protected CompletableFuture<DPHashTable> pending = null;
+  
+  /** Updates made while a background rehash is running, keyed by value; null if none */
+  protected Map<Integer, Entry> delta = null;
+  
+  /** Number of updates the generation being built in the background is sized for, up to which updates go to the delta */
+  protected int headroom = 0;
   
   /** Number of updates performed on this DPHash */
   protected int count = 0;
   
+  /** Number of elements stored within this DPHash, not counting the ones marked deleted */
+  protected int size = 0;
+  
+  /** Index of the next bin of the current generation looked at by compact */
+  protected int compactCursor = 0;
+  
+  /**
+   * Constructor.  Creates the DPHash with the given configuration.  Each instance owns its
+   * own hash family and sizing constants, so tables never interfere with one another.
+   * 
+   * @param config  configuration of this DPHash
+   */
+  protected DPHashImpl(DPHashConfig config) {
+    this.config = config;
+    this.family = config.getHashFamily();
+    this.C = config.getC();
+    this.random = new SplittableRandom(config.getSeed());
+    this.migrationRate = config.getMigrationRate();
+    this.executor = config.getRehashExecutor();
+    this.pool = config.getRehashPool();
+    this.hasher = BatchHasher.getInstance();
+    this.compactionThreshold = config.getCompactionThreshold();
+    this.lowWaterMark = config.getLowWaterMark();
+    this.spacePolicy = config.getSpacePolicy();
+  }
+  
+  /**
+   * Returns the configuration this DPHash was created with.
+   * 
+   * @return  configuration of this DPHash
+   */
+  public DPHashConfig getConfig() {
+    return this.config;
+  }
+  
+  /**
+   * Returns the seed of the hash function currently used by the top level of the hash.
+   * 
+   * @return  seed of the top level hash function
+   */
+  public long getSeed() {
+    return this.table.h.getSeed();
+  }
+  
+  /**
+   * Returns the seeds of the hash functions currently used by the bins of the hash, 0 for
+   * bins that hold no elements.  Together with {@link #getSeed()} these allow a slow build
+   * to be inspected and replayed exactly.
+   * 
+   * @return  seed of the hash function of every bin
+   */
+  public long[] getBinSeeds() {
+    long[] seeds = new long[this.table.SM];
+    
+    for (int j=0; j < this.table.SM; j++) {
+      if ((this.table.dphash[j] != null) && (this.table.dphash[j].h != null)) {
+        seeds[j] = this.table.dphash[j].h.getSeed();
+      }
+    }
+    
+    return seeds;
+  }
+  
+  /**
+   * Returns the number of elements stored within this DPHash.
+   * 
+   * @return  number of elements stored
+   */
+  public int size() {
+    return this.size;
+  }
+  
+  /**
+   * Returns the number of slots allocated to the bins of the table per element stored,
+   * in both generations of the table.
+   * 
+   * @return  slots per element
+   */
+  public double getSlotsPerKey() {
+    long space = this.table.space + ((this.old != null) ? this.old.space : 0);
+    
+    return (double) space / Math.max(this.size, 1);
+  }
+  
+  /**
+   * Returns the average number of hash functions that a rebuild of a bin has tried before
+   * finding one that places all elements of the bin, over all rebuilds so far.
+   * 
+   * @return  hash functions tried per rebuild; 0 if no bin has been rebuilt
+   */
+  public double getTriesPerRebuild() {
+    long rebuilds = this.rebuilds.sum();
+    
+    return (rebuilds > 0) ? (double) this.tries.sum() / rebuilds : 0;
+  }
+  
+  /**
+   * Returns true while an incremental rehash is moving elements from the old generation
+   * of the table into the current one, or a background rehash is building a new one.
+   * 
+   * @return  true if a rehash is in progress
+   */
+  public boolean isRehashing() {
+    return (this.old != null) || (this.pending != null);
+  }
+  
+  /**
+   * Waits for a background rehash that is in progress to finish and publishes the new
+   * generation of the table.  If the updates recorded meanwhile have taken the table below
+   * the low-water mark of the new generation, the table is shrunk as well, and that rehash
+   * is waited for too.  Does nothing if no background rehash is running.
+   */
+  public void awaitRehash() {
+    while (this.pending != null) {
+      this.publish();
+      this.shrink();
+    }
+  }
+  
+  /**
+   * Waits for a background rehash that is in progress to finish, replays the delta onto the
+   * new generation of the table and makes it the current one.  Does nothing if no
+   * background rehash is running.
+   */
+  protected void publish() {
+    if (this.pending == null) {
+      return;
+    }
+    
+    DPHashTable t;
+    
+    try {
+      t = this.pending.join();
+    } catch (CompletionException | CancellationException ex) {
+      t = null;
+    }
+    
+    Map<Integer, Entry> updates = this.delta;
+    
+    this.pending = null;
+    this.delta = null;
+    
+    if (t == null) {
+      // the background rehash failed, so bring the frozen generation up to date and rehash here
+      this.rebuildAll(this.replay(this.table, updates));
+      return;
+    }
+    
+    List<Entry> l = this.replay(t, updates);
+    
+    for (int i=0; i < l.size(); i++) {
+      if (!this.insert(t, l.get(i))) {
+        // the new generation broke its space bound, so rehash everything at once
+        this.table = t;
+        this.rebuildAll(new ArrayList<Entry>(l.subList(i, l.size())));
+        return;
+      }
+    }
+    
+    this.table = t;
+  }
+  
+  /**
+   * Applies the updates recorded during a background rehash to the entries of the given
+   * generation of the table, returning the entries of the elements that it does not hold.
+   * 
+   * @param t generation of the table the updates are applied to
+   * @param updates updates recorded during the rehash, keyed by value
+   * @return  list of the entries that still have to be inserted into the generation
+   */
+  protected List<Entry> replay(DPHashTable t, Map<Integer, Entry> updates) {
+    List<Entry> l = new ArrayList<Entry>();
+    
+    for (Iterator<Entry> i = updates.values().iterator(); i.hasNext(); ) {
+      Entry e = i.next();
+      Entry f = DPHashImpl.locate(t, e.value);
+      
+      if (f != null) {
+        f.data = e.data;
+        
+        if (e.isDeleted && !f.isDeleted) {
+          f.isDeleted = true;
+          this.bury(t, f);
+        } else if (!e.isDeleted && f.isDeleted) {
+          f.isDeleted = false;
+          this.revive(t, f);
+        }
+      } else if (!e.isDeleted) {
+        l.add(e);
+      }
+    }
+    
+    return l;
+  }
+  
+  /**
+   * Records an update made while a background rehash is running in the delta, leaving the
+   * frozen generation of the table untouched.
+   * 
+   * @param x value being updated
+   * @param data  data to be stored with the value
+   * @param isDeleted true if the value is being deleted
+   * @return  data previously stored with value; null if the value was not in the hash
+   */
+  protected Object record(int x, Object data, boolean isDeleted) {
+    Entry e = this.find(x);
+    Object previous = (e != null) ? e.data : null;
+    
+    if (e == null) {
+      if (isDeleted) {
+        return null;
+      }
+      
+      this.size++;
+    } else if (isDeleted) {
+      this.size--;
+    }
+    
+    Entry d = this.delta.get(x);
+    
+    if (d == null) {
+      d = new Entry(x);
+      this.delta.put(x, d);
+    }
+    
+    d.data = data;
+    d.isDeleted = isDeleted;
+    
+    return previous;
+  }
+  
+  /**
+   * Generates a random hash function of the hash family of this DPHash, seeded from the
+   * random number generator of this DPHash.
+   * 
+   * @param m size of the table that the hash function sends elements to
+   * @return  random hash function
+   */
+  protected HashFunction generateHashFunction(int m) {
+    return this.generateHashFunction(m, this.random);
+  }
+  
+  /**
+   * Generates a random hash function of the hash family of this DPHash, seeded from the
+   * given random number generator.
+   * 
+   * @param m size of the table that the hash function sends elements to
+   * @param random  random number generator the seed is drawn from
+   * @return  random hash function
+   */
+  protected HashFunction generateHashFunction(int m, SplittableRandom random) {
+    return UniversalHashFunction.generateHashFunction(this.family, m, random.nextLong());
+  }
+  
+  /**
+   * Creates a new, empty bin for the top level of the hash.
+   * 
+   * @return  new bin
+   */
+  protected abstract Bin createBin();
+  
+  /**
+   * Returns the amount that the given bin should be scaled by when it is sized.
+   * 
+   * @param bin bin being sized
+   * @return  scale factor of the bin
+   */
+  protected abstract double binScale(Bin bin);
+  
+  /**
+   * Grows the number of elements permitted within the given bin as it has become full.
+   * The growth is only kept if the space of the grown bin fits within the space bound of
+   * its generation; either way grown is called once that has been checked.
+   * 
+   * @param bin bin to be grown
+   */
+  protected void growBin(Bin bin) {
+    bin.m = this.binCapacity(bin, Math.max(bin.m, 1));
+  }
+  
+  /**
+   * Called once the growth of the given bin by growBin has been checked against the space
+   * bound of its generation.  If it was rejected, the number of elements permitted within
+   * the bin has already been set back, and whatever else growBin changed has to be undone
+   * as well.
+   * 
+   * @param bin bin that was grown
+   * @param accepted  true if the bin keeps its growth; false if it was set back
+   */
+  protected void grown(Bin bin, boolean accepted) {
+  }
+  
+  /**
+   * Called when an element inserted into the given bin collides within it, right before
+   * the bin is rebuilt to make room for it.  Rebuilds that grow, compact or build a bin
+   * are not collisions.
+   * 
+   * @param bin bin the element collided in
+   */
+  protected void collided(Bin bin) {
+  }
+  
+  /**
+   * Returns the number of elements that the given bin should permit when holding n elements.
+   * 
+   * @param bin bin being sized
+   * @param n number of elements the bin is sized for
+   * @return  number of elements permitted within the bin
+   */
+  protected int binCapacity(Bin bin, int n) {
+    int m = (int) (this.binScale(bin) * n);
+    
+    // just a slight modification for the case when the scale < 2
+    if (m == 1) {
+      m++;
+    }
+    
+    return m;
+  }
+  
+  /**
+   * Returns the space to be allocated to a bin that permits m elements, as decided by the
+   * space policy: 2m(m-1) by default, rounded to a size that the hash family can hash into.
+   * 
+   * @param m number of elements permitted within the bin
+   * @return  space to be allocated to the bin
+   */
+  protected int binSpace(int m) {
+    return this.spacePolicy.binSpace(this.family, m);
+  }
+  
+  /**
+   * Insert the value x into the hash with the given data.
+   * 
+   * @param x value to be inserted into the hash
+   * @param data  data to be stored with value
+   */
+  public void insert(int x, V data) {
+    this.put(x, data);
+  }
+  
+  /**
+   * Insert the value x into the hash with the given data, replacing any data that is
+   * already stored with the value.
+   * 
+   * @param x value to be inserted into the hash
+   * @param data  data to be stored with value
+   * @return  data previously stored with value; null if the value was not in the hash
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int x, V data) {
+    this.count++;
+    
+    if (this.pending != null) {
+      if (!this.pending.isDone() && (this.count <= this.headroom)) {
+        return (V) this.record(x, data, false);
+      }
+      
+      this.publish();
+      
+      // the deletes recorded during the build may have left the new generation below its low-water mark
+      if (this.shrink()) {
+        return (V) this.record(x, data, false);
+      }
+    }
+    
+    Entry e = this.locate(x);
+    
+    if (e != null) {
+      // the value is already stored (maybe marked deleted) so just update the entry in place
+      Object previous = e.isDeleted ? null : e.data;
+      
+      if (e.isDeleted) {
+        e.isDeleted = false;
+        this.size++;
+        this.revive(this.table, e);
+      }
+      
+      e.data = data;
+      
+      if (this.count > this.table.M) {
+        this.rehash(null);
+      } else {
+        this.migrate();
+      }
+      
+      return (V) previous;
+    }
+    
+    e = new Entry(x, data);
+    this.size++;
+    
+    if (this.count > this.table.M) {
+      this.rehash(e);
+    } else if (!this.insert(this.table, e)) {
+      this.rehash(e);
+    } else {
+      this.migrate();
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Delete the value x from the hash, if it exists.
+   * 
+   * @param x value to be deleted from the hash
+   */
+  public void delete(int x) {
+    this.count++;
+    
+    if (this.pending != null) {
+      if (!this.pending.isDone() && (this.count < this.headroom)) {
+        this.record(x, null, true);
+        return;
+      }
+      
+      this.publish();
+      
+      // the deletes recorded during the build may have left the new generation below its low-water mark
+      if (this.shrink()) {
+        this.record(x, null, true);
+        return;
+      }
+    }
+    
+    Entry e = this.find(x);
+    
+    if (e != null) {
+      e.isDeleted = true;
+      this.size--;
+      this.bury(this.table, e);
+    }
+    
+    if (this.count >= this.table.M) {
+      this.rehash(null);
+    } else if (!this.shrink()) {
+      this.migrate();
+    }
+  }
+  
+  /**
+   * Returns true if the value x is stored in the hash, and false otherwise.
+   * 
+   * @param x value to be searched for in the hash
+   * @return  true if the value is stored in the hash; false otherwise
+   */
+  public boolean lookup(int x) {
+    return (this.find(x) != null);
+  }
+  
+  /**
+   * Returns the data stored with the value x, or null if it is not stored in the hash.
+   * 
+   * @param x value to be searched for in the hash
+   * @return  data stored with the value; null if the value is not stored in the hash
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int x) {
+    Entry e = this.find(x);
+    
+    return (e != null) ? (V) e.data : null;
+  }
+  
+  /**
+   * Returns the data stored with the value x, or defaultValue if it is not stored in the hash.
+   * 
+   * @param x value to be searched for in the hash
+   * @param defaultValue  value returned when x is not stored in the hash
+   * @return  data stored with the value; defaultValue if the value is not stored in the hash
+   */
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(int x, V defaultValue) {
+    Entry e = this.find(x);
+    
+    return (e != null) ? (V) e.data : defaultValue;
+  }
+  
+  /**
+   * Returns the data stored with the value x, computing and inserting it with the given
+   * function if the value is not stored in the hash or has no data.
+   * 
+   * @param x value to be searched for in the hash
+   * @param mappingFunction function computing the data for x
+   * @return  data stored with the value; null if none is stored and none was computed
+   */
+  @SuppressWarnings("unchecked")
+  public V computeIfAbsent(int x, IntFunction<? extends V> mappingFunction) {
+    Entry e = this.find(x);
+    
+    if ((e != null) && (e.data != null)) {
+      return (V) e.data;
+    }
+    
+    V data = mappingFunction.apply(x);
+    
+    if (data != null) {
+      this.put(x, data);
+    }
+    
+    return data;
+  }
+  
+  /**
+   * Looks up all the given values at once, storing into out[i] whether keys[i] is found in
+   * the hash.
+   * 
+   * @param keys  values to be queried
+   * @param out array receiving the result of every query
+   * @throws IllegalArgumentException if out is shorter than keys
+   * @see #findAll(int[], int, int, LookupBlock)
+   */
+  public void lookupAll(int[] keys, boolean[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but room for " + out.length + " results");
+    }
+    
+    LookupBlock block = new LookupBlock();
+    Entry[] found = block.found;
+    
+    for (int from=0; from < keys.length; from += DPHashImpl.LOOKUP_BLOCK) {
+      int n = Math.min(DPHashImpl.LOOKUP_BLOCK, keys.length - from);
+      
+      this.findAll(keys, from, n, block);
+      
+      for (int k=0; k < n; k++) {
+        out[from + k] = (found[k] != null);
+      }
+    }
+  }
+  
+  /**
+   * Looks up all the given values at once, storing into out[i] the data stored with keys[i],
+   * or null if it is not found.
+   * 
+   * @param keys  values to be queried
+   * @param out array receiving the data of every query
+   * @throws IllegalArgumentException if out is shorter than keys
+   * @see #findAll(int[], int, int, LookupBlock)
+   */
+  @SuppressWarnings("unchecked")
+  public void getAll(int[] keys, V[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but room for " + out.length + " results");
+    }
+    
+    LookupBlock block = new LookupBlock();
+    Entry[] found = block.found;
+    
+    for (int from=0; from < keys.length; from += DPHashImpl.LOOKUP_BLOCK) {
+      int n = Math.min(DPHashImpl.LOOKUP_BLOCK, keys.length - from);
+      
+      this.findAll(keys, from, n, block);
+      
+      for (int k=0; k < n; k++) {
+        out[from + k] = (found[k] != null) ? (V) found[k].data : null;
+      }
+    }
+  }
+  
+  /**
+   * Finds the entries of the given block of values, storing the live entry of keys[from + k],
+   * or null, into block.found[k].  Instead of running one lookup after the other, each of which
+   * waits for its bin, then for its slot and then for its entry to be loaded, the block is
+   * processed in stages: first the bins of all values are loaded, then the slots of all
+   * values within their bins are computed and loaded, and finally all entries are compared.
+   * The loads within a stage do not depend on each other, so the processor can have many
+   * cache misses outstanding at once.  Both levels of hashing are done for the whole block
+   * at once by the BatchHasher, in vector lanes if the Vector API is present.
+   * 
+   * @param keys  values to be queried
+   * @param from  index of the first value of the block
+   * @param n number of values in the block, at most LOOKUP_BLOCK
+   * @param block arrays to work in, receiving the entry of every value of the block
+   */
+  protected void findAll(int[] keys, int from, int n, LookupBlock block) {
+    Entry[] found = block.found;
+    
+    if ((this.delta != null) || (this.old != null)) {
+      // values may be found in more than one place while rehashing, so look them up one by one
+      for (int k=0; k < n; k++) {
+        found[k] = this.find(keys[from + k]);
+      }
+      
+      return;
+    }
+    
+    DPHashTable t = this.table;
+    Bin[] bins = block.bins;
+    int[] slots = block.slots;
+    long[] a = block.a;
+    long[] b = block.b;
+    int[] m = block.m;
+    
+    this.hasher.hash(t.h, keys, from, slots, 0, n);
+    
+    for (int k=0; k < n; k++) {
+      Bin bin = t.dphash[slots[k]];
+      
+      if ((bin != null) && (bin.m > 0)) {
+        bins[k] = bin;
+        a[k] = bin.h.getA();
+        b[k] = bin.h.getB();
+        m[k] = bin.h.getSize();
+      } else {
+        // hash into a table of size 1, whose slot is never looked at
+        bins[k] = null;
+        a[k] = 0;
+        b[k] = 0;
+        m[k] = 1;
+      }
+    }
+    
+    this.hasher.hash(this.family, a, b, m, keys, from, slots, 0, n);
+    
+    for (int k=0; k < n; k++) {
+      Bin bin = bins[k];
+      Entry e = (bin != null) ? bin.bin[slots[k]] : null;
+      
+      // a two-choice bin may hold the value in the slot of its second function instead
+      if ((bin != null) && (bin.h2 != null) && ((e == null) || (e.value != keys[from + k]))) {
+        e = bin.bin[bin.h2.hash(keys[from + k])];
+      }
+      
+      found[k] = e;
+    }
+    
+    for (int k=0; k < n; k++) {
+      Entry e = found[k];
+      
+      if ((e != null) && ((e.value != keys[from + k]) || e.isDeleted)) {
+        found[k] = null;
+      }
+    }
+  }
+  
+  /**
+   * Inserts all the given elements, replacing any data previously stored with them.  The
+   * elements already stored are updated in place.  The new ones are grouped by the bin
+   * they fall into, so that every bin receiving new elements is grown at most once, to fit
+   * all of them, and rebuilt at most once.  A rehash in progress is finished first.
+   * 
+   * @param keys  values of the elements to be stored
+   * @param values  data to be stored with each element, in the order of the keys; null for none
+   * @throws IllegalArgumentException if the arrays differ in length
+   */
+  public void insertAll(int[] keys, V[] values) {
+    if ((values != null) && (values.length != keys.length)) {
+      throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+    }
+    
+    this.settle();
+    this.count += keys.length;
+    
+    // update the elements already stored, and sort the new ones by value and then by position
+    long[] order = new long[keys.length];
+    int n = 0;
+    
+    for (int i=0; i < keys.length; i++) {
+      Entry e = DPHashImpl.locate(this.table, keys[i]);
+      
+      if (e != null) {
+        if (e.isDeleted) {
+          e.isDeleted = false;
+          this.size++;
+          this.revive(this.table, e);
+        }
+        
+        e.data = (values != null) ? values[i] : null;
+      } else {
+        order[n++] = ((long) keys[i] << 32) | i;
+      }
+    }
+    
+    Arrays.sort(order, 0, n);
+    
+    // keep the last position of every run of equal values, whose data wins, and sort those by bin
+    int unique = 0;
+    
+    for (int k=0; k < n; k++) {
+      if ((k + 1 < n) && ((order[k + 1] >>> 32) == (order[k] >>> 32))) {
+        continue;
+      }
+      
+      int i = (int) order[k];
+      
+      order[unique++] = ((long) this.table.h.hash(keys[i]) << 32) | i;
+    }
+    
+    Arrays.sort(order, 0, unique);
+    
+    // make one entry per new value, starting a group wherever the bin changes
+    List<Entry> entries = new ArrayList<Entry>(unique);
+    int[] bins = new int[unique + 1];
+    int groups = 0;
+    
+    for (int k=0; k < unique; k++) {
+      int i = (int) order[k];
+      
+      if ((k == 0) || ((order[k] >>> 32) != (order[k - 1] >>> 32))) {
+        bins[groups++] = k;
+      }
+      
+      entries.add(new Entry(keys[i], (values != null) ? values[i] : null));
+    }
+    
+    bins[groups] = entries.size();
+    this.size += entries.size();
+    
+    if (this.count > this.table.M) {
+      this.rebuildAll(entries);
+      return;
+    }
+    
+    for (int g=0; g < groups; g++) {
+      List<Entry> group = entries.subList(bins[g], bins[g + 1]);
+      int j = this.table.h.hash(group.get(0).value);
+      
+      if (!this.insert(this.table, j, group)) {
+        // the space bound broke, so rehash with the elements not yet inserted
+        this.rebuildAll(new ArrayList<Entry>(entries.subList(bins[g], entries.size())));
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Deletes all the elements with the given values that exist, checking whether the table
+   * has to be rehashed once for the whole batch.  A rehash in progress is finished first.
+   * 
+   * @param keys  values of the elements to be deleted
+   */
+  public void deleteAll(int[] keys) {
+    this.settle();
+    this.count += keys.length;
+    
+    for (int i=0; i < keys.length; i++) {
+      Entry e = this.find(keys[i]);
+      
+      if (e != null) {
+        e.isDeleted = true;
+        this.size--;
+        this.bury(this.table, e);
+      }
+    }
+    
+    if (this.count >= this.table.M) {
+      this.rehash(null);
+    } else {
+      this.shrink();
+    }
+  }
+  
+  /**
+   * Rehashes the table into a generation sized for the elements it holds if their number
+   * has fallen below the low-water mark, a share of the number of elements the current
+   * generation was sized for.  Called after every delete, and may be called during idle
+   * time as well.  Nothing is done while a rehash is already in progress.
+   * 
+   * @return  true if the table is being shrunk
+   */
+  public boolean shrink() {
+    if ((this.lowWaterMark == 0) || this.isRehashing()) {
+      return false;
+    }
+    
+    int n = this.table.M / (1 + this.C);
+    
+    if ((n <= 4) || (this.size >= this.lowWaterMark * n)) {
+      return false;
+    }
+    
+    this.rehash(null);
+    
+    return true;
+  }
+  
+  /**
+   * Compacts up to the given number of bins of the current generation of the table that
+   * hold entries marked deleted, picking up where the last call left off and wrapping
+   * around at the end of the table.  Meant to be called during idle time, so that the
+   * tombstones of bins below the compaction threshold are dropped as well, a few bins at a
+   * time, instead of all at once by the next global rehash.  Does nothing while a
+   * background rehash is running.
+   * 
+   * @param bins  maximum number of bins to be compacted
+   * @return  number of entries marked deleted that were dropped
+   */
+  public int compact(int bins) {
+    if (this.pending != null) {
+      return 0;
+    }
+    
+    DPHashTable t = this.table;
+    int dropped = 0;
+    
+    for (int k=0, compacted=0; (k < t.SM) && (compacted < bins); k++) {
+      if (this.compactCursor >= t.SM) {
+        this.compactCursor = 0;
+      }
+      
+      Bin bin = t.dphash[this.compactCursor++];
+      
+      if ((bin != null) && (bin.dead > 0)) {
+        dropped += bin.dead;
+        compacted++;
+        this.compact(t, bin);
+      }
+    }
+    
+    return dropped;
+  }
+  
+  /**
+   * Returns the number of entries marked deleted that still occupy slots of the bins, in
+   * both generations of the table.
+   * 
+   * @return  number of tombstones in the table
+   */
+  public int getTombstones() {
+    DPHashTable[] tables = { this.table, this.old };
+    int dead = 0;
+    
+    for (int t=0; t < tables.length; t++) {
+      for (int j=0; (tables[t] != null) && (j < tables[t].SM); j++) {
+        if (tables[t].dphash[j] != null) {
+          dead += tables[t].dphash[j].dead;
+        }
+      }
+    }
+    
+    return dead;
+  }
+  
+  /**
+   * Finishes a rehash that is in progress, incremental or in the background, so that the
+   * current generation holds every element.
+   */
+  protected void settle() {
+    this.awaitRehash();
+    
+    while (this.old != null) {
+      this.migrate(this.old.SM);
+    }
+  }
+  
+  /**
+   * Returns the entry stored with the value x, or null if x is not stored in the hash.  Just
+   * like a lookup this probes exactly one bin of the top level and one slot of that bin,
+   * in each generation of the table.
+   * 
+   * @param x value to be searched for in the hash
+   * @return  entry stored with the value; null if the value is not stored in the hash
+   */
+  protected Entry find(int x) {
+    Entry e = this.locate(x);
+    
+    return ((e != null) && (!e.isDeleted)) ? e : null;
+  }
+  
+  /**
+   * Returns the entry stored with the value x, even if it is marked deleted, or null if no
+   * entry with the value is found in either generation of the table.  An element is only
+   * ever stored in one of the generations.  While a background rehash is running the delta
+   * of updates is searched first, as it holds the latest entry of any value it contains.
+   * 
+   * @param x value to be searched for in the hash
+   * @return  entry stored with the value; null if there is none
+   */
+  protected Entry locate(int x) {
+    if (this.delta != null) {
+      Entry d = this.delta.get(x);
+      
+      if (d != null) {
+        return d;
+      }
+    }
+    
+    Entry e = DPHashImpl.locate(this.table, x);
+    
+    if ((e == null) && (this.old != null)) {
+      e = DPHashImpl.locate(this.old, x);
+    }
+    
+    return e;
+  }
+  
+  /**
+   * Returns the entry stored with the value x in the given generation of the table, even
+   * if it is marked deleted, or null if there is none.
+   * 
+   * @param t generation of the table to be searched
+   * @param x value to be searched for
+   * @return  entry stored with the value; null if there is none
+   */
+  protected static Entry locate(DPHashTable t, int x) {
+    Bin bin = t.dphash[t.h.hash(x)];
+    
+    if ((bin != null) && (bin.m > 0)) {
+      Entry e = bin.bin[bin.h.hash(x)];
+      
+      if ((e != null) && (e.value == x)) {
+        return e;
+      }
+      
+      if (bin.h2 != null) {
+        e = bin.bin[bin.h2.hash(x)];
+        
+        if ((e != null) && (e.value == x)) {
+          return e;
+        }
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Returns a slot of the given bin that the value x may be placed into as it is empty, or
+   * -1 if every slot that x may lie in is taken.
+   * 
+   * @param bin bin the value falls into, which must permit elements
+   * @param x value to be placed
+   * @return  empty slot for the value; -1 if there is none
+   */
+  protected static int vacancy(Bin bin, int x) {
+    int y = bin.h.hash(x);
+    
+    if ((bin.bin[y] != null) && (bin.h2 != null)) {
+      y = bin.h2.hash(x);
+    }
+    
+    return (bin.bin[y] == null) ? y : -1;
+  }
+  
+  /**
+   * Returns the bin of the given generation of the table that holds the given entry, or
+   * null if the entry is not held by the generation.
+   * 
+   * @param t generation of the table to be searched
+   * @param e entry to be searched for
+   * @return  bin holding the entry; null if there is none
+   */
+  protected static Bin binOf(DPHashTable t, Entry e) {
+    Bin bin = t.dphash[t.h.hash(e.value)];
+    
+    if ((bin == null) || (bin.m == 0)) {
+      return null;
+    }
+    
+    return ((bin.bin[bin.h.hash(e.value)] == e) || ((bin.h2 != null) && (bin.bin[bin.h2.hash(e.value)] == e))) ? bin : null;
+  }
+  
+  /**
+   * Counts the given entry, which has just been marked deleted, as a tombstone of its bin,
+   * and compacts the bin if the share of its entries that are dead reaches the compaction
+   * threshold.  An entry of the old generation of an incremental rehash is not counted, as
+   * it is dropped when its bin is moved.
+   * 
+   * @param t generation of the table holding the entry
+   * @param e entry that has been marked deleted
+   */
+  protected void bury(DPHashTable t, Entry e) {
+    Bin bin = DPHashImpl.binOf(t, e);
+    
+    if (bin != null) {
+      bin.dead++;
+      
+      if ((this.compactionThreshold > 0) && (bin.dead >= this.compactionThreshold * bin.b)) {
+        this.compact(t, bin);
+      }
+    }
+  }
+  
+  /**
+   * Stops counting the given entry, which is no longer marked deleted, as a tombstone of
+   * its bin.
+   * 
+   * @param t generation of the table holding the entry
+   * @param e entry that is no longer marked deleted
+   */
+  protected void revive(DPHashTable t, Entry e) {
+    Bin bin = DPHashImpl.binOf(t, e);
+    
+    if (bin != null) {
+      bin.dead--;
+    }
+  }
+  
+  /**
+   * Rebuilds the given bin from its live entries alone, shrinking it to the size it would
+   * be given for them by a global rehash if that is smaller.  A bin left without entries
+   * gives up its array and hash function altogether.  Shrinking only lowers the space of
+   * the generation, so its space bound still holds.
+   * 
+   * @param t generation of the table holding the bin
+   * @param bin bin to be compacted
+   */
+  protected void compact(DPHashTable t, Bin bin) {
+    List<Entry> l = this.gather(bin);
+    int m = (l.size() > 0) ? this.binCapacity(bin, l.size()) : 0;
+    
+    if (m < bin.m) {
+      int s = this.binSpace(m);
+      
+      t.space += s - bin.s;
+      bin.m = m;
+      bin.s = s;
+    }
+    
+    if (l.isEmpty()) {
+      bin.h = null;
+      bin.h2 = null;
+      bin.bin = null;
+      bin.b = 0;
+      bin.dead = 0;
+    } else {
+      this.rebuild(bin, l);
+    }
+  }
+  
+  /**
+   * Inserts the given entry, whose value is not yet stored, into the given generation of
+   * the table.  The entry's bin is rebuilt if the entry collides within it, and grown if
+   * it is full.  If growing the bin breaks the space bound of the generation the bin is
+   * left untouched, the entry is not inserted, and the generation has to be rehashed.
+   * 
+   * @param t generation of the table the entry is inserted into
+   * @param e entry to be inserted
+   * @return  true if the entry was inserted; false if the generation must be rehashed
+   */
+  protected boolean insert(DPHashTable t, Entry e) {
+    int j = t.h.hash(e.value);
+    Bin bin = t.dphash[j];
+    
+    if (bin == null) {
+      bin = this.createBin();
+      t.dphash[j] = bin;
+    }
+    
+    bin.b++;
+    
+    if (bin.b <= bin.m) {
+      int location = DPHashImpl.vacancy(bin, e.value);
+      
+      if (location != -1) {
+        bin.bin[location] = e;
+      } else {
+        List<Entry> l = this.gather(bin);
+        
+        this.collided(bin);
+        l.add(e);
+        this.rebuild(bin, l);
+      }
+      
+      return true;
+    }
+    
+    int m = bin.m;
+    
+    this.growBin(bin);
+    
+    int s = this.binSpace(bin.m);
+    
+    t.space += s - bin.s;
+    
+    if (!this.verify(t)) {
+      // leave the bin as it was, without the entry
+      t.space -= s - bin.s;
+      bin.m = m;
+      bin.b--;
+      this.grown(bin, false);
+      
+      return false;
+    }
+    
+    bin.s = s;
+    this.grown(bin, true);
+    
+    List<Entry> l = this.gather(bin);
+    
+    l.add(e);
+    this.rebuild(bin, l);
+    
+    return true;
+  }
+  
+  /**
+   * Inserts the given entries, whose values are not yet stored and which all fall into the
+   * given bin, into the given generation of the table.  The entries are placed into their
+   * slots as long as they do not collide; if one does, or the bin has to grow to hold them
+   * all, the bin is rebuilt once with all of its entries.  If growing the bin breaks the
+   * space bound of the generation nothing is inserted and the generation has to be rehashed.
+   * 
+   * @param t generation of the table the entries are inserted into
+   * @param j index of the bin the entries fall into
+   * @param l entries to be inserted
+   * @return  true if the entries were inserted; false if the generation must be rehashed
+   */
+  protected boolean insert(DPHashTable t, int j, List<Entry> l) {
+    Bin bin = t.dphash[j];
+    
+    if (bin == null) {
+      bin = this.createBin();
+      t.dphash[j] = bin;
+    }
+    
+    int b = bin.b + l.size();
+    int placed = 0;
+    
+    if (b <= bin.m) {
+      while (placed < l.size()) {
+        Entry e = l.get(placed);
+        int location = DPHashImpl.vacancy(bin, e.value);
+        
+        if (location == -1) {
+          this.collided(bin);
+          break;
+        }
+        
+        bin.bin[location] = e;
+        placed++;
+      }
+    } else {
+      int m = bin.m;
+      
+      // grow the bin once, far enough to fit all of the entries
+      this.growBin(bin);
+      
+      if (bin.m < b) {
+        bin.m = this.binCapacity(bin, b);
+      }
+      
+      int s = this.binSpace(bin.m);
+      
+      t.space += s - bin.s;
+      
+      if (!this.verify(t)) {
+        // leave the bin as it was, without the entries
+        t.space -= s - bin.s;
+        bin.m = m;
+        this.grown(bin, false);
+        
+        return false;
+      }
+      
+      bin.s = s;
+      this.grown(bin, true);
+    }
+    
+    bin.b = b;
+    
+    if (placed < l.size()) {
+      List<Entry> all = this.gather(bin);
+      
+      all.addAll(l.subList(placed, l.size()));
+      this.rebuild(bin, all);
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Removes all entries from the given bin, returning the ones not marked for deletion.
+   * 
+   * @param bin bin whose entries are gathered
+   * @return  list of all entries of the bin not marked for deletion
+   */
+  protected List<Entry> gather(Bin bin) {
+    List<Entry> l = new ArrayList<Entry>();
+    
+    if (bin.bin != null) {
+      for (int i=0; i < bin.bin.length; i++) {
+        if ((bin.bin[i] != null) && (!bin.bin[i].isDeleted)) {
+          l.add(bin.bin[i]);
+        }
+        
+        // clean up references 
+        bin.bin[i] = null;
+      }
+    }
+    
+    return l;
+  }
+  
+  /**
+   * Stores the given entries into a new array of the bin, choosing random hash functions
+   * until one is found that is injective on the entries.  None of the entries may be
+   * marked deleted, so the bin is left without tombstones.
+   * 
+   * @param bin bin to be rebuilt, with its size already set
+   * @param l entries to be stored in the bin
+   */
+  protected void rebuild(Bin bin, List<Entry> l) {
+    Entry[] entries = l.toArray(new Entry[l.size()]);
+    
+    bin.b = entries.length;
+    bin.dead = 0;
+    this.rebuild(bin, entries, 0, entries.length, this.random.nextLong());
+    l.clear();
+  }
+  
+  /**
+   * Stores the given range of entries into a new array of the bin, choosing random hash
+   * functions until one is found that is injective on the entries, or, for a two-choice
+   * bin, pairs of functions until the entries can be placed by displacement.  The seeds of
+   * the hash functions tried are derived from the given seed alone, so bins may be rebuilt
+   * by different threads at once.  Two entries with the same value collide under every
+   * hash function, so they are rejected instead of being searched for forever.
+   * 
+   * @param bin bin to be rebuilt, with its size already set
+   * @param entries array holding the entries to be stored in the bin
+   * @param from  index of the first entry of the bin
+   * @param to  index after the last entry of the bin
+   * @param seed  seed that the seeds of the hash functions are derived from
+   * @return  number of hash functions, or pairs of them, tried
+   * @throws IllegalArgumentException if two of the entries have the same value
+   */
+  protected int rebuild(Bin bin, Entry[] entries, int from, int to, long seed) {
+    boolean injective = false;
+    int tries = 0;
+    
+    while (!injective) {
+      injective = true;
+      tries++;
+      bin.bin = null;
+      bin.bin = new Entry[bin.s];
+      seed += UniversalHashFunction.GOLDEN_GAMMA;
+      bin.h = UniversalHashFunction.generateHashFunction(this.family, bin.s, UniversalHashFunction.mix(seed));
+      
+      if (this.spacePolicy.getChoices() == 2) {
+        seed += UniversalHashFunction.GOLDEN_GAMMA;
+        bin.h2 = UniversalHashFunction.generateHashFunction(this.family, bin.s, UniversalHashFunction.mix(seed));
+        
+        for (int i=from; (i < to) && injective; i++) {
+          injective = this.displace(bin, entries[i], to - from);
+        }
+        
+        continue;
+      }
+      
+      for (int i=from; i < to; i++) {
+        Entry e = entries[i];
+        int y = bin.h.hash(e.value);
+        
+        if (bin.bin[y] != null) {
+          if (bin.bin[y].value == e.value) {
+            throw new IllegalArgumentException("duplicate value: " + e.value);
+          }
+          
+          injective = false;
+          break;
+        }
+        
+        bin.bin[y] = e;
+      }
+    }
+    
+    this.tries.add(tries);
+    this.rebuilds.increment();
+    
+    return tries;
+  }
+  
+  /**
+   * Places the given entry into the given two-choice bin by displacement: the entry takes
+   * the slot of its first function, or of its second one if only that is free, and an
+   * entry it evicts moves on to its own other slot, until an empty slot is reached.  Gives
+   * up after a number of evictions that a placement practically never needs unless the
+   * functions form a cycle, in which case the bin needs new functions.
+   * 
+   * @param bin bin the entry is placed into
+   * @param e entry to be placed
+   * @param n number of entries of the bin
+   * @return  true if every entry of the bin has a slot; false if the functions fail
+   * @throws IllegalArgumentException if the bin already holds an entry with the same value
+   */
+  protected boolean displace(Bin bin, Entry e, int n) {
+    int y = bin.h.hash(e.value);
+    int z = bin.h2.hash(e.value);
+    
+    if (((bin.bin[y] != null) && (bin.bin[y].value == e.value)) || ((bin.bin[z] != null) && (bin.bin[z].value == e.value))) {
+      throw new IllegalArgumentException("duplicate value: " + e.value);
+    }
+    
+    if ((bin.bin[y] != null) && (bin.bin[z] == null)) {
+      y = z;
+    }
+    
+    for (int kicks=0; kicks <= 2 * n + 8; kicks++) {
+      Entry evicted = bin.bin[y];
+      
+      bin.bin[y] = e;
+      
+      if (evicted == null) {
+        return true;
+      }
+      
+      e = evicted;
+      z = bin.h.hash(e.value);
+      y = (z != y) ? z : bin.h2.hash(e.value);
+    }
+    
+    return false;
+  }
+  
+  /**
+   * Rehashes the entire table as a collision occurred, or the table grew too big.  When
+   * rehashing incrementally, this only starts moving the elements into a new generation
+   * of the table; when rehashing in the background, this only hands the table over to
+   * the rehash executor.
+   * 
+   * @param e entry that has been inserted that caused rehashing; null if deletion caused rehashing
+   */
+  protected void rehash(Entry e) {
+    // a background rehash that is still running must be finished before starting another
+    this.publish();
+    
+    if ((this.executor != null) && (this.table != null)) {
+      final DPHashTable frozen = this.table;
+      final SplittableRandom random = this.random.split();
+      
+      // set count to be the number of elements in the hash, record the entry in the delta, and
+      // let the delta take updates until the new generation, sized like createTable sizes it, is full
+      this.count = this.size;
+      this.headroom = (1 + this.C) * Math.max(this.size, 4);
+      this.delta = new HashMap<Integer, Entry>();
+      
+      if (e != null) {
+        this.delta.put(e.value, e);
+      }
+      
+      this.pending = CompletableFuture.supplyAsync(() -> this.build(DPHashImpl.snapshot(frozen), random), this.executor);
+      return;
+    }
+    
+    if ((this.migrationRate == 0) || (this.table == null)) {
+      List<Entry> l = new ArrayList<Entry>();
+      
+      if (e != null) {
+        l.add(e);
+      }
+      
+      this.rebuildAll(l);
+      return;
+    }
+    
+    // an incremental rehash still running is only left when the space bound broke before M was reached
+    while (this.old != null) {
+      this.migrate(this.old.SM);
+    }
+    
+    // set count to be the number of elements in the hash and start a new, empty generation
+    this.count = this.size;
+    this.old = this.table;
+    this.cursor = 0;
+    this.table = this.createTable(this.size);
+    
+    if ((e != null) && !this.insert(this.table, e)) {
+      List<Entry> l = new ArrayList<Entry>();
+      
+      l.add(e);
+      this.rebuildAll(l);
+      return;
+    }
+    
+    this.migrate();
+  }
+  
+  /**
+   * Moves the next bins of the old generation of the table into the current one, if an
+   * incremental rehash is in progress.  At least migrationRate bins are moved, and more if
+   * that is too few to move every bin before the current generation is full: the bins
+   * left are spread over the updates left until count reaches M, so the next rehash never
+   * finds an old generation it would have to move all at once.  With a low-water mark set
+   * they are spread over no more updates than the deletes that could take the table below
+   * the mark, so that shrink is never held off by an old generation still being moved.
+   */
+  protected void migrate() {
+    if (this.old != null) {
+      int left = this.old.SM - this.cursor;
+      int updates = this.table.M - this.count;
+      
+      if (this.lowWaterMark > 0) {
+        updates = Math.min(updates, this.size - (int) (this.lowWaterMark * (this.table.M / (1 + this.C))));
+      }
+      
+      updates = Math.max(updates, 1);
+      
+      this.migrate(Math.max(this.migrationRate, (left + updates - 1) / updates));
+    }
+  }
+  
+  /**
+   * Moves up to the given number of bins of the old generation of the table into the
+   * current one.  Once the last bin has been moved the old generation is dropped.
+   * 
+   * @param bins  maximum number of bins to be moved
+   */
+  protected void migrate(int bins) {
+    for (int k=0; (k < bins) && (this.cursor < this.old.SM); k++) {
+      Bin bin = this.old.dphash[this.cursor];
+      
+      // clean up any references so that garbace collector can do it's job
+      this.old.dphash[this.cursor++] = null;
+      
+      if (bin != null) {
+        List<Entry> l = this.gather(bin);
+        
+        for (int i=0; i < l.size(); i++) {
+          if (!this.insert(this.table, l.get(i))) {
+            // the new generation broke its space bound, so rehash everything at once
+            this.rebuildAll(new ArrayList<Entry>(l.subList(i, l.size())));
+            return;
+          }
+        }
+      }
+    }
+    
+    if (this.cursor >= this.old.SM) {
+      this.old = null;
+    }
+  }
+  
+  /**
+   * Creates a new, empty generation of the table sized for n elements.
+   * 
+   * @param n number of elements the generation is sized for
+   * @return  new generation of the table
+   */
+  protected DPHashTable createTable(int n) {
+    return this.createTable(n, this.random);
+  }
+  
+  /**
+   * Creates a new, empty generation of the table sized for n elements, drawing the seed of
+   * its top level hash function from the given random number generator.
+   * 
+   * @param n number of elements the generation is sized for
+   * @param random  random number generator the seed is drawn from
+   * @return  new generation of the table
+   */
+  protected DPHashTable createTable(int n, SplittableRandom random) {
+    // set value of M to be max(n, 4) * (1 + C)
+    int M = (1 + this.C) * Math.max(n, 4);
+    int SM = this.family.tableSize(M * 2);
+    
+    return new DPHashTable(this.generateHashFunction(SM, random), M, SM);
+  }
+  
+  /**
+   * Returns copies of the entries of all elements stored in the given generation of the
+   * table, leaving the generation itself untouched so that it can still be searched.
+   * 
+   * @param t generation of the table whose elements are copied
+   * @return  list of copies of the entries not marked for deletion
+   */
+  protected static List<Entry> snapshot(DPHashTable t) {
+    List<Entry> l = new ArrayList<Entry>();
+    
+    for (int j=0; j < t.SM; j++) {
+      Bin bin = t.dphash[j];
+      
+      if ((bin != null) && (bin.bin != null)) {
+        for (int i=0; i < bin.bin.length; i++) {
+          if ((bin.bin[i] != null) && (!bin.bin[i].isDeleted)) {
+            l.add(new Entry(bin.bin[i].value, bin.bin[i].data));
+          }
+        }
+      }
+    }
+    
+    return l;
+  }
+  
+  /**
+   * Rehashes all elements of the table, in both generations, at once.
+   * 
+   * @param l entries to be stored in addition to the ones in the table
+   */
+  protected void rebuildAll(List<Entry> l) {
+    // gather all current entries in hash
+    DPHashTable[] tables = { this.table, this.old };
+    
+    for (int t=0; t < tables.length; t++) {
+      if (tables[t] != null) {
+        for (int i=0; i < tables[t].SM; ++i) {
+          if (tables[t].dphash[i] != null) {
+            l.addAll(this.gather(tables[t].dphash[i]));
+            
+            // clean up any references so that garbace collector can do it's job
+            tables[t].dphash[i].h = null;
+            tables[t].dphash[i].bin = null;
+            tables[t].dphash[i] = null;
+          }
+        }
+      }
+    }
+    
+    // get rid of old header tables since they are gone now...
+    this.table = null;
+    this.old = null;
+    
+    // set count to be the number of elements in the hash
+    this.count = l.size();
+    this.size = l.size();
+    this.table = this.build(l, this.random);
+  }
+  
+  /**
+   * Fills this DPHash, which must be empty, with the given elements at once.  Rather than
+   * growing the table through a series of inserts and global rehashes, the table is sized
+   * for the final number of elements, the space bound is met once, and every bin is built
+   * exactly once.  Used by the bulk build factories of the implementations.
+   * 
+   * @param keys  values of the elements, which must all be different
+   * @param values  data stored with each element; null to store no data
+   * @throws IllegalArgumentException if the arrays differ in length or a value repeats
+   */
+  protected void load(int[] keys, Object[] values) {
+    if ((values != null) && (values.length != keys.length)) {
+      throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+    }
+    
+    List<Entry> l = new ArrayList<Entry>(keys.length);
+    
+    for (int i=0; i < keys.length; i++) {
+      l.add(new Entry(keys[i], (values != null) ? values[i] : null));
+    }
+    
+    this.rebuildAll(l);
+  }
+  
+  /**
+   * Builds a new generation of the table holding the given entries, drawing the seeds of
+   * all its hash functions from the given random number generator.  Nothing but the new
+   * generation is touched, which allows the build to run on another thread.
+   * 
+   * @param l entries to be stored in the new generation
+   * @param random  random number generator the seeds are drawn from
+   * @return  new generation of the table
+   */
+  protected DPHashTable build(List<Entry> l, SplittableRandom random) {
+    final Entry[] entries = l.toArray(new Entry[l.size()]);
+    final int[] keys = new int[entries.length];
+    final int[] buckets = new int[entries.length];
+    final DPHashTable t = this.createTable(entries.length, random);
+    final boolean parallel = (entries.length >= DPHashImpl.PARALLEL_THRESHOLD) && (this.pool != null);
+    
+    final int blocks = (entries.length + DPHashImpl.LOOKUP_BLOCK - 1) / DPHashImpl.LOOKUP_BLOCK;
+    
+    l.clear();
+    
+    for (int i=0; i < entries.length; i++) {
+      keys[i] = entries[i].value;
+    }
+    
+    // rehash all elements using a new hash function until we meet the necessary conditions
+    while (true) {
+      if (parallel) {
+        final AtomicIntegerArray counts = new AtomicIntegerArray(t.SM);
+        final LongAdder space = new LongAdder();
+        
+        // the elements are hashed a block at a time, which the BatchHasher may do in vector lanes
+        this.forRange(blocks, DPHashImpl.PARALLEL_GRAIN / DPHashImpl.LOOKUP_BLOCK, true, c -> {
+          int from = c * DPHashImpl.LOOKUP_BLOCK;
+          int to = Math.min(from + DPHashImpl.LOOKUP_BLOCK, entries.length);
+          
+          this.hasher.hash(t.h, keys, from, buckets, from, to - from);
+          
+          for (int i=from; i < to; i++) {
+            counts.incrementAndGet(buckets[i]);
+          }
+        });
+        
+        this.forRange(t.SM, true, j -> {
+          t.dphash[j] = this.createBin(counts.get(j));
+          space.add(t.dphash[j].s);
+        });
+        
+        t.space = space.sum();
+      } else {
+        // a single thread needs neither the atomic counts nor the adder
+        int[] counts = new int[t.SM];
+        long space = 0;
+        
+        this.hasher.hash(t.h, keys, 0, buckets, 0, entries.length);
+        
+        for (int i=0; i < entries.length; i++) {
+          counts[buckets[i]]++;
+        }
+        
+        for (int j=0; j < t.SM; j++) {
+          t.dphash[j] = this.createBin(counts[j]);
+          space += t.dphash[j].s;
+        }
+        
+        t.space = space;
+      }
+      
+      if (this.verify(t)) {
+        break;
+      }
+      
+      t.h = this.generateHashFunction(t.SM, random);
+    }
+    
+    // lay the entries out bin by bin; the order of the entries within a bin does not matter
+    final int[] offsets = new int[t.SM + 1];
+    final Entry[] sorted = new Entry[entries.length];
+    
+    for (int j=0; j < t.SM; j++) {
+      offsets[j + 1] = offsets[j] + t.dphash[j].b;
+    }
+    
+    if (parallel) {
+      final AtomicIntegerArray cursors = new AtomicIntegerArray(offsets);
+      
+      this.forRange(entries.length, true, i -> sorted[cursors.getAndIncrement(buckets[i])] = entries[i]);
+    } else {
+      int[] cursors = offsets.clone();
+      
+      for (int i=0; i < entries.length; i++) {
+        sorted[cursors[buckets[i]]++] = entries[i];
+      }
+    }
+    
+    // condition now holds so insert the elements into the appropriate bins
+    final long seed = random.nextLong();
+    
+    this.forRange(t.SM, parallel, j -> {
+      if (offsets[j + 1] > offsets[j]) {
+        this.rebuild(t.dphash[j], sorted, offsets[j], offsets[j + 1], UniversalHashFunction.mix(seed + j * UniversalHashFunction.GOLDEN_GAMMA));
+      }
+    });
+    
+    return t;
+  }
+  
+  /**
+   * Creates a bin for the given number of elements hashed to it, with the capacity and the
+   * space that number calls for, but no elements stored yet.
+   * 
+   * @param b number of elements hashed to the bin
+   * @return  new bin
+   */
+  protected Bin createBin(int b) {
+    Bin bin = this.createBin();
+    
+    bin.b = b;
+    bin.m = (b > 0) ? this.binCapacity(bin, b) : 0;
+    bin.s = this.binSpace(bin.m);
+    return bin;
+  }
+  
+  /**
+   * Runs the given body for every index from 0 up to n, in the fork-join pool of this
+   * DPHash if it has one and the work is to be done in parallel, and in the calling thread
+   * otherwise.
+   * 
+   * @param n number of indices
+   * @param parallel  true if the work is large enough to be done in parallel
+   * @param body  body run for each index
+   */
+  protected void forRange(int n, boolean parallel, IntConsumer body) {
+    this.forRange(n, DPHashImpl.PARALLEL_GRAIN, parallel, body);
+  }
+  
+  /**
+   * Runs the given body for every index from 0 up to n, splitting the range no further
+   * than the given number of indices when running in parallel.
+   * 
+   * @param n number of indices
+   * @param grain number of indices below which the range is not split any further
+   * @param parallel  true if the work is large enough to be done in parallel
+   * @param body  body run for each index
+   * @see #forRange(int, boolean, IntConsumer)
+   */
+  protected void forRange(int n, int grain, boolean parallel, IntConsumer body) {
+    if (parallel && (this.pool != null)) {
+      this.pool.invoke(new RangeTask(0, n, grain, body));
+    } else {
+      for (int i=0; i < n; i++) {
+        body.accept(i);
+      }
+    }
+  }
+  
   /**
-   * @see com.mjnrand.dphashing.DPHash#insert(int, java.lang.Object)
+   * Verify that the following condition holds true for the given generation of the table:
+   * 
+   *  Sum of all dphash[j].s <= 32 * M^2 / SM + 4M
+   * 
+   * where the right hand side is multiplied by the space factor of the hash family, as
+   * the family may have rounded up the space of every bin.
+   * 
+   * @param t generation of the table to be verified
+   * @return  true if the condition holds, false otherwise
    */
-  public abstract void insert(int x, Object data);
+  protected boolean verify(DPHashTable t) {
+    return DPHashTable.verify(t.M, t.SM, t.space, this.family.spaceFactor());
+  }
   
   /**
-   * @see com.mjnrand.dphashing.DPHash#delete(int)
+   * LookupBlock holds the arrays findAll works in, with room for every value of a block,
+   * so that lookupAll and getAll allocate them once rather than for every block.
    */
-  public abstract void delete(int x);
+  protected static class LookupBlock {
+    /** Live entry found for every value, or null */
+    protected final Entry[] found = new Entry[DPHashImpl.LOOKUP_BLOCK];
+    
+    /** Bin every value falls into, or null if the bin is empty */
+    protected final Bin[] bins = new Bin[DPHashImpl.LOOKUP_BLOCK];
+    
+    /** Bin of every value within the table, then its slot within the bin */
+    protected final int[] slots = new int[DPHashImpl.LOOKUP_BLOCK];
+    
+    /** Variables a and b and table size of the function of the bin of every value */
+    protected final long[] a = new long[DPHashImpl.LOOKUP_BLOCK];
+    protected final long[] b = new long[DPHashImpl.LOOKUP_BLOCK];
+    protected final int[] m = new int[DPHashImpl.LOOKUP_BLOCK];
+  }
   
   /**
-   * @see com.mjnrand.dphashing.DPHash#lookup(int)
+   * RangeTask runs a body for every index of a range, splitting the range in halves until
+   * the pieces are small enough to be run by a single thread.
    */
-  public abstract boolean lookup(int x);
+  protected static class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    /** First index of the range */
+    private final int from;
+    
+    /** Index after the last index of the range */
+    private final int to;
+    
+    /** Number of indices below which the range is not split any further */
+    private final int grain;
+    
+    /** Body run for each index */
+    private final IntConsumer body;
+    
+    /**
+     * Constructor.  Creates the task for the given range.
+     * 
+     * @param from  first index of the range
+     * @param to  index after the last index of the range
+     * @param grain number of indices below which the range is not split any further
+     * @param body  body run for each index
+     */
+    protected RangeTask(int from, int to, int grain, IntConsumer body) {
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+      this.body = body;
+    }
+    
+    protected void compute() {
+      if (this.to - this.from <= this.grain) {
+        for (int i=this.from; i < this.to; i++) {
+          this.body.accept(i);
+        }
+        
+        return;
+      }
+      
+      int middle = (this.from + this.to) >>> 1;
+      
+      RecursiveAction.invokeAll(new RangeTask(this.from, middle, this.grain, this.body),
+        new RangeTask(middle, this.to, this.grain, this.body));
+    }
+  }
 }
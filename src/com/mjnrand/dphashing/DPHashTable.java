@@ -0,0 +1,66 @@
+/*
+ * DPHashTable.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * DPHashTable is a single generation of the top level of a DPHash: the top level hash
+ * function, the bins it partitions the elements into and the sizes the generation was
+ * created with.  Every global rehash of a DPHash creates a new generation, which makes it
+ * possible for two generations to coexist while elements are moved from one to the other.
+ */
+public class DPHashTable {
+  /** Hash function of the top level of this generation */
+  public HashFunction h = null;
+
+  /** Array representation of the top level that contains all bins; null for empty bins not yet created */
+  public Bin[] dphash = null;
+
+  /** Number of elements accomadated within this generation */
+  public int M = 0;
+
+  /** Number of sets that the top level hash partitions S into */
+  public int SM = 0;
+
+  /** Sum of the space allocated to all bins of this generation */
+  public long space = 0;
+
+  /**
+   * Constructor.  Creates an empty generation with the given sizes and top level hash
+   * function.
+   *
+   * @param h hash function of the top level
+   * @param M number of elements accomadated within this generation
+   * @param SM  number of bins of the top level
+   */
+  public DPHashTable(HashFunction h, int M, int SM) {
+    this.h = h;
+    this.M = M;
+    this.SM = SM;
+    this.dphash = new Bin[SM];
+  }
+
+  /**
+   * Verify that the space of a generation satisfies the condition of the DPHash:
+   *
+   *  space <= (32 * M^2 / SM + 4M) * factor
+   *
+   * where factor is the space factor of the hash family, as the family may have rounded
+   * up the space of every bin.  The bound is computed in long arithmetic: 32 * M^2
+   * exceeds an int once M passes 8192, and exceeds a long for the largest M, so the
+   * quotient is taken of M^2 before it is multiplied by 32.  Every engine checks its
+   * generations with this method.
+   *
+   * @param M number of elements accomadated within the generation
+   * @param SM  number of bins of the top level
+   * @param space sum of the space allocated to all bins of the generation
+   * @param factor  space factor of the hash family
+   * @return  true if the condition holds, false otherwise
+   */
+  public static boolean verify(long M, long SM, long space, int factor) {
+    long square = M * M;
+    long bound = 32 * (square / SM) + (32 * (square % SM)) / SM + 4 * M;
+
+    return (space <= bound * factor);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * HashFamily.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * HashFamily is the interface of a universal family of hash functions from which the
+ * DPHash randomly draws the hash functions of its top level and of its bins.
+ * 
+ * Every function of a family is described by two variables, a and b, and the size m of
+ * the table it sends elements to, so tables that keep those variables in primitive
+ * arrays can hash through {@link #hash(long, long, int, int)} without any HashFunction
+ * objects.
+ */
+public interface HashFamily {
+  /**
+   * Generates the hash function, h, of this universal family of hash functions that
+   * belongs to the given seed.  The variables of h are derived from the seed alone, so
+   * random seeds give random functions and the same seed always gives the same function.
+   * 
+   * @param m size of the table that the hash function sends elements to; must be a size
+   *  returned by {@link #tableSize(int)}
+   * @param seed  seed the variables of the hash function are derived from
+   * @return  hash function from this universal family of hash functions
+   */
+  public HashFunction generateHashFunction(int m, long seed);
+  
+  /**
+   * Hash the given value using the function of this family with the given variables.
+   * 
+   * @param a variable a of the hash function
+   * @param b variable b of the hash function
+   * @param m size of the table that the value is sent to
+   * @param x value to be hashed
+   * @return  result of hashing the given value, in [0, m)
+   */
+  public int hash(long a, long b, int m, int x);
+  
+  /**
+   * Returns the size a table must be given to hold n slots when hashed with this family.
+   * 
+   * @param n number of slots needed
+   * @return  number of slots to allocate, >= n
+   */
+  public int tableSize(int n);
+  
+  /**
+   * Returns the largest factor by which {@link #tableSize(int)} grows a table.  The space
+   * bound that the top level hash function of the DPHash is verified against is relaxed
+   * by this factor.
+   * 
+   * @return  largest ratio of tableSize(n) to n
+   */
+  public int spaceFactor();
+}
@@ -6,40 +6,77 @@
 package com.mjnrand.dphashing;
 
 /**
+ * HashFunction is a single function, h:U -> {0, ..., m-1}, that has been chosen at random
+ * from a universal family of hash functions.  Every family used by the DPHash describes
+ * its functions with two variables, a and b, and the size m of the table the function
+ * sends elements to.
+ * 
  * @author mark
  */
-public class HashFunction {
+public abstract class HashFunction {
 	/** Variables of the hash function */
-	protected int a = -1;
-	protected int b = -1;
-	protected int m = -1;
+	protected final long a;
+	protected final long b;
+	protected final int m;
+	
+	/** Seed the variables of the hash function were derived from */
+	protected final long seed;
 	
 	/**
 	 * Constructor.  Creates an instance of HashFunction that is used for hashing a value.
 	 * 
-	 * @param a	(DPHash.P-1) >= a >= 1
-	 * @param b	(DPHash.P-1) >= b >= 0
+	 * @param a	variable a of the hash function
+	 * @param b	variable b of the hash function
 	 * @param m	size of the table that this hash function sends elements to
+	 * @param seed	seed the variables were derived from
 	 */
-	public HashFunction(int a, int b, int m) {
+	protected HashFunction(long a, long b, int m, long seed) {
 		this.a = a;
 		this.b = b;
 		this.m = m;
+		this.seed = seed;
 	}
 	
 	/**
 	 * Hash the given value and return the result.
 	 * 
 	 * @param x	value to be hashed
-	 * @return	result of hasing the given value using this hash function
+	 * @return	result of hasing the given value using this hash function, in [0, m)
+	 */
+	public abstract int hash(int x);
+	
+	/**
+	 * @return	variable a of this hash function
+	 */
+	public long getA() {
+		return this.a;
+	}
+	
+	/**
+	 * @return	variable b of this hash function
+	 */
+	public long getB() {
+		return this.b;
+	}
+	
+	/**
+	 * @return	size of the table that this hash function sends elements to
+	 */
+	public int getSize() {
+		return this.m;
+	}
+	
+	/**
+	 * Returns the seed the variables of this hash function were derived from.  Handing the
+	 * seed back to the same HashFamily generates this very function again.
+	 * 
+	 * @return	seed of this hash function
 	 */
-	public int hash(int x) {
-		int result = (((a * x + b) % DPHashImpl.P) % this.m);
-		
-		return result;
+	public long getSeed() {
+		return this.seed;
 	}
 	
 	public String toString() {
-		return "a = " + a + ", b = " + b;
+		return "a = " + a + ", b = " + b + ", seed = " + seed;
 	}
 }
@@ -0,0 +1,57 @@
+/*
+ * LinearSpacePolicy.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * LinearSpacePolicy gives a bin permitting m elements km slots, for a constant k, or the
+ * 2m(m-1) slots of the quadratic policy for the smallest bins, where that is less.  A random
+ * function places b elements into s slots without a collision with probability about
+ * e^(-b(b-1)/2s), so a bin of b = m elements takes about e^((m-1)/2k) functions to
+ * rebuild.  As nearly all bins hold only a few elements this costs little on average, but
+ * the rare large bin takes many more tries than under the quadratic policy, which is the
+ * price of the smaller table.
+ */
+public class LinearSpacePolicy implements SpacePolicy {
+  /** Number of slots per element permitted within a bin */
+  protected final double k;
+  
+  /**
+   * Constructor.  Creates the policy giving a bin k slots per element it permits.
+   * 
+   * @param k number of slots per element, at least 2
+   * @throws IllegalArgumentException if k is less than 2
+   */
+  public LinearSpacePolicy(double k) {
+    if (!(k >= 2)) {
+      throw new IllegalArgumentException("k must be at least 2: " + k);
+    }
+    
+    this.k = k;
+  }
+  
+  /**
+   * @return  number of slots per element permitted within a bin
+   */
+  public double getK() {
+    return this.k;
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.SpacePolicy#binSpace(com.mjnrand.dphashing.HashFamily, int)
+   */
+  public int binSpace(HashFamily family, int m) {
+    return family.tableSize((int) Math.min(Math.ceil(this.k * m), 2 * m * (m - 1)));
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.SpacePolicy#getChoices()
+   */
+  public int getChoices() {
+    return 1;
+  }
+  
+  public String toString() {
+    return this.k + "m";
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * MersenneHashFamily.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * MersenneHashFamily is the universal family of MersenneHashFunctions, which hash the
+ * whole 32 bit key space modulo the Mersenne prime 2^61 - 1.
+ */
+public class MersenneHashFamily implements HashFamily {
+  /** The one instance of this family, as it has no parameters */
+  public static final MersenneHashFamily INSTANCE = new MersenneHashFamily();
+  
+  /**
+   * Constructor.  Made private since the family is a singleton.
+   */
+  private MersenneHashFamily() {
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#generateHashFunction(int, long)
+   */
+  public HashFunction generateHashFunction(int m, long seed) {
+    long a = 1 + (UniversalHashFunction.mix(seed) >>> 3) % (MersenneHashFunction.P61 - 1);
+    long b = (UniversalHashFunction.mix(seed + UniversalHashFunction.GOLDEN_GAMMA) >>> 3) % MersenneHashFunction.P61;
+    
+    return new MersenneHashFunction(a, b, m, seed);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#hash(long, long, int, int)
+   */
+  public int hash(long a, long b, int m, int x) {
+    return MersenneHashFunction.hash(a, b, m, x);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#tableSize(int)
+   */
+  public int tableSize(int n) {
+    return n;
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#spaceFactor()
+   */
+  public int spaceFactor() {
+    return 1;
+  }
+  
+  public String toString() {
+    return "((ax + b) mod 2^61-1) * m / 2^61";
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * MersenneHashFunction.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * MersenneHashFunction is a hash function of the family
+ * 
+ *  h(x) = (((ax + b) mod p) * m) / 2^61
+ * 
+ * where p is the Mersenne prime 2^61 - 1, (p-1) >= a >= 1 and (p-1) >= b >= 0.  Every int
+ * is a valid value, as x is read as an unsigned 32 bit number, and since p > 2^32 the
+ * family is universal over the whole 32 bit key space.
+ * 
+ * All arithmetic is carried out in 64 bits without any division: the remainder modulo a
+ * Mersenne prime is folded with shifts and masks, and the result is mapped onto [0, m) by
+ * taking the high bits of a multiplication rather than with the % operator.
+ */
+public class MersenneHashFunction extends HashFunction {
+	/** The Mersenne prime 2^61 - 1 */
+	public static final long P61 = (1L << 61) - 1;
+	
+	/**
+	 * Constructor.  Creates an instance of MersenneHashFunction that is used for hashing a value.
+	 * 
+	 * @param a	(P61-1) >= a >= 1
+	 * @param b	(P61-1) >= b >= 0
+	 * @param m	size of the table that this hash function sends elements to
+	 * @param seed	seed the variables were derived from
+	 */
+	public MersenneHashFunction(long a, long b, int m, long seed) {
+		super(a, b, m, seed);
+	}
+	
+	/**
+	 * @see com.mjnrand.dphashing.HashFunction#hash(int)
+	 */
+	public int hash(int x) {
+		return MersenneHashFunction.hash(this.a, this.b, this.m, x);
+	}
+	
+	/**
+	 * Hash the given value using the hash function with the given variables, without
+	 * allocating anything.
+	 * 
+	 * @param a	(P61-1) >= a >= 1
+	 * @param b	(P61-1) >= b >= 0
+	 * @param m	size of the table that the value is sent to
+	 * @param x	value to be hashed, read as an unsigned 32 bit number
+	 * @return	result of hashing the given value
+	 */
+	public static int hash(long a, long b, int m, int x) {
+		long y = x & 0xFFFFFFFFL;
+		
+		// a * y is at most 93 bits wide, so fold its 128 bit product modulo 2^61 - 1
+		long lo = a * y;
+		long hi = Math.multiplyHigh(a, y);
+		long r = (lo & P61) + ((lo >>> 61) | (hi << 3)) + b;
+		
+		r = (r & P61) + (r >>> 61);
+		
+		if (r >= P61) {
+			r -= P61;
+		}
+		
+		// r < 2^61, so the top 32 of its 61 bits times m fits within a long
+		return (int) (((r >>> 29) * m) >>> 32);
+	}
+}
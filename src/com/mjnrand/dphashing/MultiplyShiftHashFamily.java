@@ -0,0 +1,62 @@
+/*
+ * MultiplyShiftHashFamily.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * MultiplyShiftHashFamily is the multiply-add-shift family of Dietzfelbinger:
+ * 
+ *  h(x) = ((ax + b) mod 2^64) div 2^(64-l)
+ * 
+ * where a and b are random 64 bit numbers and tables hold m = 2^l slots.  For 32 bit keys
+ * this family is universal, and hashing a value costs one multiplication, one addition
+ * and one shift; no division at all.  To make that possible every table hashed with this
+ * family is rounded up to a power of two.
+ */
+public class MultiplyShiftHashFamily implements HashFamily {
+  /** The one instance of this family, as it has no parameters */
+  public static final MultiplyShiftHashFamily INSTANCE = new MultiplyShiftHashFamily();
+  
+  /**
+   * Constructor.  Made private since the family is a singleton.
+   */
+  private MultiplyShiftHashFamily() {
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#generateHashFunction(int, long)
+   */
+  public HashFunction generateHashFunction(int m, long seed) {
+    long a = UniversalHashFunction.mix(seed);
+    long b = UniversalHashFunction.mix(seed + UniversalHashFunction.GOLDEN_GAMMA);
+    
+    return new MultiplyShiftHashFunction(a, b, m, seed);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#hash(long, long, int, int)
+   */
+  public int hash(long a, long b, int m, int x) {
+    return MultiplyShiftHashFunction.hash(a, b, Long.numberOfLeadingZeros(m), x);
+  }
+  
+  /**
+   * Rounds the number of slots up to the next power of two.
+   * 
+   * @see com.mjnrand.dphashing.HashFamily#tableSize(int)
+   */
+  public int tableSize(int n) {
+    return (n <= 1) ? n : Integer.highestOneBit(n - 1) << 1;
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#spaceFactor()
+   */
+  public int spaceFactor() {
+    return 2;
+  }
+  
+  public String toString() {
+    return "(ax + b) >>> (64 - log m)";
+  }
+}
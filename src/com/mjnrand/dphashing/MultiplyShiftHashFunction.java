@@ -0,0 +1,52 @@
+/*
+ * MultiplyShiftHashFunction.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * MultiplyShiftHashFunction is a hash function of the family
+ * 
+ *  h(x) = ((ax + b) mod 2^64) div 2^(64-l)
+ * 
+ * that sends values to a table of m = 2^l slots.  Every int is a valid value, as x is read
+ * as an unsigned 32 bit number.
+ */
+public class MultiplyShiftHashFunction extends HashFunction {
+	/** Number of leading zeros of m, 63 - l */
+	protected final int shift;
+	
+	/**
+	 * Constructor.  Creates an instance of MultiplyShiftHashFunction that is used for hashing a value.
+	 * 
+	 * @param a	random 64 bit multiplier
+	 * @param b	random 64 bit addend
+	 * @param m	size of the table that this hash function sends elements to; a power of two
+	 * @param seed	seed the variables were derived from
+	 */
+	public MultiplyShiftHashFunction(long a, long b, int m, long seed) {
+		super(a, b, m, seed);
+		this.shift = Long.numberOfLeadingZeros(m);
+	}
+	
+	/**
+	 * @see com.mjnrand.dphashing.HashFunction#hash(int)
+	 */
+	public int hash(int x) {
+		return MultiplyShiftHashFunction.hash(this.a, this.b, this.shift, x);
+	}
+	
+	/**
+	 * Hash the given value using the hash function with the given variables, without
+	 * allocating anything.
+	 * 
+	 * @param a	random 64 bit multiplier
+	 * @param b	random 64 bit addend
+	 * @param shift	number of leading zeros of the table size m, 63 - l
+	 * @param x	value to be hashed, read as an unsigned 32 bit number
+	 * @return	result of hashing the given value
+	 */
+	public static int hash(long a, long b, int shift, int x) {
+		// shifting by 1 and then by 63 - l keeps the result 0 for a table of size 1
+		return (int) (((a * (x & 0xFFFFFFFFL) + b) >>> 1) >>> shift);
+	}
+}
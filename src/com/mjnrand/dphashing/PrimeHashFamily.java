@@ -0,0 +1,77 @@
+/*
+ * PrimeHashFamily.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * PrimeHashFamily is the universal family of hash functions
+ * 
+ *  h(x) = ((ax + b) mod p) mod m
+ * 
+ * where:
+ *    
+ *    p is a prime number >= U
+ *    (p-1) >= a >= 1
+ *    (p-1) >= b >= 0
+ * 
+ * The values hashed must lie within [0, U).
+ */
+public class PrimeHashFamily implements HashFamily {
+  /** Prime number >= the universe size */
+  protected final int p;
+  
+  /**
+   * Constructor.  Creates the family of hash functions modulo the given prime.
+   * 
+   * @param p prime number >= the universe size
+   */
+  public PrimeHashFamily(int p) {
+    if (p < 2) {
+      throw new IllegalArgumentException("p must be a prime number: " + p);
+    }
+    
+    this.p = p;
+  }
+  
+  /**
+   * @return  prime number of this family
+   */
+  public int getPrime() {
+    return this.p;
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#generateHashFunction(int, long)
+   */
+  public HashFunction generateHashFunction(int m, long seed) {
+    int a = 1 + (int) ((UniversalHashFunction.mix(seed) >>> 1) % (this.p - 1));
+    int b = (int) ((UniversalHashFunction.mix(seed + UniversalHashFunction.GOLDEN_GAMMA) >>> 1) % this.p);
+        
+    return new PrimeHashFunction(a,  b, m, this.p, seed);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#hash(long, long, int, int)
+   */
+  public int hash(long a, long b, int m, int x) {
+    return PrimeHashFunction.hash(a, b, this.p, m, x);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#tableSize(int)
+   */
+  public int tableSize(int n) {
+    return n;
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.HashFamily#spaceFactor()
+   */
+  public int spaceFactor() {
+    return 1;
+  }
+  
+  public String toString() {
+    return "((ax + b) mod " + this.p + ") mod m";
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * PrimeHashFunction.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * PrimeHashFunction is a hash function of the family
+ * 
+ *  h(x) = ((ax + b) mod p) mod m
+ * 
+ * where p is a prime number >= U.  The values hashed must lie within [0, U).  The
+ * product ax is computed in 64 bits, so it never overflows for any p < 2^31.
+ */
+public class PrimeHashFunction extends HashFunction {
+	/** Prime number >= the universe size of the DPHash that owns this hash function */
+	protected final int p;
+	
+	/**
+	 * Constructor.  Creates an instance of PrimeHashFunction that is used for hashing a value.
+	 * 
+	 * @param a	(p-1) >= a >= 1
+	 * @param b	(p-1) >= b >= 0
+	 * @param m	size of the table that this hash function sends elements to
+	 * @param p	prime number >= the universe size
+	 * @param seed	seed the variables were derived from
+	 */
+	public PrimeHashFunction(int a, int b, int m, int p, long seed) {
+		super(a, b, m, seed);
+		this.p = p;
+	}
+	
+	/**
+	 * @see com.mjnrand.dphashing.HashFunction#hash(int)
+	 */
+	public int hash(int x) {
+		return PrimeHashFunction.hash(this.a, this.b, this.p, this.m, x);
+	}
+	
+	/**
+	 * Hash the given value using the hash function with the given variables.  This allows
+	 * tables that store the variables of their hash functions in primitive arrays, rather
+	 * than as HashFunction objects, to hash values without allocating anything.
+	 * 
+	 * @param a	(p-1) >= a >= 1
+	 * @param b	(p-1) >= b >= 0
+	 * @param p	prime number >= the universe size
+	 * @param m	size of the table that the value is sent to
+	 * @param x	value to be hashed
+	 * @return	result of hashing the given value
+	 */
+	public static int hash(long a, long b, int p, int m, int x) {
+		int result = (int) (((a * x + b) % p) % m);
+		
+		return result;
+	}
+}
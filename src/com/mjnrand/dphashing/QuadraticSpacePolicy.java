@@ -0,0 +1,39 @@
+/*
+ * QuadraticSpacePolicy.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * QuadraticSpacePolicy gives a bin permitting m elements 2m(m-1) slots, as in the paper of
+ * Dietzfelbinger et al.  With that much space a random function of a universal family is
+ * injective on the elements of the bin with probability at least 1/2, so a bin is rebuilt
+ * with at most 2 functions on average, whatever its size.  It is the default policy.
+ */
+public class QuadraticSpacePolicy implements SpacePolicy {
+  /** The one instance of this policy, as it has no parameters */
+  public static final QuadraticSpacePolicy INSTANCE = new QuadraticSpacePolicy();
+  
+  /**
+   * Constructor.  Made private since the policy is a singleton.
+   */
+  private QuadraticSpacePolicy() {
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.SpacePolicy#binSpace(com.mjnrand.dphashing.HashFamily, int)
+   */
+  public int binSpace(HashFamily family, int m) {
+    return family.tableSize(2 * m * (m - 1));
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.SpacePolicy#getChoices()
+   */
+  public int getChoices() {
+    return 1;
+  }
+  
+  public String toString() {
+    return "2m(m-1)";
+  }
+}
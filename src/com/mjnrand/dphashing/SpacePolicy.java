@@ -0,0 +1,35 @@
+/*
+ * SpacePolicy.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * SpacePolicy decides how much space the bins of a DPHash are given, and how many slots a
+ * lookup probes within a bin.  The less space a bin is given, the more hash functions have
+ * to be tried, on average, before one is found that places all of its elements, so a
+ * policy trades memory against the time spent rebuilding bins.
+ * 
+ * The policy of Dietzfelbinger et al, {@link QuadraticSpacePolicy}, gives a bin permitting
+ * m elements 2m(m-1) slots, so that at least half of all functions are injective on its
+ * elements.  {@link LinearSpacePolicy} gives it km slots instead, and
+ * {@link TwoChoiceSpacePolicy} gives it km slots probed by two functions, every element
+ * lying in the slot of either one.
+ */
+public interface SpacePolicy {
+  /**
+   * Returns the space to be allocated to a bin that permits m elements.
+   * 
+   * @param family  family the function of the bin is drawn from
+   * @param m number of elements permitted within the bin
+   * @return  number of slots of the bin, a size the family can hash into
+   */
+  public int binSpace(HashFamily family, int m);
+  
+  /**
+   * Returns the number of hash functions of every bin, each of which gives an element one
+   * slot it may lie in.  A lookup probes that many slots at most.
+   * 
+   * @return  1 or 2
+   */
+  public int getChoices();
+}
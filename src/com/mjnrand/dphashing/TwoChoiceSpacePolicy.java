@@ -0,0 +1,58 @@
+/*
+ * TwoChoiceSpacePolicy.java
+ */
+package com.mjnrand.dphashing;
+
+/**
+ * TwoChoiceSpacePolicy gives a bin permitting m elements km slots, or 2m(m-1) for the
+ * smallest bins where that is less, and two hash functions, every element lying in the
+ * slot given by either one of them.  A bin is built by cuckoo
+ * displacement: an element whose two slots are both taken evicts the element in its first
+ * slot, which moves to its other slot, and so on.  As long as the bin is less than half
+ * full this succeeds with high probability, so k = 2 or a little more keeps the rebuilds
+ * nearly as cheap as under the quadratic policy in linear space.  A lookup that misses
+ * the first slot has to probe the second.
+ */
+public class TwoChoiceSpacePolicy implements SpacePolicy {
+  /** Number of slots per element permitted within a bin */
+  protected final double k;
+  
+  /**
+   * Constructor.  Creates the policy giving a bin k slots per element it permits.
+   * 
+   * @param k number of slots per element, at least 2
+   * @throws IllegalArgumentException if k is less than 2
+   */
+  public TwoChoiceSpacePolicy(double k) {
+    if (!(k >= 2)) {
+      throw new IllegalArgumentException("k must be at least 2: " + k);
+    }
+    
+    this.k = k;
+  }
+  
+  /**
+   * @return  number of slots per element permitted within a bin
+   */
+  public double getK() {
+    return this.k;
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.SpacePolicy#binSpace(com.mjnrand.dphashing.HashFamily, int)
+   */
+  public int binSpace(HashFamily family, int m) {
+    return family.tableSize((int) Math.min(Math.ceil(this.k * m), 2 * m * (m - 1)));
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.SpacePolicy#getChoices()
+   */
+  public int getChoices() {
+    return 2;
+  }
+  
+  public String toString() {
+    return "two-choice " + this.k + "m";
+  }
+}
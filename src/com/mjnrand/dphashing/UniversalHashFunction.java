@@ -5,6 +5,8 @@
  */
 package com.mjnrand.dphashing;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * UniversalHashFunction is the class that represents a universal family of hash functions.  
  * A set H is a universal family of hash functions if: 
@@ -24,10 +26,21 @@ package com.mjnrand.dphashing;
  *    (p-1) >= b >= 0
  *
  * A hash function within this family is generated by randomly selecting a and b.
+ * 
+ * The actual generation is delegated to a HashFamily, so other universal families may be
+ * plugged in: see PrimeHashFamily for the family above, MersenneHashFamily for the same
+ * family with p = 2^61 - 1, and MultiplyShiftHashFamily for a family without division.
+ * 
+ * Every hash function is derived from a 64 bit seed.  A DPHash draws those seeds from its
+ * own random number generator, so that no table contends on a shared generator and a
+ * table built from the same seed always makes the same choices.
  *  
  * @author mark
  */
 public class UniversalHashFunction {
+  /** Odd constant close to 2^64 divided by the golden ratio, used to space seeds apart */
+  public static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  
   /**
    * Constructor.  Made private since we do not want this class instantiated.  It is simply
    * used for generating hash functions.
@@ -39,17 +52,53 @@ public class UniversalHashFunction {
    * Generates a random hash function, h, that exists within this universal family of 
    * hash functions.
    * 
+   * @param p prime number >= the universe size of the DPHash; 0 to use p = 2^61 - 1
    * @param m size of the table that this hash function sends elements to
    * @return  random hash function from this universal family of hash functions
    */
-  public static HashFunction generateHashFunction(int m) {
-    int a = (int) (Math.random() * (DPHashImpl.P - 1));
-    int b = (int) (Math.random() * (DPHashImpl.P - 1));
+  public static HashFunction generateHashFunction(int p, int m) {
+    HashFamily family = (p == 0) ? (HashFamily) MersenneHashFamily.INSTANCE : new PrimeHashFamily(p);
+    
+    return UniversalHashFunction.generateHashFunction(family, m);
+  }
+  
+  /**
+   * Generates a random hash function, h, that exists within the given universal family of 
+   * hash functions.
+   * 
+   * @param family  universal family the hash function is drawn from
+   * @param m size of the table that this hash function sends elements to
+   * @return  random hash function from the given universal family of hash functions
+   */
+  public static HashFunction generateHashFunction(HashFamily family, int m) {
+    return UniversalHashFunction.generateHashFunction(family, m, ThreadLocalRandom.current().nextLong());
+  }
+  
+  /**
+   * Generates the hash function of the given universal family of hash functions that
+   * belongs to the given seed.
+   * 
+   * @param family  universal family the hash function is drawn from
+   * @param m size of the table that this hash function sends elements to
+   * @param seed  seed the variables of the hash function are derived from
+   * @return  hash function from the given universal family of hash functions
+   */
+  public static HashFunction generateHashFunction(HashFamily family, int m, long seed) {
+    return family.generateHashFunction(m, seed);
+  }
+  
+  /**
+   * Scrambles the given value into a 64 bit value whose bits all depend on every bit of
+   * the input.  This is the finalizer of the SplitMix64 generator, and is used by the
+   * hash families to derive the variables of a hash function from its seed.
+   * 
+   * @param z value to be scrambled
+   * @return  scrambled value
+   */
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
     
-    if (a == 0) {
-      ++a;
-    }
-        
-    return new HashFunction(a,  b, m);
+    return z ^ (z >>> 31);
   }
 }
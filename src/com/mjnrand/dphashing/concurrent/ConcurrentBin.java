@@ -0,0 +1,49 @@
+/*
+ * ConcurrentBin.java
+ */
+package com.mjnrand.dphashing.concurrent;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.mjnrand.dphashing.Entry;
+import com.mjnrand.dphashing.HashFunction;
+
+/**
+ * ConcurrentBin is a bin of a DPHashConcurrentImpl.  Unlike a Bin, its hash function and
+ * its array are never replaced: a bin that has to be rebuilt is replaced as a whole by a
+ * new ConcurrentBin, so a reader always hashes into the array that belongs to the hash
+ * function it read.  The slots of the array may still be written one at a time, each with
+ * a single volatile store of an entry that is never changed after it is stored.
+ */
+public final class ConcurrentBin {
+  /** Hash function of this bin */
+  public final HashFunction h;
+
+  /** Number of elements permitted within the bin, m */
+  public final int m;
+
+  /** Size of the bin, s, which is the length of its array */
+  public final int s;
+
+  /** Slots of the bin; null for empty slots */
+  public final AtomicReferenceArray<Entry> bin;
+
+  /** Number of slots taken since the bin was built, b; only used by writers */
+  int b;
+
+  /**
+   * Constructor.  Creates an empty bin with the given hash function and sizes.
+   *
+   * @param h hash function of the bin
+   * @param m number of elements permitted within the bin
+   * @param s size of the bin
+   * @param b number of slots counted as taken
+   */
+  ConcurrentBin(HashFunction h, int m, int s, int b) {
+    this.h = h;
+    this.m = m;
+    this.s = s;
+    this.b = b;
+    this.bin = new AtomicReferenceArray<Entry>(s);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * ConcurrentTable.java
+ */
+package com.mjnrand.dphashing.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.mjnrand.dphashing.HashFunction;
+
+/**
+ * ConcurrentTable is a single generation of the top level of a DPHashConcurrentImpl.  The
+ * top level hash function and the sizes never change; a global rehash creates a new
+ * generation and publishes it in one step.  The bins are stored in an atomic array so that
+ * a rebuilt bin can be published with a single volatile store.
+ */
+public final class ConcurrentTable {
+  /** Hash function of the top level of this generation */
+  public final HashFunction h;
+
+  /** Bins of the top level; null for bins that hold no elements */
+  public final AtomicReferenceArray<ConcurrentBin> dphash;
+
+  /** Number of elements accomadated within this generation */
+  public final int M;
+
+  /** Number of sets that the top level hash partitions S into */
+  public final int SM;
+
+  /** Sum of the space allocated to all bins of this generation; only used by writers */
+  final AtomicLong space = new AtomicLong();
+
+  /**
+   * Constructor.  Creates an empty generation with the given sizes and top level hash
+   * function.
+   *
+   * @param h hash function of the top level
+   * @param M number of elements accomadated within this generation
+   * @param SM  number of bins of the top level
+   */
+  ConcurrentTable(HashFunction h, int M, int SM) {
+    this.h = h;
+    this.M = M;
+    this.SM = SM;
+    this.dphash = new AtomicReferenceArray<ConcurrentBin>(SM);
+  }
+}
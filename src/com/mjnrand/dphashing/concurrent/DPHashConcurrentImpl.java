@@ -0,0 +1,663 @@
+/*
+ * DPHashConcurrentImpl.java
+ */
+package com.mjnrand.dphashing.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashTable;
+import com.mjnrand.dphashing.Entry;
+import com.mjnrand.dphashing.HashFamily;
+import com.mjnrand.dphashing.HashFunction;
+import com.mjnrand.dphashing.UniversalHashFunction;
+
+/**
+ * DPHashConcurrentImpl is an implementation of Dynamic Perfect Hashing that may be used by
+ * any number of threads at once.
+ *
+ * A lookup reads the current generation of the table, one bin of its top level and one
+ * slot of that bin, all with plain volatile reads, so readers never lock and never wait.
+ * This works because nothing a reader can reach is ever changed in place: entries are
+ * never modified once stored, a bin that has to be rebuilt is replaced by a new bin with
+ * a fresh hash function and array, and a global rehash builds a new generation next to the
+ * current one.  Each of these is published with a single volatile store, so a reader sees
+ * either the old or the new state but never a mix of both.
+ *
+ * Writers are striped over a fixed number of locks by the index of the bin they update,
+ * so updates of different bins proceed in parallel; nearly every update only touches its
+ * own bin.  Every update also holds the shared side of the rehash lock, whose exclusive
+ * side is taken by the rare global rehash, so the generation cannot change under a writer.
+ *
+ * @param <V> type of the data stored with each element
+ */
+public class DPHashConcurrentImpl<V> implements DPHash<V> {
+  /** Configuration this DPHash was created with */
+  protected final DPHashConfig config;
+
+  /** Universal family the hash functions of the DPHash are drawn from */
+  protected final HashFamily family;
+
+  /** Constant factor in which the top level of the DPHash grows */
+  protected final int C;
+
+  /** Amount that the subtables should be scaled by */
+  protected final double scale;
+
+  /** State of the generator of the seeds of all hash functions chosen by this DPHash */
+  protected final AtomicLong seeds;
+
+  /** Lock held shared by every update and exclusively by a global rehash */
+  protected final ReentrantReadWriteLock rehashLock = new ReentrantReadWriteLock();
+
+  /** Write locks of the bins; bin j is guarded by stripe j mod stripes.length */
+  protected final ReentrantLock[] stripes;
+
+  /** Current generation of the table */
+  protected volatile ConcurrentTable table = null;
+
+  /** Number of updates performed on this DPHash */
+  protected final AtomicInteger count = new AtomicInteger();
+
+  /** Number of elements stored within this DPHash */
+  protected final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * Constructor.  Creates an instance of DPHash using the given configuration.
+   *
+   * @param config  configuration of this DPHash
+   * @throws IllegalArgumentException if the configuration asks for an option this engine
+   *    does not support
+   */
+  public DPHashConcurrentImpl(DPHashConfig config) {
+    config.checkRehashOptions(this.getClass().getSimpleName());
+
+    this.config = config;
+    this.family = config.getHashFamily();
+    this.C = config.getC();
+    this.scale = config.getScale();
+    this.seeds = new AtomicLong(config.getSeed());
+    this.stripes = new ReentrantLock[Integer.highestOneBit(config.getLockStripes() * 2 - 1)];
+
+    for (int i=0; i < this.stripes.length; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+
+    // setup the hash
+    this.table = this.build(new ArrayList<Entry>());
+  }
+
+  /**
+   * Returns the configuration this DPHash was created with.
+   *
+   * @return  configuration of this DPHash
+   */
+  public DPHashConfig getConfig() {
+    return this.config;
+  }
+
+  /**
+   * Returns the seed of the hash function currently used by the top level of the hash.
+   *
+   * @return  seed of the top level hash function
+   */
+  public long getSeed() {
+    return this.table.h.getSeed();
+  }
+
+  /**
+   * Returns the seeds of the hash functions currently used by the bins of the hash, 0 for
+   * bins that hold no elements.
+   *
+   * @return  seed of the hash function of every bin
+   */
+  public long[] getBinSeeds() {
+    ConcurrentTable t = this.table;
+    long[] seeds = new long[t.SM];
+
+    for (int j=0; j < t.SM; j++) {
+      ConcurrentBin bin = t.dphash.get(j);
+
+      if (bin != null) {
+        seeds[j] = bin.h.getSeed();
+      }
+    }
+
+    return seeds;
+  }
+
+  /**
+   * Returns the number of elements stored within this DPHash.
+   *
+   * @return  number of elements stored
+   */
+  public int size() {
+    return this.size.get();
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#insert(int, Object)
+   */
+  public void insert(int x, V data) {
+    this.put(x, data);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#put(int, Object)
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int x, V data) {
+    return (V) this.store(x, data, null);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#delete(int)
+   */
+  public void delete(int x) {
+    ConcurrentTable t;
+    boolean full = false;
+    Lock shared = this.rehashLock.readLock();
+
+    shared.lock();
+
+    try {
+      t = this.table;
+
+      int j = t.h.hash(x);
+      ReentrantLock stripe = this.stripe(j);
+
+      stripe.lock();
+
+      try {
+        ConcurrentBin bin = t.dphash.get(j);
+
+        if (bin != null) {
+          int location = bin.h.hash(x);
+          Entry e = bin.bin.get(location);
+
+          if ((e != null) && (e.getValue() == x)) {
+            // the slot stays counted as taken until the bin is rebuilt
+            bin.bin.set(location, null);
+            this.size.decrementAndGet();
+          }
+        }
+
+        full = (this.count.incrementAndGet() >= t.M);
+      } finally {
+        stripe.unlock();
+      }
+    } finally {
+      shared.unlock();
+    }
+
+    if (full) {
+      this.rehash(t);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#lookup(int)
+   */
+  public boolean lookup(int x) {
+    return (this.find(x) != null);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#get(int)
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int x) {
+    Entry e = this.find(x);
+
+    return (e != null) ? (V) e.getData() : null;
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#getOrDefault(int, Object)
+   */
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(int x, V defaultValue) {
+    Entry e = this.find(x);
+
+    return (e != null) ? (V) e.getData() : defaultValue;
+  }
+
+  /**
+   * Returns the data stored with the value x, computing and inserting it with the given
+   * function if the value is not stored in the hash or has no data.  The function is
+   * called at most once, while holding the write lock of the value's bin.
+   *
+   * @see com.mjnrand.dphashing.DPHash#computeIfAbsent(int, IntFunction)
+   */
+  @SuppressWarnings("unchecked")
+  public V computeIfAbsent(int x, IntFunction<? extends V> mappingFunction) {
+    Entry e = this.find(x);
+
+    if ((e != null) && (e.getData() != null)) {
+      return (V) e.getData();
+    }
+
+    return (V) this.store(x, null, mappingFunction);
+  }
+
+  /**
+   * Returns the entry stored with the value x, or null if x is not stored in the hash.
+   * Never locks: the generation, the bin and the slot are each read once.
+   *
+   * @param x value to be searched for in the hash
+   * @return  entry stored with the value; null if the value is not stored in the hash
+   */
+  protected Entry find(int x) {
+    ConcurrentTable t = this.table;
+    ConcurrentBin bin = t.dphash.get(t.h.hash(x));
+
+    if (bin != null) {
+      Entry e = bin.bin.get(bin.h.hash(x));
+
+      if ((e != null) && (e.getValue() == x)) {
+        return e;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the lock that guards the writers of the given bin.
+   *
+   * @param j index of the bin
+   * @return  write lock of the bin
+   */
+  protected ReentrantLock stripe(int j) {
+    return this.stripes[j & (this.stripes.length - 1)];
+  }
+
+  /**
+   * Stores the value x with the given data, or with the data computed by the given function
+   * if one is given and the value has no data yet.  If the value's bin cannot grow within
+   * the space bound of the generation the table is rehashed and the store is tried again.
+   *
+   * @param x value to be inserted into the hash
+   * @param data  data to be stored with value; ignored if a function is given
+   * @param mappingFunction function computing the data for x; null to store data
+   * @return  data previously stored with value, or the data stored with the value if a
+   *  function is given; null if there is none
+   */
+  protected Object store(int x, Object data, IntFunction<?> mappingFunction) {
+    while (true) {
+      ConcurrentTable t;
+      Object previous;
+      boolean stored = false;
+      boolean full = false;
+      Lock shared = this.rehashLock.readLock();
+
+      shared.lock();
+
+      try {
+        t = this.table;
+
+        int j = t.h.hash(x);
+        ReentrantLock stripe = this.stripe(j);
+
+        stripe.lock();
+
+        try {
+          ConcurrentBin bin = t.dphash.get(j);
+          int location = -1;
+          Entry e = null;
+
+          if (bin != null) {
+            location = bin.h.hash(x);
+            e = bin.bin.get(location);
+
+            if ((e != null) && (e.getValue() != x)) {
+              e = null;
+            }
+          }
+
+          previous = (e != null) ? e.getData() : null;
+
+          if ((mappingFunction != null) && (previous != null)) {
+            // another writer may have stored the value since it was searched for
+            return previous;
+          }
+
+          // make room for the value before its data is computed, so that the function is
+          // never called for a store that has to be tried again after a rehash
+          int m = (e != null) ? bin.m : this.reserve(t, bin);
+
+          if (m > 0) {
+            if (mappingFunction != null) {
+              data = mappingFunction.apply(x);
+
+              if (data == null) {
+                if (e == null) {
+                  this.release(t, bin, m);
+                }
+
+                return null;
+              }
+
+              previous = data;
+            }
+
+            if (e != null) {
+              // the value is already stored so just replace its entry
+              bin.bin.set(location, new Entry(x, data));
+            } else {
+              this.insert(t, j, bin, m, new Entry(x, data));
+              this.size.incrementAndGet();
+            }
+
+            stored = true;
+            full = (this.count.incrementAndGet() > t.M);
+          }
+        } finally {
+          stripe.unlock();
+        }
+      } finally {
+        shared.unlock();
+      }
+
+      if (stored) {
+        if (full) {
+          this.rehash(t);
+        }
+
+        return previous;
+      }
+
+      // the bin could not grow, so rehash the table before trying again
+      this.rehash(t);
+    }
+  }
+
+  /**
+   * Makes room within the given bin of the given generation of the table for one more
+   * entry.  If the bin is full the space of the bin it grows into is added to the space of
+   * the generation, unless that breaks the space bound of the generation.  Must be called
+   * holding the write lock of the bin.
+   *
+   * @param t generation of the table the bin belongs to
+   * @param bin bin that is to receive an entry; null if it does not exist yet
+   * @return  number of elements permitted within the bin once it holds the entry; 0 if the
+   *  generation must be rehashed
+   */
+  protected int reserve(ConcurrentTable t, ConcurrentBin bin) {
+    if ((bin != null) && (bin.b < bin.m)) {
+      return bin.m;
+    }
+
+    int m = this.binCapacity(Math.max((bin != null) ? bin.m : 0, 1));
+    int grown = this.binSpace(m) - ((bin != null) ? bin.s : 0);
+
+    if (!this.verify(t.M, t.SM, t.space.addAndGet(grown))) {
+      t.space.addAndGet(-grown);
+      return 0;
+    }
+
+    return m;
+  }
+
+  /**
+   * Gives back the space reserved for a bin that did not receive the entry after all.
+   *
+   * @param t generation of the table the bin belongs to
+   * @param bin bin that was to receive an entry; null if it does not exist yet
+   * @param m number of elements returned by reserve for the bin
+   */
+  protected void release(ConcurrentTable t, ConcurrentBin bin, int m) {
+    if ((bin == null) || (m != bin.m)) {
+      t.space.addAndGet(-(this.binSpace(m) - ((bin != null) ? bin.s : 0)));
+    }
+  }
+
+  /**
+   * Inserts the given entry, whose value is not yet stored, into the given bin of the
+   * given generation of the table, for which room has been reserved.  If the entry
+   * collides within its bin, or the bin has to grow, a new bin holding the entry is built
+   * and published in place of the old one.  Must be called holding the write lock of the
+   * bin.
+   *
+   * @param t generation of the table the entry is inserted into
+   * @param j index of the bin of the entry
+   * @param bin bin of the entry; null if it does not exist yet
+   * @param m number of elements returned by reserve for the bin
+   * @param e entry to be inserted
+   */
+  protected void insert(ConcurrentTable t, int j, ConcurrentBin bin, int m, Entry e) {
+    int b = (bin != null) ? bin.b + 1 : 1;
+
+    if ((bin != null) && (m == bin.m)) {
+      int location = bin.h.hash(e.getValue());
+
+      if (bin.bin.get(location) == null) {
+        bin.bin.set(location, e);
+        bin.b = b;
+        return;
+      }
+    }
+
+    List<Entry> l = this.gather(bin);
+
+    // the rebuilt bin only counts its live entries, freeing the slots of deleted ones
+    l.add(e);
+    t.dphash.set(j, this.buildBin(l, m, this.binSpace(m), l.size()));
+  }
+
+  /**
+   * Returns the entries stored within the given bin, leaving the bin untouched so that
+   * readers may still use it.
+   *
+   * @param bin bin whose entries are gathered; may be null
+   * @return  list of the entries of the bin
+   */
+  protected List<Entry> gather(ConcurrentBin bin) {
+    List<Entry> l = new ArrayList<Entry>();
+
+    if (bin != null) {
+      for (int i=0; i < bin.s; i++) {
+        Entry e = bin.bin.get(i);
+
+        if (e != null) {
+          l.add(e);
+        }
+      }
+    }
+
+    return l;
+  }
+
+  /**
+   * Builds a new bin holding the given entries, choosing random hash functions until one
+   * is found that is injective on the entries.  The bin is not visible to readers until
+   * it is stored into the top level.
+   *
+   * @param l entries to be stored in the bin
+   * @param m number of elements permitted within the bin
+   * @param s size of the bin
+   * @param b number of slots counted as taken
+   * @return  new bin
+   */
+  protected ConcurrentBin buildBin(List<Entry> l, int m, int s, int b) {
+    while (true) {
+      ConcurrentBin bin = new ConcurrentBin(this.generateHashFunction(s), m, s, b);
+      boolean injective = true;
+
+      for (int i=0; i < l.size(); i++) {
+        Entry e = l.get(i);
+
+        if (!bin.bin.compareAndSet(bin.h.hash(e.getValue()), null, e)) {
+          injective = false;
+          break;
+        }
+      }
+
+      if (injective) {
+        return bin;
+      }
+    }
+  }
+
+  /**
+   * Rehashes the entire table as a bin could not grow, or the table grew too big.  The new
+   * generation is built from the entries of the current one, which stays untouched and
+   * searchable until the new generation replaces it.  Nothing is done if the given
+   * generation has already been replaced by another writer.
+   *
+   * @param t generation of the table that has to be rehashed
+   */
+  protected void rehash(ConcurrentTable t) {
+    Lock exclusive = this.rehashLock.writeLock();
+
+    exclusive.lock();
+
+    try {
+      if (this.table != t) {
+        return;
+      }
+
+      List<Entry> l = new ArrayList<Entry>();
+
+      for (int j=0; j < t.SM; j++) {
+        l.addAll(this.gather(t.dphash.get(j)));
+      }
+
+      // set count to be the number of elements in the hash
+      this.count.set(l.size());
+      this.size.set(l.size());
+      this.table = this.build(l);
+    } finally {
+      exclusive.unlock();
+    }
+  }
+
+  /**
+   * Builds a new generation of the table holding the given entries.
+   *
+   * @param l entries to be stored in the new generation
+   * @return  new generation of the table
+   */
+  protected ConcurrentTable build(List<Entry> l) {
+    // set value of M to be max(n, 4) * (1 + C)
+    int M = (1 + this.C) * Math.max(l.size(), 4);
+    int SM = this.family.tableSize(M * 2);
+    HashFunction h = this.generateHashFunction(SM);
+
+    // rehash all elements using a new hash function until we meet the necessary conditions
+    List<List<Entry>> sublists = new ArrayList<List<Entry>>(SM);
+
+    for (int j=0; j < SM; j++) {
+      sublists.add(new ArrayList<Entry>());
+    }
+
+    long space;
+
+    while (true) {
+      for (int j=0; j < SM; j++) {
+        sublists.get(j).clear();
+      }
+
+      for (int i=0; i < l.size(); i++) {
+        sublists.get(h.hash(l.get(i).getValue())).add(l.get(i));
+      }
+
+      space = 0;
+
+      for (int j=0; j < SM; j++) {
+        if (sublists.get(j).size() > 0) {
+          space += this.binSpace(this.binCapacity(sublists.get(j).size()));
+        }
+      }
+
+      if (this.verify(M, SM, space)) {
+        break;
+      }
+
+      h = this.generateHashFunction(SM);
+    }
+
+    ConcurrentTable t = new ConcurrentTable(h, M, SM);
+
+    t.space.set(space);
+
+    // condition now holds so insert the elements into the appropriate bins
+    for (int j=0; j < SM; j++) {
+      List<Entry> sublist = sublists.get(j);
+
+      if (sublist.size() > 0) {
+        int m = this.binCapacity(sublist.size());
+
+        t.dphash.set(j, this.buildBin(sublist, m, this.binSpace(m), sublist.size()));
+      }
+    }
+
+    return t;
+  }
+
+  /**
+   * Generates a random hash function of the hash family of this DPHash.  The seeds are
+   * drawn from a SplitMix64 sequence that writers of different bins may advance at the
+   * same time, so a table built by a single thread is still reproducible from its seed.
+   *
+   * @param m size of the table that the hash function sends elements to
+   * @return  random hash function
+   */
+  protected HashFunction generateHashFunction(int m) {
+    long seed = UniversalHashFunction.mix(this.seeds.addAndGet(UniversalHashFunction.GOLDEN_GAMMA));
+
+    return UniversalHashFunction.generateHashFunction(this.family, m, seed);
+  }
+
+  /**
+   * Returns the number of elements that a bin should permit when holding n elements.
+   *
+   * @param n number of elements the bin is sized for
+   * @return  number of elements permitted within the bin
+   */
+  protected int binCapacity(int n) {
+    int m = (int) (this.scale * n);
+
+    // just a slight modification for the case when the scale < 2
+    if (m == 1) {
+      m++;
+    }
+
+    return m;
+  }
+
+  /**
+   * Returns the space to be allocated to a bin that permits m elements, 2m(m-1) rounded
+   * to a size that the hash family can hash into.
+   *
+   * @param m number of elements permitted within the bin
+   * @return  space to be allocated to the bin
+   */
+  protected int binSpace(int m) {
+    return this.family.tableSize(2 * m * (m - 1));
+  }
+
+  /**
+   * Verify that the following condition holds true:
+   *
+   *  Sum of the space of all bins <= 32 * M^2 / SM + 4M
+   *
+   * where the right hand side is multiplied by the space factor of the hash family.
+   *
+   * @param M number of elements accomadated within the generation
+   * @param SM  number of bins of the generation
+   * @param space sum of the space of all bins of the generation
+   * @return  true if the condition holds, false otherwise
+   */
+  protected boolean verify(int M, int SM, long space) {
+    return DPHashTable.verify(M, SM, space, this.family.spaceFactor());
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * StampedDPHash.java
+ */
+package com.mjnrand.dphashing.concurrent;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashImpl;
+
+/**
+ * StampedDPHash makes any DPHash that is not thread-safe, such as a DPHashStaticImpl or a
+ * DPHashDynamicImpl, safe to use from any number of threads at once.  It suits workloads
+ * with few writes better than a fully concurrent DPHash, as it adds nothing to the table
+ * itself.
+ *
+ * Every update takes the write lock of a StampedLock.  Reads are run without locking
+ * under an optimistic stamp, which is validated after the read: a lookup touches only one
+ * bin and one slot, so it is almost always finished long before the next writer comes
+ * along.  Only when a writer did run at the same time, and may have rebuilt the bin or
+ * rehashed the table under the read, is the read done again under the read lock.  A read
+ * that fails outright because it saw the table half updated is treated the same way.
+ *
+ * While a DPHashImpl is rehashing incrementally or in the background, its reads are always
+ * done under the read lock: the thread building a new generation in the background runs
+ * outside of the lock, so a stamp cannot tell whether a read raced with it.
+ *
+ * @param <V> type of the data stored with each element
+ */
+public class StampedDPHash<V> implements DPHash<V> {
+  /** DPHash all calls are passed to */
+  protected final DPHash<V> hash;
+
+  /** Lock guarding the DPHash */
+  protected final StampedLock lock = new StampedLock();
+
+  /**
+   * Constructor.  Wraps the given DPHash, which must not be used directly afterwards.
+   *
+   * @param hash  DPHash to be made thread-safe
+   */
+  public StampedDPHash(DPHash<V> hash) {
+    this.hash = hash;
+  }
+
+  /**
+   * Returns whether a read of the DPHash may be run under an optimistic stamp, which is
+   * not the case while a DPHashImpl is rehashing.  Whether a rehash was started by a writer
+   * after the stamp was taken is caught by validating the stamp.
+   *
+   * @return  true if the read may be run without locking
+   */
+  protected boolean optimistic() {
+    return !(this.hash instanceof DPHashImpl) || !((DPHashImpl<V>) this.hash).isRehashing();
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#insert(int, Object)
+   */
+  public void insert(int x, V data) {
+    long stamp = this.lock.writeLock();
+
+    try {
+      this.hash.insert(x, data);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#delete(int)
+   */
+  public void delete(int x) {
+    long stamp = this.lock.writeLock();
+
+    try {
+      this.hash.delete(x);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#lookup(int)
+   */
+  public boolean lookup(int x) {
+    long stamp = this.lock.tryOptimisticRead();
+
+    if ((stamp != 0) && (this.optimistic())) {
+      try {
+        boolean found = this.hash.lookup(x);
+
+        if (this.lock.validate(stamp)) {
+          return found;
+        }
+      } catch (RuntimeException ex) {
+        // the read saw a bin or table being rebuilt, so it is done again below
+      }
+    }
+
+    stamp = this.lock.readLock();
+
+    try {
+      return this.hash.lookup(x);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#get(int)
+   */
+  public V get(int x) {
+    return this.getOrDefault(x, null);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#getOrDefault(int, Object)
+   */
+  public V getOrDefault(int x, V defaultValue) {
+    long stamp = this.lock.tryOptimisticRead();
+
+    if ((stamp != 0) && (this.optimistic())) {
+      try {
+        V data = this.hash.getOrDefault(x, defaultValue);
+
+        if (this.lock.validate(stamp)) {
+          return data;
+        }
+      } catch (RuntimeException ex) {
+        // the read saw a bin or table being rebuilt, so it is done again below
+      }
+    }
+
+    stamp = this.lock.readLock();
+
+    try {
+      return this.hash.getOrDefault(x, defaultValue);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#put(int, Object)
+   */
+  public V put(int x, V data) {
+    long stamp = this.lock.writeLock();
+
+    try {
+      return this.hash.put(x, data);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Returns the data stored with the value x, computing and inserting it with the given
+   * function if the value is not stored in the hash or has no data.  The data is first
+   * searched for optimistically; the function is only called holding the write lock.
+   *
+   * @see com.mjnrand.dphashing.DPHash#computeIfAbsent(int, IntFunction)
+   */
+  public V computeIfAbsent(int x, IntFunction<? extends V> mappingFunction) {
+    V data = this.get(x);
+
+    if (data != null) {
+      return data;
+    }
+
+    long stamp = this.lock.writeLock();
+
+    try {
+      return this.hash.computeIfAbsent(x, mappingFunction);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Inserts all the given elements holding the write lock once for the whole batch.
+   *
+   * @see com.mjnrand.dphashing.DPHash#insertAll(int[], Object[])
+   */
+  public void insertAll(int[] keys, V[] values) {
+    long stamp = this.lock.writeLock();
+
+    try {
+      this.hash.insertAll(keys, values);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Deletes all the given elements holding the write lock once for the whole batch.
+   *
+   * @see com.mjnrand.dphashing.DPHash#deleteAll(int[])
+   */
+  public void deleteAll(int[] keys) {
+    long stamp = this.lock.writeLock();
+
+    try {
+      this.hash.deleteAll(keys);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Looks up all the given values holding the read lock once for the whole batch, as an
+   * optimistic read of a batch would rarely survive a concurrent writer.
+   *
+   * @see com.mjnrand.dphashing.DPHash#lookupAll(int[], boolean[])
+   */
+  public void lookupAll(int[] keys, boolean[] out) {
+    long stamp = this.lock.readLock();
+
+    try {
+      this.hash.lookupAll(keys, out);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Looks up all the given values holding the read lock once for the whole batch.
+   *
+   * @see com.mjnrand.dphashing.DPHash#getAll(int[], Object[])
+   */
+  public void getAll(int[] keys, V[] out) {
+    long stamp = this.lock.readLock();
+
+    try {
+      this.hash.getAll(keys, out);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * SynchronizedDPHash.java
+ */
+package com.mjnrand.dphashing.concurrent;
+
+import java.util.function.IntFunction;
+
+import com.mjnrand.dphashing.DPHash;
+
+/**
+ * SynchronizedDPHash makes any DPHash that is not thread-safe safe to use from any number
+ * of threads at once by running every call, reads included, while holding the monitor of
+ * the wrapper.  It is the simplest way of sharing a DPHash and the baseline that the other
+ * concurrent DPHashes are measured against.
+ *
+ * @param <V> type of the data stored with each element
+ */
+public class SynchronizedDPHash<V> implements DPHash<V> {
+  /** DPHash all calls are passed to */
+  protected final DPHash<V> hash;
+
+  /**
+   * Constructor.  Wraps the given DPHash, which must not be used directly afterwards.
+   *
+   * @param hash  DPHash to be made thread-safe
+   */
+  public SynchronizedDPHash(DPHash<V> hash) {
+    this.hash = hash;
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#insert(int, Object)
+   */
+  public synchronized void insert(int x, V data) {
+    this.hash.insert(x, data);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#delete(int)
+   */
+  public synchronized void delete(int x) {
+    this.hash.delete(x);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#lookup(int)
+   */
+  public synchronized boolean lookup(int x) {
+    return this.hash.lookup(x);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#get(int)
+   */
+  public synchronized V get(int x) {
+    return this.hash.get(x);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#getOrDefault(int, Object)
+   */
+  public synchronized V getOrDefault(int x, V defaultValue) {
+    return this.hash.getOrDefault(x, defaultValue);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#put(int, Object)
+   */
+  public synchronized V put(int x, V data) {
+    return this.hash.put(x, data);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#computeIfAbsent(int, IntFunction)
+   */
+  public synchronized V computeIfAbsent(int x, IntFunction<? extends V> mappingFunction) {
+    return this.hash.computeIfAbsent(x, mappingFunction);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#insertAll(int[], Object[])
+   */
+  public synchronized void insertAll(int[] keys, V[] values) {
+    this.hash.insertAll(keys, values);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#deleteAll(int[])
+   */
+  public synchronized void deleteAll(int[] keys) {
+    this.hash.deleteAll(keys);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#lookupAll(int[], boolean[])
+   */
+  public synchronized void lookupAll(int[] keys, boolean[] out) {
+    this.hash.lookupAll(keys, out);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#getAll(int[], Object[])
+   */
+  public synchronized void getAll(int[] keys, V[] out) {
+    this.hash.getAll(keys, out);
+  }
+}
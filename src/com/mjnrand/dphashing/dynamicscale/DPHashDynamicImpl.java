@@ -5,12 +5,12 @@
  */
 package com.mjnrand.dphashing.dynamicscale;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.stream.IntStream;
 
+import com.mjnrand.dphashing.Bin;
+import com.mjnrand.dphashing.DPHashConfig;
 import com.mjnrand.dphashing.DPHashImpl;
 import com.mjnrand.dphashing.Entry;
-import com.mjnrand.dphashing.UniversalHashFunction;
 
 /**
  * DPHash is an implementation of Dynamic Perfect Hashing.  It allows for worst-case time
@@ -21,341 +21,307 @@ import com.mjnrand.dphashing.UniversalHashFunction;
  * <i>Dyanamic Perfect Hashing: Upper and Lower Bounds</i> and uses the standard
  * doubling scheme for dynamically allocating the size of the table and bins.
  * 
+ * Each bin of this implementation keeps its own scale, which is adjusted by a step every
+ * time the bin has to grow, from what was observed since the bin last grew:
+ * 
+ *  - while the bins hold more slots per element than the configured maximum, the scale
+ *    is decremented, to bring the space back within the target;
+ *  - otherwise it is incremented if the bin collided on more than COLLISION_RATE of its
+ *    inserts, if its rebuilds tried more than RETRY_RATE hash functions each on average,
+ *    or if the DPHash is rebuilding bins faster than the configured maximum rate and this
+ *    bin, being updated often, rebuilt more often than the average bin;
+ *  - otherwise the scale moves in the configured direction.
+ * 
+ * A larger scale spends more space on a bin so that it collides and fills up less often,
+ * and a smaller one saves space in bins that are rarely updated.  The bins created by a
+ * global rehash start out with a moving average of the scales chosen so far, so what has
+ * been learnt carries over to the next generation of the table.  The scales chosen are
+ * reported by getBinScales().
+ * 
+ * @param <V> type of the data stored with each element
  * @author mark
  */
-public class DPHashDynamicImpl extends DPHashImpl {
-  /** Amount that the subtables should be scaled by */
-  public static double SCALE = 2;
+public class DPHashDynamicImpl<V> extends DPHashImpl<V> {
+  /** Amount that the subtables are scaled by at first */
+  protected final double scale;
   
   /** Amount that the scale factor of each bin is decremented when needed to be resized */
-  public static double STEP = 0.25;
+  protected final double step;
   
   /** Flag for whether the bin scale is being incremented or decremented */
-  public static boolean INCREMENT = false;
+  protected final boolean increment;
+  
+  /** Share of the inserts into a bin that may collide before the bin is scaled up */
+  protected static final double COLLISION_RATE = 0.25;
+  
+  /** Average number of hash functions a rebuild may try before the bin is scaled up */
+  protected static final double RETRY_RATE = 2;
+  
+  /** Number of scale choices the scale of new bins is averaged over, roughly */
+  protected static final int SMOOTHING = 16;
+  
+  /** Shortest interval over which the rebuild rate of the DPHash is measured, in nanoseconds */
+  protected static final long RATE_WINDOW = 100000000L;
+  
+  /** Slots per element above which bins are scaled down; 0 for no target */
+  protected final double maxSlotsPerKey;
+  
+  /** Rebuilds per second above which bins are scaled up; 0 for no target */
+  protected final double maxRebuildRate;
+  
+  /** Time the rebuild rate was last measured, as given by System.nanoTime() */
+  protected long sampled = System.nanoTime();
+  
+  /** Number of rebuilds when the rebuild rate was last measured */
+  protected long sampledRebuilds = 0;
+  
+  /** Rebuilds of bins per second, as last measured */
+  protected double rebuildRate = 0;
+  
+  /** Scale new bins start out with: a moving average of the scales chosen for the bins */
+  protected volatile double startScale;
 
-  /** Array representation of the DPHash that contains all bins within the hash */
-  protected DynamicBin[] dphash = null;
-    
   /**
-   * Default constructor.  Creates an instance of DPHash using the given maximum
+   * Constructor.  Creates an instance of DPHash that accepts every int as a value, hashing
+   * modulo the Mersenne prime 2^61 - 1.
+   * 
+   * @param step  amount that the scale factor of each bin changes when resized
+   * @param increment flag for whether the bin scale is incremented or decremented
+   */
+  public DPHashDynamicImpl(double step, boolean increment) {
+    this(DPHashConfig.builder().step(step).increment(increment).build());
+  }
+  
+  /**
+   * Constructor.  Creates an instance of DPHash using the given maximum
    * universe size and prime number p that is >= |U|.
    * 
    * @param universeSize  maximum value that may be inserted into the hash
    * @param p prime number that is >= universeSize
-   * @param c constant factor that DPHash.M is bigger than n
+   * @param step  amount that the scale factor of each bin changes when resized
+   * @param increment flag for whether the bin scale is incremented or decremented
    */
   public DPHashDynamicImpl(int universeSize, int p, double step, boolean increment) {
-    DPHashImpl.MAX_UNIVERSE_SIZE = universeSize;
-    DPHashImpl.P = p;
-    DPHashDynamicImpl.STEP = step;
-    DPHashDynamicImpl.INCREMENT = increment;
-    this.dphash = new DynamicBin[DPHashImpl.SM];
+    this(DPHashConfig.builder().universeSize(universeSize).prime(p).step(step).increment(increment).build());
+  }
+  
+  /**
+   * Constructor.  Creates an instance of DPHash using the given configuration.
+   * 
+   * @param config  configuration of this DPHash
+   */
+  public DPHashDynamicImpl(DPHashConfig config) {
+    super(config);
+    this.scale = config.getScale();
+    this.step = config.getStep();
+    this.increment = config.isIncrement();
+    this.maxSlotsPerKey = config.getMaxSlotsPerKey();
+    this.maxRebuildRate = config.getMaxRebuildRate();
+    this.startScale = this.scale;
     
     // setup the hash
-    this.rehash(-1);
+    this.rehash(null);
   }
   
   /**
-   * Insert the value x into the hash with the given data.
+   * Creates a DPHash holding the given elements, building the table once for the final
+   * number of elements instead of inserting the elements one by one.
    * 
-   * @param x value to be inserted into the hash
-   * @param data  data to be stored with value
+   * @param <V>  type of the data stored with each element
+   * @param config  configuration of the DPHash
+   * @param keys  values of the elements, which must all be different
+   * @param values  data stored with each element, in the order of the keys; null for none
+   * @return  new DPHash holding the elements
+   * @throws IllegalArgumentException  if the arrays differ in length or a value repeats
    */
-  public void insert(int x, Object data) {
-    this.count++;
+  public static <V> DPHashDynamicImpl<V> of(DPHashConfig config, int[] keys, V[] values) {
+    DPHashDynamicImpl<V> hash = new DPHashDynamicImpl<V>(config);
     
-    if (this.count > DPHashDynamicImpl.M) {
-      this.rehash(x);
-    } else {
-      int j = this.h.hash(x);
-      int location = -1 ;
-      
-      if (this.dphash[j].m > 0) {
-        location = this.dphash[j].h.hash(x);
-      }
-      
-      if ((location != -1) && 
-          (this.dphash[j].bin[location] != null) && 
-          (this.dphash[j].bin[location].getValue() == x)) {
-        if (this.dphash[j].bin[location].isDeleted()) {
-          this.dphash[j].bin[location].setDeleted(false);
-        }
-      } else {
-        this.dphash[j].b++;
-        
-        if (this.dphash[j].b <= this.dphash[j].m) {
-          if (this.dphash[j].bin[location] == null) {
-            this.dphash[j].bin[location] = new Entry(x, data);
-          } else {
-            List l = new ArrayList();
-            
-            for (int i=0; i < this.dphash[j].s; i++) {
-              if (this.dphash[j].bin[i] != null && !this.dphash[j].bin[i].isDeleted()) {
-                l.add(this.dphash[j].bin[i]);
-              }
-              
-              // clean up references 
-              this.dphash[j].bin[i] = null;             
-            }
-            
-            l.add(new Entry(x, data));
-            
-            boolean injective = false;
-            
-            while (!injective) {
-              injective = true;
-              this.dphash[j].bin = null;
-              this.dphash[j].bin = new Entry[this.dphash[j].s];
-              this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-              
-              for (int i=0; i < l.size(); i++) {
-                Entry e = (Entry) l.get(i);
-                int y = this.dphash[j].h.hash(e.getValue());
-            
-                if (this.dphash[j].bin[y] != null) {
-                  injective = false;
-                  break;
-                }
-            
-                this.dphash[j].bin[y] = e;
-              }
-            }
-            
-            l.clear();
-          }
-        } else {
-          // decrement the scale factor if this is not the first time that this bin has been scaled
-          if (this.dphash[j].m != 0) {
-            this.dphash[j].update();
-          }
-
-          this.dphash[j].m = (int) (this.dphash[j].scale * Math.max(this.dphash[j].m, 1));
-          this.dphash[j].s = 2 * (this.dphash[j].m) * (this.dphash[j].m - 1);
-          
-          if (this.verify()) {
-            List l = new ArrayList();
-            
-            if (this.dphash[j].bin != null) {
-              for (int i=0; i < this.dphash[j].bin.length; i++) {
-                if ((this.dphash[j].bin[i] != null) && (!this.dphash[j].bin[i].isDeleted())) {
-                  l.add(this.dphash[j].bin[i]);
-                }
-                
-                // clean up references 
-                this.dphash[j].bin[i] = null;             
-              }
-            }
-            
-            l.add(new Entry(x, data));
-            
-            boolean injective = false;
-            
-            while (!injective) {
-              injective = true;
-              this.dphash[j].bin = null;
-              this.dphash[j].bin = new Entry[this.dphash[j].s];
-              this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-              
-              for (int i=0; i < l.size(); i++) {
-                Entry e = (Entry) l.get(i);               
-                int y = this.dphash[j].h.hash(e.getValue());
-            
-                if (this.dphash[j].bin[y] != null) {
-                  injective = false;
-                  break;
-                }
-                
-                this.dphash[j].bin[y] = e;
-              }
-            }
-            
-            l.clear();
-          } else {
-            this.rehash(x);
-          }
-        }
-      }
-    }
+    hash.load(keys, values);
+    
+    return hash;
   }
   
   /**
-   * Delete the value x from the hash, if it exists.
+   * Creates a DPHash holding the given elements without data, building the table once.
    * 
-   * @param x value to be deleted from the hash
+   * @param <V>  type of the data stored with each element
+   * @param config  configuration of the DPHash
+   * @param keys  values of the elements, which must all be different
+   * @return  new DPHash holding the elements
+   * @throws IllegalArgumentException  if a value repeats
    */
-  public void delete(int x) {
-    this.count++;
-    
-    int j = this.h.hash(x);
+  public static <V> DPHashDynamicImpl<V> of(DPHashConfig config, int[] keys) {
+    return DPHashDynamicImpl.of(config, keys, null);
+  }
+  
+  /**
+   * Creates a DPHash holding the elements of the given stream without data, building the
+   * table once after the stream has been consumed.
+   * 
+   * @param <V>  type of the data stored with each element
+   * @param config  configuration of the DPHash
+   * @param keys  values of the elements, which must all be different
+   * @return  new DPHash holding the elements
+   * @throws IllegalArgumentException  if a value repeats
+   */
+  public static <V> DPHashDynamicImpl<V> of(DPHashConfig config, IntStream keys) {
+    return DPHashDynamicImpl.of(config, keys.toArray(), null);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.DPHashImpl#createBin()
+   */
+  protected Bin createBin() {
+    return new DynamicBin(this.startScale, this.step, this.increment);
+  }
+  
+  /**
+   * @see com.mjnrand.dphashing.DPHashImpl#binScale(com.mjnrand.dphashing.Bin)
+   */
+  protected double binScale(Bin bin) {
+    return ((DynamicBin) bin).scale;
+  }
+  
+  /**
+   * Returns the scale currently chosen for every bin of the hash, 0 for bins that have not
+   * been created.
+   * 
+   * @return  scale factor of every bin
+   */
+  public double[] getBinScales() {
+    double[] scales = new double[this.table.SM];
     
-    if (this.dphash[j] != null) {
-      int location = this.dphash[j].h.hash(x);
-      
-      if (this.dphash[j].bin[location] != null) {
-        this.dphash[j].bin[location].setDeleted(true);
+    for (int j=0; j < this.table.SM; j++) {
+      if (this.table.dphash[j] != null) {
+        scales[j] = ((DynamicBin) this.table.dphash[j]).scale;
       }
     }
     
-    if (this.count >= DPHashImpl.M) {
-      this.rehash(-1);
-    }
+    return scales;
   }
   
   /**
-   * Returns true if the value x is stored in the hash, and false otherwise.
+   * Updates the scale factor of the bin, if this is not the first time that the bin has
+   * been scaled, before growing it.  The old scale is kept until grown tells whether the
+   * growth fits within the space bound.
    * 
-   * @param x value to be searched for in the hash
-   * @return  true if the value is stored in the hash; false otherwise
+   * @see com.mjnrand.dphashing.DPHashImpl#growBin(com.mjnrand.dphashing.Bin)
    */
-  public boolean lookup(int x) {
-    int j = this.h.hash(x);
+  protected void growBin(Bin bin) {
+    DynamicBin dynamic = (DynamicBin) bin;
     
-    if ((this.dphash[j] != null) && (this.dphash[j].b > 0)) {
-      int location = this.dphash[j].h.hash(x);
-      
-      if ((this.dphash[j].bin[location] != null) && 
-          (this.dphash[j].bin[location].getValue() == x) &&
-          (!this.dphash[j].bin[location].isDeleted())) {
-        return true;
-      }
+    dynamic.previous = Double.NaN;
+    
+    if (bin.m != 0) {
+      dynamic.previous = dynamic.scale;
+      dynamic.update(this.direction(dynamic, System.nanoTime()));
     }
-    return false;
+    
+    super.growBin(bin);
   }
   
   /**
-   * Rehashes the entire table as a collision occurred, or the table grew too big.
+   * Takes a new scale of the bin into the scale of new bins and starts the statistics of
+   * the bin over once its growth is accepted, or restores its old scale if the growth was
+   * rejected, so that a rejected step leaves no trace.
    * 
-   * @param x value that has been inserted that caused rehashing; -1 if deletion caused rehashing
+   * @see com.mjnrand.dphashing.DPHashImpl#grown(com.mjnrand.dphashing.Bin, boolean)
    */
-  protected void rehash(int x) {
-    List l = new ArrayList();
+  protected void grown(Bin bin, boolean accepted) {
+    DynamicBin dynamic = (DynamicBin) bin;
+    boolean rescaled = !Double.isNaN(dynamic.previous);
     
-    // gather all current entries in hash
-    for (int i=0; i < DPHashImpl.SM; ++i) {
-      if (this.dphash[i] != null && this.dphash[i].bin != null) {
-        for (int j=0; j < this.dphash[i].bin.length; ++j) {
-          if ((this.dphash[i].bin != null) && (this.dphash[i].bin[j] != null)) {
-            if (!this.dphash[i].bin[j].isDeleted()) {
-              l.add(this.dphash[i].bin[j]);
-            }
-            // clean up any references so that garbace collector can do it's job
-            this.dphash[i].bin[j] = null;
-          }
-        }
-        
-        this.dphash[i].h = null;
-        this.dphash[i].bin = null;
-        this.dphash[i] = null;
+    if (!accepted) {
+      if (rescaled) {
+        dynamic.scale = dynamic.previous;
+      }
+    } else {
+      if (rescaled) {
+        this.startScale += (dynamic.scale - this.startScale) / SMOOTHING;
       }
+      
+      dynamic.resized(System.nanoTime());
     }
     
-    // get rid of old header table since it is gone now...
-    this.dphash = null;
-    
-    // add value x if it is in U
-    if (x != -1) {
-      l.add(new Entry(x));
+    dynamic.previous = Double.NaN;
+  }
+  
+  /**
+   * Records the collision in the statistics of the bin.
+   * 
+   * @see com.mjnrand.dphashing.DPHashImpl#collided(com.mjnrand.dphashing.Bin)
+   */
+  protected void collided(Bin bin) {
+    ((DynamicBin) bin).collided();
+  }
+  
+  /**
+   * Decides whether the scale of the given bin, which has filled up, should move up or
+   * down, from the statistics of the bin since it last grew and of the whole DPHash.
+   * 
+   * @param bin bin about to grow
+   * @param now current time, as given by System.nanoTime()
+   * @return  true to increment the scale of the bin; false to decrement it
+   */
+  protected boolean direction(DynamicBin bin, long now) {
+    if ((this.maxSlotsPerKey > 0) && (this.getSlotsPerKey() > this.maxSlotsPerKey)) {
+      return false;
     }
     
-    // set count to be the number of elements in the hash
-    this.count = l.size();
+    int inserts = Math.max(bin.b - bin.resizedAt, 1);
     
-    // set value of DPHash.M to be max(count, 4) * (1 + DPHash.C) and allocate header table
-    DPHashImpl.M = (1 + DPHashImpl.C) * Math.max(this.count, 4);
-    DPHashImpl.SM = DPHashImpl.M * 2;
-    this.dphash = new DynamicBin[DPHashImpl.SM];
-    
-    // rehash all elements using a new hash function until we meet the necessary conditions
-    List[] sublists = new ArrayList[DPHashImpl.SM];
+    if ((bin.collisions > COLLISION_RATE * inserts) || (bin.tries > RETRY_RATE * Math.max(bin.rebuilds, 1))) {
+      return true;
+    }
     
-    do {
-      this.h = UniversalHashFunction.generateHashFunction(DPHashImpl.SM);
-
-      // clean up the sublists before we start this procedure
-      for (int k=0; k < DPHashImpl.SM; ++k) {
-        if (sublists[k] != null) {
-          sublists[k].clear();
-        } else {
-          sublists[k] = new ArrayList();
-        }
-      }
-
-      for (int i=0; i < l.size(); ++i) {
-        Entry e = (Entry) l.get(i);
-        int bucket = this.h.hash(e.getValue());
-        
-        sublists[bucket].add(e);
-      }
+    if (this.maxRebuildRate > 0) {
+      double rate = this.rebuildRate(now);
+      double seconds = Math.max(now - bin.resizedTime, 1) / 1e9;
       
-      for (int j=0; j < DPHashImpl.SM; ++j) {
-        if (sublists[j] == null) {
-          // create empty list for those buckets that didn't get any elements
-          sublists[j] = new ArrayList();
-        }
-        
-        this.dphash[j] = null;
-        this.dphash[j] = new DynamicBin(DPHashDynamicImpl.SCALE, DPHashDynamicImpl.STEP, DPHashDynamicImpl.INCREMENT);
-        this.dphash[j].b = sublists[j].size();
-        this.dphash[j].m =  (int) (this.dphash[j].scale * this.dphash[j].b);
-        this.dphash[j].s = 2 * (this.dphash[j].m) * (this.dphash[j].m -  1);
-        this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-      }     
-    } while (!this.verify());
-    
-    l.clear();
-    
-    // condition now holds so insert the elements into the appropriate bins
-    for (int j=0; j < DPHashImpl.SM; ++j) {
-      if ((sublists[j] != null) && (sublists[j].size() != 0)) {
-        boolean injective = false;
-        
-        while (!injective) {
-          this.dphash[j].bin = null;
-          this.dphash[j].bin = new Entry[this.dphash[j].s];
-          this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-        
-          injective = true;
-            
-          for (int i=0; i < sublists[j].size(); ++i) {
-            Entry e = (Entry) sublists[j].get(i);
-            int location = this.dphash[j].h.hash(e.getValue());
-            
-            if (this.dphash[j].bin[location] != null) {
-              injective = false;
-              break;
-            }
-            
-            this.dphash[j].bin[location] = e;
-          }
-        }
+      if ((rate > this.maxRebuildRate) && (bin.rebuilds / seconds > rate / this.table.SM)) {
+        return true;
       }
-      
-      sublists[j].clear();
     }
+    
+    return this.increment;
   }
   
   /**
-   * Verify that the following condition holds true:
-   * 
-   *  Sum of all dphash[j].s <= 32 * M^2 / SM + 4M
+   * Returns the number of bins rebuilt per second, measured over the last RATE_WINDOW at
+   * least, or since the DPHash was created until a whole window has passed.
    * 
-   * @return  true if the condition holds, false otherwise
+   * @param now current time, as given by System.nanoTime()
+   * @return  rebuilds per second
    */
-  protected boolean verify() {
-    int total = 0;
-    int condition = (32 * (DPHashImpl.M^2)) / DPHashImpl.SM + 4 * DPHashImpl.M;
-    
-    for (int i=0; i < this.dphash.length; i++) {
-      if (this.dphash[i] != null) {
-        total += this.dphash[i].s;
-      }
+  protected double rebuildRate(long now) {
+    if ((now - this.sampled >= RATE_WINDOW) || (this.sampledRebuilds == 0)) {
+      long rebuilds = this.rebuilds.sum();
+      double rate = (rebuilds - this.sampledRebuilds) * 1e9 / Math.max(now - this.sampled, 1);
       
-      // small optimization:  if we have already broken the condition, there is no need to keep going...
-      if (total > condition) {
-        return false;
+      if (now - this.sampled < RATE_WINDOW) {
+        return rate;
       }
+      
+      this.rebuildRate = rate;
+      this.sampled = now;
+      this.sampledRebuilds = rebuilds;
     }
-              
-    return (total <= condition);
+    
+    return this.rebuildRate;
+  }
+  
+  /**
+   * Records the rebuild in the statistics of the bin, whatever caused it, for the number
+   * of hash functions a rebuild tries and the rebuild rate of the bin.
+   * 
+   * @see com.mjnrand.dphashing.DPHashImpl#rebuild(com.mjnrand.dphashing.Bin, com.mjnrand.dphashing.Entry[], int, int, long)
+   */
+  protected int rebuild(Bin bin, Entry[] entries, int from, int to, long seed) {
+    int tries = super.rebuild(bin, entries, from, to, seed);
+    
+    ((DynamicBin) bin).rebuilt(tries);
+    
+    return tries;
   }
 }
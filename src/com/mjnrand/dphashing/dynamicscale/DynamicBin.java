@@ -16,12 +16,43 @@ public class DynamicBin extends Bin {
   private boolean increment = false;
   private double step = 0.25;
   
+  /** Number of times this bin has been rebuilt since it was last resized */
+  public int rebuilds = 0;
+  
+  /** Number of those rebuilds that a colliding insert caused */
+  public int collisions = 0;
+  
+  /** Number of hash functions tried by those rebuilds */
+  public int tries = 0;
+  
+  /** Number of values stored within this bin when it was last resized */
+  public int resizedAt = 0;
+  
+  /** Time this bin was last resized, as given by System.nanoTime() */
+  public long resizedTime = System.nanoTime();
+  
+  /** Scale of this bin before the growth being checked against the space bound; NaN if the growth did not rescale it */
+  public double previous = Double.NaN;
+  
   public DynamicBin(double scale, double step, boolean increment) {
     this.scale = scale;
     this.step = step;
+    this.increment = increment;
   }
   
+  /**
+   * Moves the scale of this bin a step in the direction the bin was created with.
+   */
   public void update() {
+    this.update(this.increment);
+  }
+  
+  /**
+   * Moves the scale of this bin a step up or down, staying within MIN_SCALE and MAX_SCALE.
+   * 
+   * @param increment if true, the scale is incremented; otherwise it is decremented
+   */
+  public void update(boolean increment) {
     // determine wheter we are incrementing or decrementing...
     if (increment) {
       // only increase scale value to max value of MAX_SCALE
@@ -43,4 +74,34 @@ public class DynamicBin extends Bin {
       }
     }
   }
+  
+  /**
+   * Records a rebuild of this bin.
+   * 
+   * @param tries number of hash functions the rebuild tried
+   */
+  public void rebuilt(int tries) {
+    this.rebuilds++;
+    this.tries += tries;
+  }
+  
+  /**
+   * Records a rebuild of this bin caused by a colliding insert.
+   */
+  public void collided() {
+    this.collisions++;
+  }
+  
+  /**
+   * Starts the statistics of this bin over, as the bin is being resized.
+   * 
+   * @param now current time, as given by System.nanoTime()
+   */
+  public void resized(long now) {
+    this.rebuilds = 0;
+    this.collisions = 0;
+    this.tries = 0;
+    this.resizedAt = this.b;
+    this.resizedTime = now;
+  }
 }
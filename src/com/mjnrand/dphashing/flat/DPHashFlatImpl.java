@@ -0,0 +1,793 @@
+/*
+ * DPHashFlatImpl.java
+ */
+package com.mjnrand.dphashing.flat;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+import com.mjnrand.dphashing.BatchHasher;
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashTable;
+import com.mjnrand.dphashing.HashFamily;
+import com.mjnrand.dphashing.HashFunction;
+import com.mjnrand.dphashing.UniversalHashFunction;
+
+/**
+ * DPHashFlatImpl is an implementation of Dynamic Perfect Hashing that stores the whole
+ * table in a handful of primitive arrays instead of a graph of Bin and Entry objects.
+ *
+ * The top level of the hash is a directory that holds, for every bin, the offset and size
+ * of the bin's slice of the shared slot arrays and the variables of the bin's hash
+ * function, all within 32 bytes.  The slots of all bins are stored in one int array of
+ * keys and a parallel array of data.  A slot is empty when its data is null and holds a
+ * deleted key when its data is the TOMBSTONE marker, so a lookup reads one directory
+ * entry, one key and one data reference, and allocates nothing.
+ *
+ * Bins of at most INLINE_KEYS elements, which are most of them, have no hash function:
+ * their keys are kept inline in the directory entry, in the place of the variables of the
+ * hash function, and the data of the i-th key in the i-th slot of the bin's slice.  A
+ * lookup in such a bin compares x with all the inline keys at once, without branching,
+ * and reads the data of the matching slot, so it needs neither the second hash nor the
+ * key array.  A bin is moved to a hash function once it outgrows its inline keys.
+ *
+ * A bin's slice is always exactly as long as the bin's space.  Bins that outgrow their
+ * slice are moved to a new slice at the end of the slot arrays.  The slices left behind
+ * are reclaimed by the next global rehash, which lays all bins out contiguously again.
+ *
+ * @param <V> type of the data stored with each element
+ */
+public class DPHashFlatImpl<V> implements DPHash<V> {
+  /** Marker stored as the data of a slot whose key has been deleted */
+  protected static final Object TOMBSTONE = new Object();
+
+  /** Marker stored as the data of a slot whose key was inserted with null data */
+  protected static final Object NULL = new Object();
+
+  /** Number of ints used by each bin in the directory */
+  protected static final int DIR_STRIDE = 8;
+
+  /** Offset of the bin's slice within the slot arrays */
+  protected static final int OFFSET = 0;
+
+  /** Space allocated to the bin, s, which is also the size of its hash function */
+  protected static final int SIZE = 1;
+
+  /** Number of values currently stored within the bin, b */
+  protected static final int LOAD = 2;
+
+  /** Number of elements permitted within the bin, m */
+  protected static final int CAPACITY = 3;
+
+  /** Low and high halves of variable a of the bin's hash function, or inline keys 0 and 1 */
+  protected static final int A_LO = 4;
+  protected static final int A_HI = 5;
+
+  /** Low and high halves of variable b of the bin's hash function, or inline keys 2 and 3 */
+  protected static final int B_LO = 6;
+  protected static final int B_HI = 7;
+
+  /** First of the ints holding the keys of an inline bin */
+  protected static final int INLINE = A_LO;
+
+  /** Largest number of elements a bin keeps inline, which is also the space of such a bin */
+  protected static final int INLINE_KEYS = 4;
+
+  /** Number of values looked up together, stage by stage, by lookupAll and getAll */
+  protected static final int LOOKUP_BLOCK = 64;
+
+  /** Configuration this DPHash was created with */
+  protected final DPHashConfig config;
+
+  /** Universal family the hash functions of the DPHash are drawn from */
+  protected final HashFamily family;
+
+  /** Constant factor in which the top level of the DPHash grows */
+  protected final int C;
+
+  /** Amount that the subtables should be scaled by */
+  protected final double scale;
+
+  /** Source of the seeds of all hash functions chosen by this DPHash */
+  protected final SplittableRandom random;
+
+  /** Hasher hashing blocks of values for lookupAll, getAll and global rehashes */
+  protected final BatchHasher hasher;
+
+  /** Number of elements accomadated within hash */
+  protected int M = 0;
+
+  /** Number of sets that top level hash partitions S into */
+  protected int SM = 0;
+
+  /** Hash function currently being used by the top level of the DPHash */
+  protected HashFunction h = null;
+
+  /** Number of updates performed on this DPHash */
+  protected int count = 0;
+
+  /** Directory of the bins, DIR_STRIDE ints per bin */
+  protected int[] dir = null;
+
+  /** Seed of the hash function of each bin; never read when hashing */
+  protected long[] seeds = null;
+
+  /** Keys of all slots of all bins */
+  protected int[] keys = null;
+
+  /** Data of all slots of all bins; null for empty slots */
+  protected Object[] values = null;
+
+  /** Index of the first slot not yet handed out to a bin */
+  protected int top = 0;
+
+  /** Sum of the space allocated to all bins */
+  protected long space = 0;
+
+  /**
+   * Constructor.  Creates an instance of DPHash using the given configuration.
+   *
+   * @param config  configuration of this DPHash
+   * @throws IllegalArgumentException if the configuration asks for an option this engine
+   *    does not support
+   */
+  public DPHashFlatImpl(DPHashConfig config) {
+    config.checkRehashOptions(this.getClass().getSimpleName());
+
+    this.config = config;
+    this.family = config.getHashFamily();
+    this.C = config.getC();
+    this.scale = config.getScale();
+    this.random = new SplittableRandom(config.getSeed());
+    this.hasher = BatchHasher.getInstance();
+
+    // setup the hash
+    this.rehash(0, null, false);
+  }
+
+  /**
+   * Returns the configuration this DPHash was created with.
+   *
+   * @return  configuration of this DPHash
+   */
+  public DPHashConfig getConfig() {
+    return this.config;
+  }
+
+  /**
+   * Returns the seed of the hash function currently used by the top level of the hash.
+   *
+   * @return  seed of the top level hash function
+   */
+  public long getSeed() {
+    return this.h.getSeed();
+  }
+
+  /**
+   * Returns the seeds of the hash functions currently used by the bins of the hash, 0 for
+   * bins that keep their keys inline.
+   *
+   * @return  seed of the hash function of every bin
+   */
+  public long[] getBinSeeds() {
+    return this.seeds.clone();
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#insert(int, java.lang.Object)
+   */
+  public void insert(int x, V data) {
+    this.put(x, data);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#put(int, java.lang.Object)
+   */
+  public V put(int x, V data) {
+    this.count++;
+
+    int d = this.h.hash(x) * DIR_STRIDE;
+    int location;
+
+    if (this.dir[d + CAPACITY] <= INLINE_KEYS) {
+      location = this.scan(d, x);
+    } else {
+      location = this.dir[d + OFFSET] + this.binHash(d, x);
+    }
+
+    if ((location != -1) && (this.values[location] != null) && (this.keys[location] == x)) {
+      // the value is already stored (maybe marked deleted) so just update the slot in place
+      Object previous = this.values[location];
+
+      this.values[location] = wrap(data);
+
+      if (this.count > this.M) {
+        this.rehash(0, null, false);
+      }
+
+      return unwrap(previous);
+    }
+
+    if (this.count > this.M) {
+      this.rehash(x, wrap(data), true);
+    } else {
+      this.dir[d + LOAD]++;
+
+      if (this.dir[d + LOAD] <= this.dir[d + CAPACITY]) {
+        if (this.dir[d + CAPACITY] <= INLINE_KEYS) {
+          // append x after the keys already inline
+          int i = this.dir[d + LOAD] - 1;
+
+          location = this.dir[d + OFFSET] + i;
+          this.dir[d + INLINE + i] = x;
+          this.keys[location] = x;
+          this.values[location] = wrap(data);
+        } else if (this.values[location] == null) {
+          this.keys[location] = x;
+          this.values[location] = wrap(data);
+        } else {
+          this.rebuild(d, this.dir[d + SIZE], x, wrap(data));
+        }
+      } else {
+        // an empty bin starts out inline, a full inline bin moves to a hash function
+        int m = (this.dir[d + CAPACITY] == 0) ? INLINE_KEYS
+          : Math.max(this.binCapacity(this.dir[d + CAPACITY]), INLINE_KEYS + 1);
+        int s = this.binSpace(m);
+        int allocated = this.dir[d + SIZE];
+
+        this.dir[d + CAPACITY] = m;
+        this.dir[d + SIZE] = s;
+        this.space += s - allocated;
+
+        if (this.verify()) {
+          this.rebuild(d, allocated, x, wrap(data));
+        } else {
+          this.dir[d + SIZE] = allocated;
+          this.rehash(x, wrap(data), true);
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#delete(int)
+   */
+  public void delete(int x) {
+    this.count++;
+
+    int location = this.find(x);
+
+    if (location != -1) {
+      this.values[location] = TOMBSTONE;
+    }
+
+    if (this.count >= this.M) {
+      this.rehash(0, null, false);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#lookup(int)
+   */
+  public boolean lookup(int x) {
+    return (this.find(x) != -1);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#get(int)
+   */
+  public V get(int x) {
+    int location = this.find(x);
+
+    return (location != -1) ? unwrap(this.values[location]) : null;
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#getOrDefault(int, java.lang.Object)
+   */
+  public V getOrDefault(int x, V defaultValue) {
+    int location = this.find(x);
+
+    return (location != -1) ? unwrap(this.values[location]) : defaultValue;
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#lookupAll(int[], boolean[])
+   * @see #findAll(int[], int, int, LookupBlock)
+   */
+  public void lookupAll(int[] keys, boolean[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but room for " + out.length + " results");
+    }
+
+    LookupBlock block = new LookupBlock();
+    int[] found = block.found;
+
+    for (int from=0; from < keys.length; from += LOOKUP_BLOCK) {
+      int n = Math.min(LOOKUP_BLOCK, keys.length - from);
+
+      this.findAll(keys, from, n, block);
+
+      for (int k=0; k < n; k++) {
+        out[from + k] = (found[k] != -1);
+      }
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#getAll(int[], Object[])
+   * @see #findAll(int[], int, int, LookupBlock)
+   */
+  public void getAll(int[] keys, V[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but room for " + out.length + " results");
+    }
+
+    LookupBlock block = new LookupBlock();
+    int[] found = block.found;
+
+    for (int from=0; from < keys.length; from += LOOKUP_BLOCK) {
+      int n = Math.min(LOOKUP_BLOCK, keys.length - from);
+
+      this.findAll(keys, from, n, block);
+
+      for (int k=0; k < n; k++) {
+        out[from + k] = (found[k] != -1) ? unwrap(this.values[found[k]]) : null;
+      }
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.DPHash#computeIfAbsent(int, java.util.function.IntFunction)
+   */
+  public V computeIfAbsent(int x, IntFunction<? extends V> mappingFunction) {
+    int location = this.find(x);
+
+    if ((location != -1) && (this.values[location] != NULL)) {
+      return unwrap(this.values[location]);
+    }
+
+    V data = mappingFunction.apply(x);
+
+    if (data != null) {
+      if (location != -1) {
+        this.values[location] = data;
+      } else {
+        this.put(x, data);
+      }
+    }
+
+    return data;
+  }
+
+  /**
+   * Returns the slot holding the value x, or -1 if x is not stored in the hash.
+   *
+   * @param x value to be searched for in the hash
+   * @return  index of the slot holding x; -1 if x is not stored in the hash
+   */
+  protected int find(int x) {
+    int d = this.h.hash(x) * DIR_STRIDE;
+
+    if (this.dir[d + CAPACITY] <= INLINE_KEYS) {
+      int location = this.scan(d, x);
+
+      return ((location != -1) && (this.values[location] != TOMBSTONE)) ? location : -1;
+    }
+
+    int location = this.dir[d + OFFSET] + this.binHash(d, x);
+    Object data = this.values[location];
+
+    if ((this.keys[location] == x) && (data != null) && (data != TOMBSTONE)) {
+      return location;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the slot of the value x within the inline bin with the given directory entry,
+   * or -1 if x is not one of its keys.  The inline keys are all compared with x without
+   * branching, and the comparisons beyond the load of the bin masked off.  The slot may
+   * hold a deleted key.
+   *
+   * @param d index of the bin's directory entry
+   * @param x value to be searched for in the bin
+   * @return  index of the slot holding x; -1 if x is not kept inline in the bin
+   */
+  protected int scan(int d, int x) {
+    int hits = match(this.dir[d + INLINE], x) | (match(this.dir[d + INLINE + 1], x) << 1)
+      | (match(this.dir[d + INLINE + 2], x) << 2) | (match(this.dir[d + INLINE + 3], x) << 3);
+
+    hits &= (1 << this.dir[d + LOAD]) - 1;
+
+    return (hits != 0) ? this.dir[d + OFFSET] + Integer.numberOfTrailingZeros(hits) : -1;
+  }
+
+  /**
+   * Compares two keys without branching.
+   *
+   * @param k key kept inline
+   * @param x value being searched for
+   * @return  1 if the keys are equal, 0 otherwise
+   */
+  protected static int match(int k, int x) {
+    int diff = k ^ x;
+
+    return ((diff | -diff) >>> 31) ^ 1;
+  }
+
+  /**
+   * Finds the slots of the given block of values, storing the slot of keys[from + k], or -1,
+   * into block.found[k].  The block is processed in stages so that the loads of different values
+   * overlap: first the directory entries of all values are loaded, then the slots of all
+   * values are computed, and finally the keys and data of all slots are compared.  Both
+   * levels of hashing are done for the whole block at once by the BatchHasher; the values
+   * falling into inline bins are found by a scan of the bin instead.
+   *
+   * @param keys  values to be queried
+   * @param from  index of the first value of the block
+   * @param n number of values in the block, at most LOOKUP_BLOCK
+   * @param block arrays to work in, receiving the slot of every value of the block
+   */
+  protected void findAll(int[] keys, int from, int n, LookupBlock block) {
+    int[] found = block.found;
+    int[] dirs = block.dirs;
+    long[] a = block.a;
+    long[] b = block.b;
+    int[] m = block.m;
+
+    this.hasher.hash(this.h, keys, from, dirs, 0, n);
+
+    for (int k=0; k < n; k++) {
+      int d = dirs[k] * DIR_STRIDE;
+
+      dirs[k] = d;
+
+      if (this.dir[d + CAPACITY] > INLINE_KEYS) {
+        a[k] = ((long) this.dir[d + A_HI] << 32) | (this.dir[d + A_LO] & 0xFFFFFFFFL);
+        b[k] = ((long) this.dir[d + B_HI] << 32) | (this.dir[d + B_LO] & 0xFFFFFFFFL);
+        m[k] = this.dir[d + SIZE];
+      } else {
+        // inline bins are hashed into a table of size 1, whose slot is never looked at
+        a[k] = 0;
+        b[k] = 0;
+        m[k] = 1;
+      }
+    }
+
+    this.hasher.hash(this.family, a, b, m, keys, from, found, 0, n);
+
+    for (int k=0; k < n; k++) {
+      int d = dirs[k];
+
+      found[k] = (this.dir[d + CAPACITY] <= INLINE_KEYS) ? this.scan(d, keys[from + k]) : this.dir[d + OFFSET] + found[k];
+    }
+
+    for (int k=0; k < n; k++) {
+      int location = found[k];
+
+      if (location != -1) {
+        Object data = this.values[location];
+
+        if ((this.keys[location] != keys[from + k]) || (data == null) || (data == TOMBSTONE)) {
+          found[k] = -1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Hash the given value into the bin with the given directory entry.
+   *
+   * @param d index of the bin's directory entry
+   * @param x value to be hashed
+   * @return  slot of x relative to the start of the bin's slice
+   */
+  protected int binHash(int d, int x) {
+    long a = ((long) this.dir[d + A_HI] << 32) | (this.dir[d + A_LO] & 0xFFFFFFFFL);
+    long b = ((long) this.dir[d + B_HI] << 32) | (this.dir[d + B_LO] & 0xFFFFFFFFL);
+
+    return this.family.hash(a, b, this.dir[d + SIZE], x);
+  }
+
+  /**
+   * Returns the number of elements that a bin should permit when holding n elements.
+   *
+   * @param n number of elements the bin is sized for
+   * @return  number of elements permitted within the bin
+   */
+  protected int binCapacity(int n) {
+    int m = (int) (this.scale * n);
+
+    // just a slight modification for the case when the scale < 2
+    if (m == 1) {
+      m++;
+    }
+
+    return m;
+  }
+
+  /**
+   * Returns the space of a bin permitting the given number of elements: its capacity for
+   * an inline bin, the square of it for a bin with a hash function.
+   *
+   * @param m number of elements permitted within the bin
+   * @return  number of slots of the bin's slice
+   */
+  protected int binSpace(int m) {
+    return (m <= INLINE_KEYS) ? m : this.family.tableSize(2 * m * (m - 1));
+  }
+
+  /**
+   * Rebuilds the bin with the given directory entry from its live slots plus the given
+   * key.  The bin is moved to a new slice at the end of the slot arrays if it no longer
+   * fits its current one.
+   *
+   * @param d index of the bin's directory entry
+   * @param allocated length of the bin's current slice
+   * @param x key being inserted into the bin
+   * @param data  wrapped data of the key being inserted
+   */
+  protected void rebuild(int d, int allocated, int x, Object data) {
+    int offset = this.dir[d + OFFSET];
+    int n = 0;
+    int[] k = new int[this.dir[d + LOAD]];
+    Object[] v = new Object[k.length];
+
+    for (int i=offset; i < offset + allocated; i++) {
+      if ((this.values[i] != null) && (this.values[i] != TOMBSTONE)) {
+        k[n] = this.keys[i];
+        v[n++] = this.values[i];
+      }
+
+      // clean up references
+      this.values[i] = null;
+    }
+
+    k[n] = x;
+    v[n++] = data;
+
+    if (this.dir[d + SIZE] != allocated) {
+      this.dir[d + OFFSET] = this.allocate(this.dir[d + SIZE]);
+    }
+
+    this.place(d, k, v, 0, n);
+  }
+
+  /**
+   * Stores the given keys into the slice of the bin with the given directory entry,
+   * choosing random hash functions until one is found that is injective on the keys, or
+   * in order and inline if the bin is an inline one.  The slice must be empty.
+   *
+   * @param d index of the bin's directory entry
+   * @param k array holding the keys
+   * @param v array holding the wrapped data of the keys
+   * @param from  index of the first key of the bin in k
+   * @param to  index after the last key of the bin in k
+   */
+  protected void place(int d, int[] k, Object[] v, int from, int to) {
+    int offset = this.dir[d + OFFSET];
+    int s = this.dir[d + SIZE];
+    boolean injective = false;
+
+    if (this.dir[d + CAPACITY] <= INLINE_KEYS) {
+      for (int i=from; i < to; i++) {
+        this.dir[d + INLINE + i - from] = k[i];
+        this.keys[offset + i - from] = k[i];
+        this.values[offset + i - from] = v[i];
+      }
+
+      this.seeds[d / DIR_STRIDE] = 0;
+      injective = true;
+    }
+
+    while (!injective) {
+      injective = true;
+
+      HashFunction binH = UniversalHashFunction.generateHashFunction(this.family, s, this.random.nextLong());
+
+      this.dir[d + A_LO] = (int) binH.getA();
+      this.dir[d + A_HI] = (int) (binH.getA() >>> 32);
+      this.dir[d + B_LO] = (int) binH.getB();
+      this.dir[d + B_HI] = (int) (binH.getB() >>> 32);
+      this.seeds[d / DIR_STRIDE] = binH.getSeed();
+
+      for (int i=from; i < to; i++) {
+        int y = offset + this.binHash(d, k[i]);
+
+        if (this.values[y] != null) {
+          injective = false;
+          Arrays.fill(this.values, offset, offset + s, null);
+          break;
+        }
+
+        this.keys[y] = k[i];
+        this.values[y] = v[i];
+      }
+    }
+
+    this.dir[d + LOAD] = to - from;
+  }
+
+  /**
+   * Hands out a new slice of the given length at the end of the slot arrays, growing the
+   * arrays if necessary.
+   *
+   * @param length  number of slots needed
+   * @return  offset of the new slice
+   */
+  protected int allocate(int length) {
+    if (this.top + length > this.keys.length) {
+      int capacity = Math.max(this.top + length, 2 * this.keys.length);
+
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.values = Arrays.copyOf(this.values, capacity);
+    }
+
+    int offset = this.top;
+
+    this.top += length;
+
+    return offset;
+  }
+
+  /**
+   * Rehashes the entire table as a collision occurred, or the table grew too big.
+   *
+   * @param x value that has been inserted that caused rehashing
+   * @param data  wrapped data of the value that caused rehashing
+   * @param insert  true if x is to be added to the hash; false if deletion caused rehashing
+   */
+  protected void rehash(int x, Object data, boolean insert) {
+    int n = 0;
+    int[] k = new int[this.top + 1];
+    Object[] v = new Object[k.length];
+
+    // gather all current entries in hash
+    for (int j=0; j < this.SM; ++j) {
+      int d = j * DIR_STRIDE;
+      int offset = this.dir[d + OFFSET];
+
+      for (int i=offset; i < offset + this.dir[d + SIZE]; i++) {
+        if ((this.values[i] != null) && (this.values[i] != TOMBSTONE)) {
+          k[n] = this.keys[i];
+          v[n++] = this.values[i];
+        }
+      }
+    }
+
+    // add the value that caused the rehash, if any
+    if (insert) {
+      k[n] = x;
+      v[n++] = data;
+    }
+
+    // get rid of old slot arrays since they are gone now...
+    this.keys = null;
+    this.values = null;
+
+    // set count to be the number of elements in the hash
+    this.count = n;
+
+    // set value of M to be max(count, 4) * (1 + C) and allocate the directory
+    this.M = (1 + this.C) * Math.max(this.count, 4);
+    this.SM = this.family.tableSize(this.M * 2);
+    this.dir = new int[this.SM * DIR_STRIDE];
+    this.seeds = new long[this.SM];
+
+    // rehash all elements using a new hash function until we meet the necessary conditions
+    int[] buckets = new int[n];
+    int[] start = new int[this.SM + 1];
+
+    do {
+      this.h = UniversalHashFunction.generateHashFunction(this.family, this.SM, this.random.nextLong());
+
+      Arrays.fill(start, 0);
+
+      this.hasher.hash(this.h, k, 0, buckets, 0, n);
+
+      for (int i=0; i < n; ++i) {
+        start[buckets[i] + 1]++;
+      }
+
+      this.space = 0;
+
+      for (int j=0; j < this.SM; ++j) {
+        int d = j * DIR_STRIDE;
+        int b = start[j + 1];
+        int m = (b == 0) ? 0 : (b <= INLINE_KEYS) ? INLINE_KEYS : Math.max(this.binCapacity(b), INLINE_KEYS + 1);
+        int s = this.binSpace(m);
+
+        this.dir[d + OFFSET] = (int) this.space;
+        this.dir[d + SIZE] = s;
+        this.dir[d + LOAD] = b;
+        this.dir[d + CAPACITY] = m;
+        this.space += s;
+      }
+    } while (!this.verify());
+
+    // partition the elements into their buckets
+    for (int j=0; j < this.SM; ++j) {
+      start[j + 1] += start[j];
+    }
+
+    int[] partitionedKeys = new int[n];
+    Object[] partitionedValues = new Object[n];
+    int[] next = Arrays.copyOf(start, this.SM);
+
+    for (int i=0; i < n; ++i) {
+      int y = next[buckets[i]]++;
+
+      partitionedKeys[y] = k[i];
+      partitionedValues[y] = v[i];
+    }
+
+    // condition now holds so lay out the bins and insert the elements into them
+    this.top = (int) this.space;
+    this.keys = new int[Math.max(this.top, 1)];
+    this.values = new Object[this.keys.length];
+
+    for (int j=0; j < this.SM; ++j) {
+      if (start[j + 1] > start[j]) {
+        this.place(j * DIR_STRIDE, partitionedKeys, partitionedValues, start[j], start[j + 1]);
+      }
+    }
+  }
+
+  /**
+   * Verify that the following condition holds true:
+   *
+   *  Sum of all s <= 32 * M^2 / SM + 4M
+   *
+   * where the right hand side is multiplied by the space factor of the hash family, as
+   * the family may have rounded up the space of every bin.
+   *
+   * @return  true if the condition holds, false otherwise
+   */
+  protected boolean verify() {
+    return DPHashTable.verify(this.M, this.SM, this.space, this.family.spaceFactor());
+  }
+
+  /**
+   * Returns the data to be stored in a slot for the given data.
+   *
+   * @param data  data given by the caller
+   * @return  data to be stored in a slot
+   */
+  protected static Object wrap(Object data) {
+    return (data != null) ? data : NULL;
+  }
+
+  /**
+   * Returns the data to be handed to the caller for the data stored in a slot.
+   *
+   * @param data  data stored in a slot
+   * @return  data to be handed to the caller
+   */
+  @SuppressWarnings("unchecked")
+  protected static <V> V unwrap(Object data) {
+    return ((data == NULL) || (data == TOMBSTONE)) ? null : (V) data;
+  }
+
+  /**
+   * LookupBlock holds the arrays findAll works in, with room for every value of a block,
+   * so that lookupAll and getAll allocate them once rather than for every block.
+   */
+  protected static class LookupBlock {
+    /** Slot found for every value, or -1 */
+    protected final int[] found = new int[LOOKUP_BLOCK];
+
+    /** Index of the directory entry of the bin of every value */
+    protected final int[] dirs = new int[LOOKUP_BLOCK];
+
+    /** Variables a and b and table size of the function of the bin of every value */
+    protected final long[] a = new long[LOOKUP_BLOCK];
+    protected final long[] b = new long[LOOKUP_BLOCK];
+    protected final int[] m = new int[LOOKUP_BLOCK];
+  }
+}
@@ -0,0 +1,1086 @@
+/*
+ * DPHashOffHeapImpl.java
+ */
+package com.mjnrand.dphashing.offheap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashTable;
+import com.mjnrand.dphashing.HashFamily;
+import com.mjnrand.dphashing.HashFunction;
+import com.mjnrand.dphashing.MersenneHashFamily;
+import com.mjnrand.dphashing.MultiplyShiftHashFamily;
+import com.mjnrand.dphashing.PrimeHashFamily;
+import com.mjnrand.dphashing.UniversalHashFunction;
+
+/**
+ * DPHashOffHeapImpl is an implementation of Dynamic Perfect Hashing that keeps the whole
+ * table outside of the Java heap, mapping int keys to primitive int or long values.  It
+ * is laid out like a DPHashFlatImpl: a directory with one 32 byte record per bin, holding
+ * the offset and size of the bin's slice of the slot array, its load and the variables of
+ * its hash function, and one slot array shared by all bins, holding a key, a state and a
+ * value per slot.  The capacity of every bin and the seed of its hash function, which no
+ * lookup needs, are kept apart in a second array of bin records, so that the directory
+ * record read by a lookup always lies within a single cache line.  All of them are
+ * OffHeapArrays, so the heap holds nothing per key or per bin and the garbage collector
+ * never has to trace the table.
+ *
+ * A lookup reads one directory record and one slot, so it takes O(1) time in the worst
+ * case just like the other implementations.  A global rehash gathers and partitions the
+ * elements off the heap as well; only the elements of a single bin being rebuilt are
+ * copied onto the heap.
+ *
+ * The table can be saved to a snapshot file, which holds a header with the top level
+ * parameters followed by the directory, the bin records and the slots exactly as they lie
+ * in memory.  Opening a snapshot maps those sections instead of reading them, so a lookup
+ * is served straight from the page cache and opening takes the same short time whatever
+ * the size of the table.  The mapping is read only; the first update copies the table
+ * into memory of its own, leaving the file untouched.
+ *
+ * The memory of the table is freed, or its snapshot unmapped, by close, after which the
+ * DPHash must not be used.  The class is not thread-safe.
+ */
+public class DPHashOffHeapImpl implements AutoCloseable {
+  /** Offset of the bin's slice within the slot array */
+  protected static final int OFFSET = 0;
+
+  /** Variables a and b of the bin's hash function */
+  protected static final int A = 8;
+  protected static final int B = 16;
+
+  /** Space allocated to the bin, s, which is also the size of its hash function */
+  protected static final int SIZE = 24;
+
+  /** Number of values currently stored within the bin, b */
+  protected static final int LOAD = 28;
+
+  /** Number of bytes used by each bin in the directory */
+  protected static final int DIR_STRIDE = 32;
+
+  /** Seed of the bin's hash function; never read when hashing */
+  protected static final int SEED = 0;
+
+  /** Number of elements permitted within the bin, m */
+  protected static final int CAPACITY = 8;
+
+  /** Index after the bin's last element while the elements are partitioned by a global rehash */
+  protected static final int END = 12;
+
+  /** Number of bytes used by each bin in the bin records */
+  protected static final int BIN_STRIDE = 16;
+
+  /** Key of a slot */
+  protected static final int KEY = 0;
+
+  /** State of a slot: EMPTY, LIVE or DELETED */
+  protected static final int STATE = 4;
+
+  /** Value of a slot */
+  protected static final int VALUE = 8;
+
+  /** States of a slot */
+  protected static final int EMPTY = 0;
+  protected static final int LIVE = 1;
+  protected static final int DELETED = 2;
+
+  /** Key, bin and value of an element gathered by a global rehash */
+  protected static final int ITEM_KEY = 0;
+  protected static final int ITEM_BIN = 4;
+  protected static final int ITEM_VALUE = 8;
+
+  /** Number of bytes used by each element gathered by a global rehash */
+  protected static final int ITEM_STRIDE = 16;
+
+  /** Largest number of bins of the top level, the largest power of two an int can hold */
+  protected static final int MAX_BINS = 1 << 30;
+
+  /** Marks a file as a snapshot: "DPHS" */
+  protected static final int MAGIC = 0x44504853;
+
+  /** Version of the snapshot format */
+  protected static final int VERSION = 1;
+
+  /** Written in native byte order, so that a snapshot of the other byte order is detected */
+  protected static final int BYTE_ORDER = 0x01020304;
+
+  /** Number of bytes of the header, which keeps the sections page aligned */
+  protected static final int HEADER_BYTES = 4096;
+
+  /** Hash families a snapshot can be made of */
+  protected static final int MERSENNE = 0;
+  protected static final int MULTIPLY_SHIFT = 1;
+  protected static final int PRIME = 2;
+
+  /** Configuration this DPHash was created with */
+  protected final DPHashConfig config;
+
+  /** Universal family the hash functions of the DPHash are drawn from */
+  protected final HashFamily family;
+
+  /** Constant factor in which the top level of the DPHash grows */
+  protected final int C;
+
+  /** Amount that the subtables should be scaled by */
+  protected final double scale;
+
+  /** Source of the seeds of all hash functions chosen by this DPHash */
+  protected final SplittableRandom random;
+
+  /** Number of bytes of every value, Integer.BYTES or Long.BYTES */
+  protected final int valueBytes;
+
+  /** Number of elements accomadated within hash */
+  protected int M = 0;
+
+  /** Number of sets that top level hash partitions S into */
+  protected int SM = 0;
+
+  /** Hash function currently being used by the top level of the DPHash */
+  protected HashFunction h = null;
+
+  /** Number of updates performed on this DPHash */
+  protected int count = 0;
+
+  /** Number of elements stored within this DPHash, not counting the ones marked deleted */
+  protected int size = 0;
+
+  /** Directory of the bins, one record of DIR_STRIDE bytes per bin; null once closed */
+  protected OffHeapArray dir = null;
+
+  /** Capacity and seed of the bins, one record of BIN_STRIDE bytes per bin; null once closed */
+  protected OffHeapArray bins = null;
+
+  /** Slots of all bins, one record of VALUE + valueBytes bytes per slot; null once closed */
+  protected OffHeapArray slots = null;
+
+  /** Index of the first slot not yet handed out to a bin */
+  protected long top = 0;
+
+  /** Sum of the space allocated to all bins */
+  protected long space = 0;
+
+  /** True while the table is mapped read only from a snapshot */
+  protected boolean readOnly = false;
+
+  /** Keys and values of the bin being rebuilt */
+  protected int[] binKeys = new int[16];
+  protected long[] binValues = new long[16];
+
+  /**
+   * Constructor.  Creates an instance of DPHash using the given configuration, storing
+   * values of the given width.
+   *
+   * @param config  configuration of this DPHash
+   * @param valueBytes  number of bytes of every value, Integer.BYTES or Long.BYTES
+   * @throws IllegalArgumentException if the width is neither 4 nor 8 bytes, or the
+   *    configuration asks for an option this engine does not support
+   */
+  public DPHashOffHeapImpl(DPHashConfig config, int valueBytes) {
+    this(config, valueBytes, true);
+  }
+
+  /**
+   * Constructor.  Creates an instance of DPHash using the given configuration, leaving the
+   * table to be set up by the caller if asked to.
+   *
+   * @param config  configuration of this DPHash
+   * @param valueBytes  number of bytes of every value, Integer.BYTES or Long.BYTES
+   * @param setup true to set up an empty table
+   * @throws IllegalArgumentException if the width is neither 4 nor 8 bytes, or the
+   *    configuration asks for an option this engine does not support
+   */
+  protected DPHashOffHeapImpl(DPHashConfig config, int valueBytes, boolean setup) {
+    if ((valueBytes != Integer.BYTES) && (valueBytes != Long.BYTES)) {
+      throw new IllegalArgumentException("values must be 4 or 8 bytes wide, not " + valueBytes);
+    }
+
+    config.checkRehashOptions(this.getClass().getSimpleName());
+
+    this.config = config;
+    this.family = config.getHashFamily();
+    this.C = config.getC();
+    this.scale = config.getScale();
+    this.random = new SplittableRandom(config.getSeed());
+    this.valueBytes = valueBytes;
+
+    // setup the hash
+    if (setup) {
+      this.rehash(null, null, 0);
+    }
+  }
+
+  /**
+   * Opens the snapshot saved to the given file, mapping the table instead of reading it.
+   * The DPHash draws the seeds of its future hash functions from a seed stored in the
+   * snapshot, and hashes with the family and constants the saved DPHash was configured with.
+   *
+   * @param path  file the snapshot was saved to
+   * @return  DPHash holding the elements of the snapshot
+   * @throws IOException  if the file cannot be read or mapped, or is not a valid snapshot
+   */
+  public static DPHashOffHeapImpl open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+
+      while (header.hasRemaining() && (channel.read(header, header.position()) > 0)) {
+        // keep reading until the whole header is in
+      }
+
+      if (header.hasRemaining() || (header.getInt(0) != MAGIC)) {
+        throw new IOException(path + " is not a DPHash snapshot");
+      }
+
+      if (header.getInt(4) != VERSION) {
+        throw new IOException(path + " has snapshot version " + header.getInt(4) + ", not " + VERSION);
+      }
+
+      if (header.getInt(8) != BYTE_ORDER) {
+        throw new IOException(path + " was saved with the other byte order");
+      }
+
+      HashFamily family;
+
+      switch (header.getInt(12)) {
+        case MERSENNE:
+          family = MersenneHashFamily.INSTANCE;
+          break;
+        case MULTIPLY_SHIFT:
+          family = MultiplyShiftHashFamily.INSTANCE;
+          break;
+        case PRIME:
+          family = new PrimeHashFamily(header.getInt(16));
+          break;
+        default:
+          throw new IOException(path + " has unknown hash family " + header.getInt(12));
+      }
+
+      DPHashConfig config = DPHashConfig.builder().hashFamily(family).c(header.getInt(24)).scale(header.getDouble(48))
+        .seed(header.getLong(64)).build();
+      DPHashOffHeapImpl hash = new DPHashOffHeapImpl(config, header.getInt(20), false);
+
+      hash.M = header.getInt(28);
+      hash.SM = header.getInt(32);
+      hash.count = header.getInt(36);
+      hash.size = header.getInt(40);
+      hash.h = UniversalHashFunction.generateHashFunction(family, hash.SM, header.getLong(56));
+      hash.top = header.getLong(72);
+      hash.space = header.getLong(80);
+
+      if (channel.size() < header.getLong(104) + hash.top * (VALUE + hash.valueBytes)) {
+        throw new IOException(path + " is truncated");
+      }
+
+      try {
+        hash.dir = OffHeapArray.map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(88), hash.SM, DIR_STRIDE);
+        hash.bins = OffHeapArray.map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(96), hash.SM, BIN_STRIDE);
+        hash.slots = OffHeapArray.map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(104), hash.top,
+          VALUE + hash.valueBytes);
+      } catch (IOException ex) {
+        hash.close();
+        throw ex;
+      }
+
+      hash.readOnly = true;
+
+      return hash;
+    }
+  }
+
+  /**
+   * Saves the table to a snapshot in the given file, replacing the file if it exists.  The
+   * directory, the bin records and the slots in use are written as they lie in memory,
+   * each starting on a page boundary, and the file is forced to the storage device.  The
+   * snapshot is written to a temporary file in the same directory that is then moved over
+   * the given file, so the file always holds a whole snapshot, and a table may be saved to
+   * the very snapshot it is mapped from.
+   *
+   * @param path  file the snapshot is saved to
+   * @throws IOException  if the file cannot be written
+   * @throws UnsupportedOperationException  if the table is hashed with a family of its own
+   */
+  public void save(Path path) throws IOException {
+    this.ensureOpen();
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+    long dirPosition = HEADER_BYTES;
+    long binsPosition = align(dirPosition + this.dir.bytes());
+    long slotsPosition = align(binsPosition + this.bins.bytes());
+
+    header.putInt(0, MAGIC);
+    header.putInt(4, VERSION);
+    header.putInt(8, BYTE_ORDER);
+
+    if (this.family == MersenneHashFamily.INSTANCE) {
+      header.putInt(12, MERSENNE);
+    } else if (this.family == MultiplyShiftHashFamily.INSTANCE) {
+      header.putInt(12, MULTIPLY_SHIFT);
+    } else if (this.family instanceof PrimeHashFamily) {
+      header.putInt(12, PRIME);
+      header.putInt(16, ((PrimeHashFamily) this.family).getPrime());
+    } else {
+      throw new UnsupportedOperationException("cannot save a DPHash hashed with " + this.family);
+    }
+
+    header.putInt(20, this.valueBytes);
+    header.putInt(24, this.C);
+    header.putInt(28, this.M);
+    header.putInt(32, this.SM);
+    header.putInt(36, this.count);
+    header.putInt(40, this.size);
+    header.putDouble(48, this.scale);
+    header.putLong(56, this.h.getSeed());
+    header.putLong(64, this.random.nextLong());
+    header.putLong(72, this.top);
+    header.putLong(80, this.space);
+    header.putLong(88, dirPosition);
+    header.putLong(96, binsPosition);
+    header.putLong(104, slotsPosition);
+
+    // the file may be the snapshot this table is mapped from, so it is replaced, never truncated
+    Path target = path.toAbsolutePath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        while (header.hasRemaining()) {
+          channel.write(header, header.position());
+        }
+
+        this.dir.write(channel, dirPosition, this.SM);
+        this.bins.write(channel, binsPosition, this.SM);
+        this.slots.write(channel, slotsPosition, this.top);
+        channel.force(true);
+      }
+
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      Files.deleteIfExists(temp);
+      throw ex;
+    }
+  }
+
+  /**
+   * Rounds the given file position up to the next page boundary.
+   *
+   * @param position  position within a file
+   * @return  first page boundary at or after the position
+   */
+  protected static long align(long position) {
+    return (position + HEADER_BYTES - 1) & -HEADER_BYTES;
+  }
+
+  /**
+   * @return  true if the table is still mapped read only from a snapshot
+   */
+  public boolean isMapped() {
+    return this.readOnly;
+  }
+
+  /**
+   * Returns the configuration this DPHash was created with.
+   *
+   * @return  configuration of this DPHash
+   */
+  public DPHashConfig getConfig() {
+    return this.config;
+  }
+
+  /**
+   * Returns the seed of the hash function currently used by the top level of the hash.
+   *
+   * @return  seed of the top level hash function
+   */
+  public long getSeed() {
+    return this.h.getSeed();
+  }
+
+  /**
+   * Returns the seeds of the hash functions currently used by the bins of the hash, 0 for
+   * bins that hold no elements.
+   *
+   * @return  seed of the hash function of every bin
+   */
+  public long[] getBinSeeds() {
+    this.ensureOpen();
+
+    long[] seeds = new long[this.SM];
+
+    for (int j=0; j < this.SM; j++) {
+      seeds[j] = this.bins.getLong(j, SEED);
+    }
+
+    return seeds;
+  }
+
+  /**
+   * Returns the number of elements stored within this DPHash.
+   *
+   * @return  number of elements stored
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of bytes held by this DPHash outside of the heap.
+   *
+   * @return  number of bytes of the directory, the bin records and the slots
+   */
+  public long getMemoryUsage() {
+    return (this.dir != null) ? this.dir.bytes() + this.bins.bytes() + this.slots.bytes() : 0;
+  }
+
+  /**
+   * Inserts the value x into the hash with the given value, replacing any value previously
+   * stored with it.
+   *
+   * @param x value to be inserted
+   * @param value value to be stored with x
+   * @throws IllegalArgumentException if the value does not fit into the width of the values
+   */
+  public void insert(int x, long value) {
+    this.put(x, value);
+  }
+
+  /**
+   * Stores the given value with the value x, inserting x if it is not yet stored.
+   *
+   * @param x value to be stored
+   * @param value value to be stored with x
+   * @return  value previously stored with x; 0 if x was not stored
+   * @throws IllegalArgumentException if the value does not fit into the width of the values
+   */
+  public long put(int x, long value) {
+    this.ensureWritable();
+
+    if ((this.valueBytes == Integer.BYTES) && (value != (int) value)) {
+      throw new IllegalArgumentException("value " + value + " does not fit into 4 bytes");
+    }
+
+    this.count++;
+
+    long d = this.h.hash(x);
+    long location = -1;
+
+    if (this.dir.getInt(d, SIZE) > 0) {
+      location = this.dir.getLong(d, OFFSET) + this.binHash(d, x);
+    }
+
+    if ((location != -1) && (this.slots.getInt(location, STATE) != EMPTY) && (this.slots.getInt(location, KEY) == x)) {
+      // the value is already stored (maybe marked deleted) so just update the slot in place
+      long previous = 0;
+
+      if (this.slots.getInt(location, STATE) == LIVE) {
+        previous = this.read(location);
+      } else {
+        this.slots.putInt(location, STATE, LIVE);
+        this.size++;
+      }
+
+      this.write(location, value);
+
+      if (this.count > this.M) {
+        this.rehash(null, null, 0);
+      }
+
+      return previous;
+    }
+
+    this.size++;
+
+    if (this.count > this.M) {
+      this.rehash(new int[] { x }, new long[] { value }, 1);
+    } else {
+      int b = this.dir.getInt(d, LOAD) + 1;
+
+      this.dir.putInt(d, LOAD, b);
+
+      if (b <= this.bins.getInt(d, CAPACITY)) {
+        if (this.slots.getInt(location, STATE) == EMPTY) {
+          this.slots.putInt(location, KEY, x);
+          this.slots.putInt(location, STATE, LIVE);
+          this.write(location, value);
+        } else {
+          this.rebuild(d, this.dir.getInt(d, SIZE), x, value);
+        }
+      } else {
+        int m = this.binCapacity(Math.max(this.bins.getInt(d, CAPACITY), 1));
+        int s = this.family.tableSize(2 * m * (m - 1));
+        int allocated = this.dir.getInt(d, SIZE);
+
+        this.bins.putInt(d, CAPACITY, m);
+        this.dir.putInt(d, SIZE, s);
+        this.space += s - allocated;
+
+        if (this.verify()) {
+          this.rebuild(d, allocated, x, value);
+        } else {
+          this.dir.putInt(d, SIZE, allocated);
+          this.rehash(new int[] { x }, new long[] { value }, 1);
+        }
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * Deletes the value x from the hash, if it is stored.
+   *
+   * @param x value to be deleted
+   */
+  public void delete(int x) {
+    this.ensureWritable();
+    this.count++;
+
+    long location = this.find(x);
+
+    if (location != -1) {
+      this.slots.putInt(location, STATE, DELETED);
+      this.size--;
+    }
+
+    if (this.count >= this.M) {
+      this.rehash(null, null, 0);
+    }
+  }
+
+  /**
+   * Stores all the given values with the given keys, inserting the keys not yet stored.
+   * The keys already stored, maybe marked deleted, are updated in place.  If the new keys
+   * would take the number of updates past M, the table is rehashed once with all of them
+   * instead of being grown bin by bin, and otherwise they are put one at a time.  The last
+   * value given for a key wins.
+   *
+   * @param keys  keys to be stored
+   * @param values  value to be stored with every key, in the order of the keys
+   * @throws IllegalArgumentException if the arrays differ in length, or a value does not fit
+   *    into the width of the values
+   */
+  public void putAll(int[] keys, long[] values) {
+    if (values.length != keys.length) {
+      throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+    }
+
+    this.ensureWritable();
+
+    for (int i=0; (this.valueBytes == Integer.BYTES) && (i < values.length); i++) {
+      if (values[i] != (int) values[i]) {
+        throw new IllegalArgumentException("value " + values[i] + " does not fit into 4 bytes");
+      }
+    }
+
+    // update the keys already stored, and sort the new ones so that repeats lie together
+    long[] order = new long[keys.length];
+    int n = 0;
+
+    for (int i=0; i < keys.length; i++) {
+      long location = this.locate(keys[i]);
+
+      if (location != -1) {
+        if (this.slots.getInt(location, STATE) != LIVE) {
+          this.slots.putInt(location, STATE, LIVE);
+          this.size++;
+        }
+
+        this.write(location, values[i]);
+        this.count++;
+      } else {
+        order[n++] = ((long) keys[i] << 32) | i;
+      }
+    }
+
+    Arrays.sort(order, 0, n);
+
+    int[] freshKeys = new int[n];
+    long[] freshValues = new long[n];
+    int fresh = 0;
+
+    for (int k=0; k < n; k++) {
+      if ((k + 1 == n) || ((order[k] >>> 32) != (order[k + 1] >>> 32))) {
+        freshKeys[fresh] = (int) (order[k] >>> 32);
+        freshValues[fresh++] = values[(int) order[k]];
+      }
+    }
+
+    if (this.count + fresh > this.M) {
+      this.size += fresh;
+      this.rehash(freshKeys, freshValues, fresh);
+    } else {
+      for (int k=0; k < fresh; k++) {
+        this.put(freshKeys[k], freshValues[k]);
+      }
+    }
+  }
+
+  /**
+   * Deletes all the given keys that are stored, checking whether the table has to be
+   * rehashed once for the whole batch.
+   *
+   * @param keys  keys to be deleted
+   */
+  public void deleteAll(int[] keys) {
+    this.ensureWritable();
+    this.count += keys.length;
+
+    for (int i=0; i < keys.length; i++) {
+      long location = this.find(keys[i]);
+
+      if (location != -1) {
+        this.slots.putInt(location, STATE, DELETED);
+        this.size--;
+      }
+    }
+
+    if (this.count >= this.M) {
+      this.rehash(null, null, 0);
+    }
+  }
+
+  /**
+   * Returns true if the value x is stored within the hash.
+   *
+   * @param x value to be searched for
+   * @return  true if x is stored, false otherwise
+   */
+  public boolean lookup(int x) {
+    this.ensureOpen();
+
+    return (this.find(x) != -1);
+  }
+
+  /**
+   * Returns the value stored with the value x.
+   *
+   * @param x value to be searched for
+   * @return  value stored with x; 0 if x is not stored
+   */
+  public long get(int x) {
+    return this.getOrDefault(x, 0);
+  }
+
+  /**
+   * Returns the value stored with the value x, or the given default if x is not stored.
+   *
+   * @param x value to be searched for
+   * @param defaultValue  value returned if x is not stored
+   * @return  value stored with x; defaultValue if x is not stored
+   */
+  public long getOrDefault(int x, long defaultValue) {
+    this.ensureOpen();
+
+    long location = this.find(x);
+
+    return (location != -1) ? this.read(location) : defaultValue;
+  }
+
+  /**
+   * Frees the memory of the table, or unmaps its snapshot.  The DPHash must not be used
+   * afterwards; closing it again does nothing.
+   */
+  public void close() {
+    OffHeapArray[] arrays = { this.dir, this.bins, this.slots };
+
+    this.dir = null;
+    this.bins = null;
+    this.slots = null;
+
+    for (int i=0; i < arrays.length; i++) {
+      if (arrays[i] != null) {
+        arrays[i].close();
+      }
+    }
+  }
+
+  /**
+   * Throws an IllegalStateException if the memory of the table has been freed.
+   */
+  protected void ensureOpen() {
+    if (this.dir == null) {
+      throw new IllegalStateException("DPHash has been closed");
+    }
+  }
+
+  /**
+   * Throws an IllegalStateException if the memory of the table has been freed, and copies
+   * the table into memory of its own if it is mapped read only from a snapshot.
+   */
+  protected void ensureWritable() {
+    this.ensureOpen();
+
+    if (this.readOnly) {
+      OffHeapArray dir = this.dir.copy(this.SM);
+      OffHeapArray bins = this.bins.copy(this.SM);
+      OffHeapArray slots = this.slots.copy(Math.max(this.top, 1));
+
+      this.dir.close();
+      this.bins.close();
+      this.slots.close();
+      this.dir = dir;
+      this.bins = bins;
+      this.slots = slots;
+      this.readOnly = false;
+    }
+  }
+
+  /**
+   * Returns the slot holding the value x, or -1 if x is not stored in the hash.
+   *
+   * @param x value to be searched for in the hash
+   * @return  index of the slot holding x; -1 if x is not stored in the hash
+   */
+  protected long find(int x) {
+    long d = this.h.hash(x);
+
+    if (this.dir.getInt(d, LOAD) > 0) {
+      long location = this.dir.getLong(d, OFFSET) + this.binHash(d, x);
+
+      if ((this.slots.getInt(location, KEY) == x) && (this.slots.getInt(location, STATE) == LIVE)) {
+        return location;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the slot holding the value x, even if it is marked deleted, or -1 if x is not
+   * found in the hash.
+   *
+   * @param x value to be searched for in the hash
+   * @return  index of the slot holding x; -1 if there is none
+   */
+  protected long locate(int x) {
+    long d = this.h.hash(x);
+
+    if (this.dir.getInt(d, SIZE) > 0) {
+      long location = this.dir.getLong(d, OFFSET) + this.binHash(d, x);
+
+      if ((this.slots.getInt(location, STATE) != EMPTY) && (this.slots.getInt(location, KEY) == x)) {
+        return location;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Hash the given value into the bin with the given directory record.
+   *
+   * @param d index of the bin's directory record
+   * @param x value to be hashed
+   * @return  slot of x relative to the start of the bin's slice
+   */
+  protected int binHash(long d, int x) {
+    return this.family.hash(this.dir.getLong(d, A), this.dir.getLong(d, B), this.dir.getInt(d, SIZE), x);
+  }
+
+  /**
+   * Reads the value of the given slot.
+   *
+   * @param location  index of the slot
+   * @return  value of the slot
+   */
+  protected long read(long location) {
+    return (this.valueBytes == Long.BYTES) ? this.slots.getLong(location, VALUE) : this.slots.getInt(location, VALUE);
+  }
+
+  /**
+   * Writes the value of the given slot.
+   *
+   * @param location  index of the slot
+   * @param value new value of the slot
+   */
+  protected void write(long location, long value) {
+    if (this.valueBytes == Long.BYTES) {
+      this.slots.putLong(location, VALUE, value);
+    } else {
+      this.slots.putInt(location, VALUE, (int) value);
+    }
+  }
+
+  /**
+   * Returns the number of elements that a bin should permit when holding n elements.
+   *
+   * @param n number of elements the bin is sized for
+   * @return  number of elements permitted within the bin
+   */
+  protected int binCapacity(int n) {
+    int m = (int) (this.scale * n);
+
+    // just a slight modification for the case when the scale < 2
+    if (m == 1) {
+      m++;
+    }
+
+    return m;
+  }
+
+  /**
+   * Makes sure that the keys and values of the bin being rebuilt can hold n elements.
+   *
+   * @param n number of elements of the bin
+   */
+  protected void ensureBinCapacity(int n) {
+    if (n > this.binKeys.length) {
+      int capacity = Math.max(n, 2 * this.binKeys.length);
+
+      this.binKeys = new int[capacity];
+      this.binValues = new long[capacity];
+    }
+  }
+
+  /**
+   * Rebuilds the bin with the given directory record from its live slots plus the given
+   * key.  The bin is moved to a new slice at the end of the slot array if it no longer
+   * fits its current one.
+   *
+   * @param d index of the bin's directory record
+   * @param allocated length of the bin's current slice
+   * @param x key being inserted into the bin
+   * @param value value of the key being inserted
+   */
+  protected void rebuild(long d, int allocated, int x, long value) {
+    long offset = this.dir.getLong(d, OFFSET);
+    int n = 0;
+
+    this.ensureBinCapacity(this.dir.getInt(d, LOAD));
+
+    for (long i=offset; i < offset + allocated; i++) {
+      if (this.slots.getInt(i, STATE) == LIVE) {
+        this.binKeys[n] = this.slots.getInt(i, KEY);
+        this.binValues[n++] = this.read(i);
+      }
+    }
+
+    // clean up the slice, which may be left behind
+    this.slots.clear(offset, offset + allocated);
+
+    this.binKeys[n] = x;
+    this.binValues[n++] = value;
+
+    if (this.dir.getInt(d, SIZE) != allocated) {
+      this.dir.putLong(d, OFFSET, this.allocate(this.dir.getInt(d, SIZE)));
+    }
+
+    this.place(d, n);
+  }
+
+  /**
+   * Stores the first n keys and values of the bin being rebuilt into the slice of the bin
+   * with the given directory record, choosing random hash functions until one is found
+   * that is injective on the keys.  The slice must be empty.
+   *
+   * @param d index of the bin's directory record
+   * @param n number of elements of the bin
+   */
+  protected void place(long d, int n) {
+    long offset = this.dir.getLong(d, OFFSET);
+    int s = this.dir.getInt(d, SIZE);
+    boolean injective = false;
+
+    while (!injective) {
+      injective = true;
+
+      HashFunction binH = UniversalHashFunction.generateHashFunction(this.family, s, this.random.nextLong());
+
+      this.dir.putLong(d, A, binH.getA());
+      this.dir.putLong(d, B, binH.getB());
+      this.bins.putLong(d, SEED, binH.getSeed());
+
+      for (int i=0; i < n; i++) {
+        long y = offset + this.binHash(d, this.binKeys[i]);
+
+        if (this.slots.getInt(y, STATE) != EMPTY) {
+          injective = false;
+          this.slots.clear(offset, offset + s);
+          break;
+        }
+
+        this.slots.putInt(y, KEY, this.binKeys[i]);
+        this.slots.putInt(y, STATE, LIVE);
+        this.write(y, this.binValues[i]);
+      }
+    }
+
+    this.dir.putInt(d, LOAD, n);
+  }
+
+  /**
+   * Hands out a new slice of the given length at the end of the slot array, growing the
+   * array if necessary.
+   *
+   * @param length  number of slots needed
+   * @return  offset of the new slice
+   */
+  protected long allocate(int length) {
+    if (this.top + length > this.slots.length()) {
+      OffHeapArray grown = this.slots.copy(Math.max(this.top + length, 2 * this.slots.length()));
+
+      this.slots.close();
+      this.slots = grown;
+    }
+
+    long offset = this.top;
+
+    this.top += length;
+
+    return offset;
+  }
+
+  /**
+   * Rehashes the entire table as a collision occurred, or the table grew too big.  The
+   * elements are gathered into, and partitioned within, OffHeapArrays that are freed as
+   * soon as they are no longer needed.
+   *
+   * @param keys  keys being inserted that caused rehashing, none of them stored yet; null if
+   *    deletion caused rehashing
+   * @param values  values of the keys being inserted
+   * @param fresh number of keys being inserted
+   * @throws IllegalStateException if the top level would need more than MAX_BINS bins
+   */
+  protected void rehash(int[] keys, long[] values, int fresh) {
+    // 2M must fit into MAX_BINS, as the sizes are ints and tableSize may round up to a power of two
+    if (2 * (1L + this.C) * Math.max(this.size, 4) > MAX_BINS) {
+      this.size -= fresh;
+
+      throw new IllegalStateException("cannot hold " + (this.size + fresh) + " elements, as the top level would need more than " +
+        MAX_BINS + " bins");
+    }
+
+    int n = 0;
+    OffHeapArray items = new OffHeapArray(this.size, ITEM_STRIDE);
+
+    // gather all current entries in hash
+    for (int j=0; j < this.SM; ++j) {
+      long offset = this.dir.getLong(j, OFFSET);
+
+      for (long i=offset; i < offset + this.dir.getInt(j, SIZE); i++) {
+        if (this.slots.getInt(i, STATE) == LIVE) {
+          items.putInt(n, ITEM_KEY, this.slots.getInt(i, KEY));
+          items.putLong(n++, ITEM_VALUE, this.read(i));
+        }
+      }
+    }
+
+    // add the values that caused the rehash, if any
+    for (int k=0; k < fresh; k++) {
+      items.putInt(n, ITEM_KEY, keys[k]);
+      items.putLong(n++, ITEM_VALUE, values[k]);
+    }
+
+    // free the old directory and slots since they are gone now...
+    if (this.dir != null) {
+      this.dir.close();
+      this.bins.close();
+      this.slots.close();
+    }
+
+    // set count to be the number of elements in the hash
+    this.count = n;
+
+    // set value of M to be max(count, 4) * (1 + C) and allocate the directory
+    this.M = (1 + this.C) * Math.max(this.count, 4);
+    this.SM = this.family.tableSize(this.M * 2);
+    this.dir = new OffHeapArray(this.SM, DIR_STRIDE);
+    this.bins = new OffHeapArray(this.SM, BIN_STRIDE);
+
+    // rehash all elements using a new hash function until we meet the necessary conditions
+    do {
+      this.h = UniversalHashFunction.generateHashFunction(this.family, this.SM, this.random.nextLong());
+
+      for (int j=0; j < this.SM; ++j) {
+        this.dir.putInt(j, LOAD, 0);
+      }
+
+      for (int i=0; i < n; ++i) {
+        int j = this.h.hash(items.getInt(i, ITEM_KEY));
+
+        items.putInt(i, ITEM_BIN, j);
+        this.dir.putInt(j, LOAD, this.dir.getInt(j, LOAD) + 1);
+      }
+
+      this.space = 0;
+
+      for (int j=0; j < this.SM; ++j) {
+        int b = this.dir.getInt(j, LOAD);
+        int m = (b > 0) ? this.binCapacity(b) : 0;
+        int s = this.family.tableSize(2 * m * (m - 1));
+
+        this.dir.putLong(j, OFFSET, this.space);
+        this.dir.putInt(j, SIZE, s);
+        this.bins.putInt(j, CAPACITY, m);
+        this.space += s;
+      }
+    } while (!this.verify());
+
+    // partition the elements into their buckets, leaving END at the end of every bucket
+    int start = 0;
+
+    for (int j=0; j < this.SM; ++j) {
+      this.bins.putInt(j, END, start);
+      start += this.dir.getInt(j, LOAD);
+    }
+
+    OffHeapArray partitioned = new OffHeapArray(n, ITEM_STRIDE);
+
+    for (int i=0; i < n; ++i) {
+      int j = items.getInt(i, ITEM_BIN);
+      int y = this.bins.getInt(j, END);
+
+      partitioned.putInt(y, ITEM_KEY, items.getInt(i, ITEM_KEY));
+      partitioned.putLong(y, ITEM_VALUE, items.getLong(i, ITEM_VALUE));
+      this.bins.putInt(j, END, y + 1);
+    }
+
+    items.close();
+
+    // condition now holds so lay out the bins and insert the elements into them
+    this.top = this.space;
+    this.slots = new OffHeapArray(Math.max(this.top, 1), VALUE + this.valueBytes);
+
+    for (int j=0; j < this.SM; ++j) {
+      int b = this.dir.getInt(j, LOAD);
+
+      if (b > 0) {
+        int from = this.bins.getInt(j, END) - b;
+
+        this.ensureBinCapacity(b);
+
+        for (int i=0; i < b; i++) {
+          this.binKeys[i] = partitioned.getInt(from + i, ITEM_KEY);
+          this.binValues[i] = partitioned.getLong(from + i, ITEM_VALUE);
+        }
+
+        this.place(j, b);
+      }
+    }
+
+    partitioned.close();
+  }
+
+  /**
+   * Verify that the following condition holds true:
+   *
+   *  Sum of all s <= 32 * M^2 / SM + 4M
+   *
+   * where the right hand side is multiplied by the space factor of the hash family, as
+   * the family may have rounded up the space of every bin.
+   *
+   * @return  true if the condition holds, false otherwise
+   */
+  protected boolean verify() {
+    return DPHashTable.verify(this.M, this.SM, this.space, this.family.spaceFactor());
+  }
+}
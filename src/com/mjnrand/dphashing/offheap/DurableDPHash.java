@@ -0,0 +1,394 @@
+/*
+ * DurableDPHash.java
+ */
+package com.mjnrand.dphashing.offheap;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.mjnrand.dphashing.DPHashConfig;
+
+/**
+ * DurableDPHash is a DPHashOffHeapImpl whose updates survive a crash.  It lives in a
+ * directory holding the last snapshot of the table and an OperationLog of every put and
+ * delete made since.  Updates are applied to the table and then recorded in the log,
+ * whose groups are written and forced as the log was configured; lookups never touch the
+ * log.  A checkpoint saves a new snapshot and empties the log.
+ *
+ * Opening the directory maps the snapshot and replays the log over it.  The operations of
+ * the log are read in blocks of REPLAY_BLOCK, and every block is reduced to the last
+ * operation on each key and applied with one deleteAll and one putAll, so that the table
+ * is rehashed at most twice for a whole block instead of being grown by one put at
+ * a time.  The result is the same, as a put or delete leaves the key in the same state
+ * however often it is repeated.  For the same reason a log left over by a crash during a
+ * checkpoint may safely be replayed over the snapshot the checkpoint had just saved.
+ *
+ * The class is not thread-safe.
+ */
+public class DurableDPHash implements AutoCloseable {
+  /** Name of the snapshot within the directory */
+  protected static final String SNAPSHOT = "snapshot";
+
+  /** Name of the log within the directory */
+  protected static final String LOG = "log";
+
+  /** Number of operations of the log replayed at once */
+  protected static final int REPLAY_BLOCK = 1 << 20;
+
+  /** Directory holding the snapshot and the log */
+  protected final Path directory;
+
+  /** Table holding the elements */
+  protected final DPHashOffHeapImpl hash;
+
+  /** Log of the updates made since the snapshot was saved; null once closed */
+  protected OperationLog log;
+
+  /**
+   * Constructor.  Called by open.
+   *
+   * @param directory directory holding the snapshot and the log
+   * @param hash  table holding the elements
+   */
+  protected DurableDPHash(Path directory, DPHashOffHeapImpl hash) {
+    this.directory = directory;
+    this.hash = hash;
+  }
+
+  /**
+   * Opens the table kept in the given directory, creating the directory if it does not
+   * exist.  The snapshot in the directory is mapped, or an empty table created with the
+   * given configuration and width of the values if there is none, and the log is replayed
+   * over it.
+   *
+   * @param directory directory holding the snapshot and the log
+   * @param config  configuration of a new table; ignored if there is a snapshot
+   * @param valueBytes  number of bytes of every value of a new table, Integer.BYTES or
+   *    Long.BYTES; ignored if there is a snapshot
+   * @param groupSize number of operations per group written to the log, at least 1
+   * @param syncGroups  number of groups written between forcing the log to the storage
+   *    device; 0 to force it only on flush, checkpoint and close
+   * @return  table holding the elements of the snapshot and the log
+   * @throws IOException  if the snapshot or the log cannot be read, or the log written
+   * @throws IllegalArgumentException if the width, groupSize or syncGroups is invalid
+   */
+  public static DurableDPHash open(Path directory, DPHashConfig config, int valueBytes, int groupSize, int syncGroups)
+      throws IOException {
+    Files.createDirectories(directory);
+
+    Path snapshot = directory.resolve(SNAPSHOT);
+    DPHashOffHeapImpl hash = Files.exists(snapshot) ? DPHashOffHeapImpl.open(snapshot)
+      : new DPHashOffHeapImpl(config, valueBytes);
+    DurableDPHash durable = new DurableDPHash(directory, hash);
+
+    try {
+      Replay replay = new Replay(hash);
+
+      durable.log = OperationLog.open(directory.resolve(LOG), groupSize, syncGroups, replay);
+      replay.apply();
+    } catch (IOException | RuntimeException ex) {
+      durable.close();
+      throw ex;
+    }
+
+    return durable;
+  }
+
+  /**
+   * Replay collects the operations of the log into blocks and applies every block to the
+   * table at once.
+   */
+  protected static class Replay implements OperationLog.Visitor {
+    /** Table the operations are applied to */
+    protected final DPHashOffHeapImpl hash;
+
+    /** Keys, values and kinds of the operations of the block, grown up to REPLAY_BLOCK */
+    protected int[] keys = new int[1024];
+    protected long[] values = new long[1024];
+    protected boolean[] deletes = new boolean[1024];
+
+    /** Number of operations in the block */
+    protected int n = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param hash  table the operations are applied to
+     */
+    protected Replay(DPHashOffHeapImpl hash) {
+      this.hash = hash;
+    }
+
+    /**
+     * @see com.mjnrand.dphashing.offheap.OperationLog.Visitor#put(int, long)
+     */
+    public void put(int x, long value) {
+      this.add(x, value, false);
+    }
+
+    /**
+     * @see com.mjnrand.dphashing.offheap.OperationLog.Visitor#delete(int)
+     */
+    public void delete(int x) {
+      this.add(x, 0, true);
+    }
+
+    /**
+     * Adds an operation to the block, applying the block once it is full.
+     *
+     * @param x key of the operation
+     * @param value value of a put
+     * @param delete  true for a delete, false for a put
+     */
+    protected void add(int x, long value, boolean delete) {
+      if (this.n == this.keys.length) {
+        this.keys = Arrays.copyOf(this.keys, 2 * this.n);
+        this.values = Arrays.copyOf(this.values, 2 * this.n);
+        this.deletes = Arrays.copyOf(this.deletes, 2 * this.n);
+      }
+
+      this.keys[this.n] = x;
+      this.values[this.n] = value;
+      this.deletes[this.n++] = delete;
+
+      if (this.n == REPLAY_BLOCK) {
+        this.apply();
+      }
+    }
+
+    /**
+     * Applies the last operation on every key of the block: the keys are sorted along with
+     * the order of their operations, so that the last one on a key ends its run.
+     */
+    protected void apply() {
+      long[] order = new long[this.n];
+
+      for (int i=0; i < this.n; i++) {
+        order[i] = ((long) this.keys[i] << 32) | i;
+      }
+
+      Arrays.sort(order);
+
+      int[] putKeys = new int[this.n];
+      long[] putValues = new long[this.n];
+      int[] deleteKeys = new int[this.n];
+      int puts = 0, deleted = 0;
+
+      for (int k=0; k < this.n; k++) {
+        if ((k + 1 < this.n) && ((order[k] >>> 32) == (order[k + 1] >>> 32))) {
+          continue;
+        }
+
+        int i = (int) order[k];
+
+        if (this.deletes[i]) {
+          deleteKeys[deleted++] = this.keys[i];
+        } else {
+          putKeys[puts] = this.keys[i];
+          putValues[puts++] = this.values[i];
+        }
+      }
+
+      if (deleted > 0) {
+        this.hash.deleteAll(Arrays.copyOf(deleteKeys, deleted));
+      }
+
+      if (puts > 0) {
+        this.hash.putAll(Arrays.copyOf(putKeys, puts), Arrays.copyOf(putValues, puts));
+      }
+
+      this.n = 0;
+    }
+  }
+
+  /**
+   * Inserts the value x into the hash with the given value, replacing any value previously
+   * stored with it.
+   *
+   * @param x value to be inserted
+   * @param value value to be stored with x
+   * @throws IOException  if the log cannot be written
+   * @throws IllegalArgumentException if the value does not fit into the width of the values
+   */
+  public void insert(int x, long value) throws IOException {
+    this.put(x, value);
+  }
+
+  /**
+   * Stores the given value with the value x, inserting x if it is not yet stored.
+   *
+   * @param x value to be stored
+   * @param value value to be stored with x
+   * @return  value previously stored with x; 0 if x was not stored
+   * @throws IOException  if the log cannot be written
+   * @throws IllegalArgumentException if the value does not fit into the width of the values
+   */
+  public long put(int x, long value) throws IOException {
+    this.ensureOpen();
+
+    long previous = this.hash.put(x, value);
+
+    this.log.put(x, value);
+
+    return previous;
+  }
+
+  /**
+   * Stores all the given values with the given keys, inserting the keys not yet stored.
+   *
+   * @param keys  keys to be stored
+   * @param values  value to be stored with every key, in the order of the keys
+   * @throws IOException  if the log cannot be written
+   * @throws IllegalArgumentException if the arrays differ in length, or a value does not fit
+   *    into the width of the values
+   */
+  public void putAll(int[] keys, long[] values) throws IOException {
+    this.ensureOpen();
+    this.hash.putAll(keys, values);
+
+    for (int i=0; i < keys.length; i++) {
+      this.log.put(keys[i], values[i]);
+    }
+  }
+
+  /**
+   * Deletes the value x from the hash, if it is stored.
+   *
+   * @param x value to be deleted
+   * @throws IOException  if the log cannot be written
+   */
+  public void delete(int x) throws IOException {
+    this.ensureOpen();
+    this.hash.delete(x);
+    this.log.delete(x);
+  }
+
+  /**
+   * Deletes all the given keys that are stored.
+   *
+   * @param keys  keys to be deleted
+   * @throws IOException  if the log cannot be written
+   */
+  public void deleteAll(int[] keys) throws IOException {
+    this.ensureOpen();
+    this.hash.deleteAll(keys);
+
+    for (int i=0; i < keys.length; i++) {
+      this.log.delete(keys[i]);
+    }
+  }
+
+  /**
+   * Returns true if the value x is stored within the hash.
+   *
+   * @param x value to be searched for
+   * @return  true if x is stored, false otherwise
+   */
+  public boolean lookup(int x) {
+    return this.hash.lookup(x);
+  }
+
+  /**
+   * Returns the value stored with the value x.
+   *
+   * @param x value to be searched for
+   * @return  value stored with x; 0 if x is not stored
+   */
+  public long get(int x) {
+    return this.hash.get(x);
+  }
+
+  /**
+   * Returns the value stored with the value x, or the given default if x is not stored.
+   *
+   * @param x value to be searched for
+   * @param defaultValue  value returned if x is not stored
+   * @return  value stored with x; defaultValue if x is not stored
+   */
+  public long getOrDefault(int x, long defaultValue) {
+    return this.hash.getOrDefault(x, defaultValue);
+  }
+
+  /**
+   * Returns the number of elements stored within this DPHash.
+   *
+   * @return  number of elements stored
+   */
+  public int size() {
+    return this.hash.size();
+  }
+
+  /**
+   * Returns the number of bytes of the log written since the last checkpoint.
+   *
+   * @return  length of the log
+   */
+  public long getLogLength() {
+    return this.log.length();
+  }
+
+  /**
+   * Makes every update so far durable, writing out and forcing the log.
+   *
+   * @throws IOException  if the log cannot be written
+   */
+  public void flush() throws IOException {
+    this.ensureOpen();
+    this.log.flush();
+  }
+
+  /**
+   * Saves a new snapshot of the table and empties the log.  The table saves itself to a
+   * temporary file that then replaces the old snapshot, and the directory is forced,
+   * before the log is emptied, so that a crash at any point leaves either the old snapshot
+   * and the whole log or the new snapshot.
+   *
+   * @throws IOException  if the snapshot cannot be saved or the log emptied
+   */
+  public void checkpoint() throws IOException {
+    this.ensureOpen();
+
+    this.hash.save(this.directory.resolve(SNAPSHOT));
+
+    try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException ex) {
+      // not every platform can force a directory; the rename is left to the file system
+    }
+
+    this.log.reset();
+  }
+
+  /**
+   * Flushes the log and closes it, and frees the memory of the table.  The DPHash must not
+   * be used afterwards; closing it again does nothing.
+   *
+   * @throws IOException  if the log cannot be written
+   */
+  public void close() throws IOException {
+    OperationLog log = this.log;
+
+    this.log = null;
+
+    try {
+      if (log != null) {
+        log.close();
+      }
+    } finally {
+      this.hash.close();
+    }
+  }
+
+  /**
+   * Throws an IllegalStateException if the DPHash has been closed.
+   */
+  protected void ensureOpen() {
+    if (this.log == null) {
+      throw new IllegalStateException("DPHash has been closed");
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * OffHeapArray.java
+ */
+package com.mjnrand.dphashing.offheap;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * OffHeapArray is an array of fixed-size records stored outside of the Java heap, in
+ * direct ByteBuffers.  A single ByteBuffer holds at most 2GB, so the records are spread
+ * over chunks of a power of two records each, none larger than 1GB, and are addressed by
+ * a long index.  Every field of a record is read and written at a byte offset within its
+ * record, in the native byte order.  The memory of a new array is zeroed.
+ *
+ * An array can also be mapped from a file that an array was written to, in which case its
+ * chunks are MappedByteBuffers and its records are read straight from the page cache.
+ *
+ * The memory is freed, or the file unmapped, right away by close, without waiting for the
+ * garbage collector to find the buffers unreachable.  On JVMs that do not allow buffers
+ * to be freed explicitly it is left to the collector.
+ */
+public class OffHeapArray implements AutoCloseable {
+  /** Largest number of bytes held by a single chunk */
+  protected static final int MAX_CHUNK_BYTES = 1 << 30;
+
+  /** Unsafe.invokeCleaner, which frees a direct buffer; null if not available */
+  private static final Method INVOKE_CLEANER;
+
+  /** The instance of sun.misc.Unsafe that invokeCleaner is called on */
+  private static final Object UNSAFE;
+
+  static {
+    Method invokeCleaner = null;
+    Object unsafe = null;
+
+    try {
+      Class<?> c = Class.forName("sun.misc.Unsafe");
+      Field f = c.getDeclaredField("theUnsafe");
+
+      f.setAccessible(true);
+      unsafe = f.get(null);
+      invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      // the buffers will be freed by the garbage collector instead
+      invokeCleaner = null;
+      unsafe = null;
+    }
+
+    INVOKE_CLEANER = invokeCleaner;
+    UNSAFE = unsafe;
+  }
+
+  /** Number of records */
+  protected final long length;
+
+  /** Number of bytes of every record */
+  protected final int stride;
+
+  /** Base 2 logarithm of the number of records per chunk */
+  protected final int shift;
+
+  /** Number of records per chunk minus one */
+  protected final long mask;
+
+  /** Chunks holding the records; null once closed */
+  protected ByteBuffer[] chunks;
+
+  /**
+   * Constructor.  Allocates an array of the given number of zeroed records.
+   *
+   * @param length  number of records
+   * @param stride  number of bytes of every record, a positive multiple of 4
+   * @throws IllegalArgumentException if the length is negative or the stride is invalid
+   */
+  public OffHeapArray(long length, int stride) {
+    this(length, stride, true);
+  }
+
+  /**
+   * Constructor.  Creates an array of the given number of records, allocating its chunks
+   * or leaving them to be mapped by the caller.
+   *
+   * @param length  number of records
+   * @param stride  number of bytes of every record, a positive multiple of 4
+   * @param allocate  true to allocate the chunks
+   * @throws IllegalArgumentException if the length is negative or the stride is invalid
+   */
+  private OffHeapArray(long length, int stride, boolean allocate) {
+    if ((length < 0) || (stride <= 0) || (stride > MAX_CHUNK_BYTES) || (stride % Integer.BYTES != 0)) {
+      throw new IllegalArgumentException("cannot allocate " + length + " records of " + stride + " bytes");
+    }
+
+    this.length = length;
+    this.stride = stride;
+    this.shift = 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / stride);
+    this.mask = (1L << this.shift) - 1;
+    this.chunks = new ByteBuffer[(int) ((length + this.mask) >>> this.shift)];
+
+    for (int c=0; allocate && (c < this.chunks.length); c++) {
+      this.chunks[c] = ByteBuffer.allocateDirect(this.chunkBytes(c)).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /**
+   * Maps an array of the given number of records from the given file, which the records
+   * were written to by write.  Nothing is read until the records are accessed.
+   *
+   * @param channel file the array is mapped from
+   * @param mode  mode the array is mapped in
+   * @param position  position of the first record within the file
+   * @param length  number of records
+   * @param stride  number of bytes of every record, a positive multiple of 4
+   * @return  mapped array
+   * @throws IOException  if the file cannot be mapped
+   * @throws IllegalArgumentException if the length is negative or the stride is invalid
+   */
+  public static OffHeapArray map(FileChannel channel, FileChannel.MapMode mode, long position, long length, int stride)
+      throws IOException {
+    OffHeapArray array = new OffHeapArray(length, stride, false);
+
+    try {
+      for (int c=0; c < array.chunks.length; c++) {
+        long first = (long) c << array.shift;
+
+        array.chunks[c] = channel.map(mode, position + first * stride, array.chunkBytes(c)).order(ByteOrder.nativeOrder());
+      }
+    } catch (IOException ex) {
+      array.close();
+      throw ex;
+    }
+
+    return array;
+  }
+
+  /**
+   * Returns the number of bytes of the given chunk.
+   *
+   * @param c index of the chunk
+   * @return  number of bytes of the chunk
+   */
+  protected int chunkBytes(int c) {
+    return (int) (Math.min(this.length - ((long) c << this.shift), 1L << this.shift) * this.stride);
+  }
+
+  /**
+   * @return  number of records of this array
+   */
+  public long length() {
+    return this.length;
+  }
+
+  /**
+   * @return  number of bytes held by this array outside of the heap
+   */
+  public long bytes() {
+    return this.length * this.stride;
+  }
+
+  /**
+   * Reads an int field of a record.
+   *
+   * @param i index of the record
+   * @param field byte offset of the field within the record
+   * @return  value of the field
+   */
+  public int getInt(long i, int field) {
+    return this.chunks[(int) (i >>> this.shift)].getInt((int) (i & this.mask) * this.stride + field);
+  }
+
+  /**
+   * Writes an int field of a record.
+   *
+   * @param i index of the record
+   * @param field byte offset of the field within the record
+   * @param value new value of the field
+   */
+  public void putInt(long i, int field, int value) {
+    this.chunks[(int) (i >>> this.shift)].putInt((int) (i & this.mask) * this.stride + field, value);
+  }
+
+  /**
+   * Reads a long field of a record.
+   *
+   * @param i index of the record
+   * @param field byte offset of the field within the record
+   * @return  value of the field
+   */
+  public long getLong(long i, int field) {
+    return this.chunks[(int) (i >>> this.shift)].getLong((int) (i & this.mask) * this.stride + field);
+  }
+
+  /**
+   * Writes a long field of a record.
+   *
+   * @param i index of the record
+   * @param field byte offset of the field within the record
+   * @param value new value of the field
+   */
+  public void putLong(long i, int field, long value) {
+    this.chunks[(int) (i >>> this.shift)].putLong((int) (i & this.mask) * this.stride + field, value);
+  }
+
+  /**
+   * Zeroes the records from index from up to index to.
+   *
+   * @param from  index of the first record to be zeroed
+   * @param to  index after the last record to be zeroed
+   */
+  public void clear(long from, long to) {
+    for (long i=from; i < to; i++) {
+      ByteBuffer chunk = this.chunks[(int) (i >>> this.shift)];
+      int start = (int) (i & this.mask) * this.stride;
+
+      for (int b=0; b < this.stride; b += Integer.BYTES) {
+        chunk.putInt(start + b, 0);
+      }
+    }
+  }
+
+  /**
+   * Copies the given number of records of this array into the given array, a run of
+   * records lying within one chunk of both arrays at a time.
+   *
+   * @param from  index of the first record to be copied
+   * @param dest  array receiving the records, of the same stride
+   * @param to  index receiving the first record
+   * @param n number of records to be copied
+   */
+  public void copyTo(long from, OffHeapArray dest, long to, long n) {
+    while (n > 0) {
+      long src = from & this.mask;
+      long dst = to & dest.mask;
+      long run = Math.min(n, Math.min((1L << this.shift) - src, (1L << dest.shift) - dst));
+      ByteBuffer in = this.chunks[(int) (from >>> this.shift)].duplicate();
+      ByteBuffer out = dest.chunks[(int) (to >>> dest.shift)].duplicate();
+
+      in.limit((int) ((src + run) * this.stride)).position((int) (src * this.stride));
+      out.position((int) (dst * this.stride));
+      out.put(in);
+
+      from += run;
+      to += run;
+      n -= run;
+    }
+  }
+
+  /**
+   * Returns a new array of the given number of records, allocated outside of the heap,
+   * holding as many of the first records of this array as fit.
+   *
+   * @param length  number of records of the new array
+   * @return  new array
+   */
+  public OffHeapArray copy(long length) {
+    OffHeapArray copy = new OffHeapArray(length, this.stride);
+
+    this.copyTo(0, copy, 0, Math.min(length, this.length));
+
+    return copy;
+  }
+
+  /**
+   * Writes the first n records of this array to the given file, starting at the given
+   * position, so that they can be mapped again by map.
+   *
+   * @param channel file the records are written to
+   * @param position  position the first record is written to
+   * @param n number of records to be written
+   * @throws IOException  if the records cannot be written
+   */
+  public void write(FileChannel channel, long position, long n) throws IOException {
+    for (int c=0; n > 0; c++) {
+      long run = Math.min(n, 1L << this.shift);
+      ByteBuffer in = this.chunks[c].duplicate();
+
+      in.limit((int) (run * this.stride)).position(0);
+
+      while (in.hasRemaining()) {
+        position += channel.write(in, position);
+      }
+
+      n -= run;
+    }
+  }
+
+  /**
+   * @return  true if the memory of this array has been freed
+   */
+  public boolean isClosed() {
+    return (this.chunks == null);
+  }
+
+  /**
+   * Frees the memory of this array.  The array must not be used afterwards; closing it
+   * again does nothing.
+   */
+  public void close() {
+    ByteBuffer[] chunks = this.chunks;
+
+    this.chunks = null;
+
+    if ((chunks == null) || (INVOKE_CLEANER == null)) {
+      return;
+    }
+
+    for (int c=0; (c < chunks.length) && (chunks[c] != null); c++) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, chunks[c]);
+      } catch (ReflectiveOperationException ex) {
+        // leave the chunk to the garbage collector
+      }
+    }
+  }
+}
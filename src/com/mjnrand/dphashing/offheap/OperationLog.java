@@ -0,0 +1,353 @@
+/*
+ * OperationLog.java
+ */
+package com.mjnrand.dphashing.offheap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * OperationLog is an append-only file recording every put and delete of a table, so that
+ * the updates made since the table was last saved can be replayed after a crash.  Every
+ * operation is a record of 16 bytes: the operation, the key and the value.
+ *
+ * The records are appended to a buffer and written out in groups: a group is written, with
+ * a single write call, once it holds groupSize records or when the log is flushed.  Every
+ * group starts with the number of its records and a CRC32 of them, so that a group torn
+ * by a crash is detected when the log is replayed; the log ends at the last whole group.
+ * The file is forced to the storage device after every syncGroups groups written, and
+ * whenever the log is flushed or closed.  A groupSize of 1 writes every operation right
+ * away, and a syncGroups of 0 leaves forcing the file to flush and close alone.
+ *
+ * An operation is only durable once its group has been written and forced; the ones still
+ * in the buffer are lost by a crash.  The class is not thread-safe.
+ */
+public class OperationLog implements AutoCloseable {
+  /** Operations recorded by the log */
+  protected static final int PUT = 1;
+  protected static final int DELETE = 2;
+
+  /** Number of bytes of every record: the operation, the key and the value */
+  protected static final int RECORD_BYTES = 16;
+
+  /** Number of bytes of the header of a group: the number of records and their CRC32 */
+  protected static final int GROUP_HEADER = 8;
+
+  /** Largest number of records that a group may hold */
+  protected static final int MAX_GROUP_SIZE = 1 << 20;
+
+  /**
+   * Visitor receives the operations of a log when it is replayed, in the order they were
+   * recorded.
+   */
+  public interface Visitor {
+    /**
+     * Receives a put of the given key and value.
+     *
+     * @param x key that was put
+     * @param value value that was stored with x
+     */
+    public void put(int x, long value);
+
+    /**
+     * Receives a delete of the given key.
+     *
+     * @param x key that was deleted
+     */
+    public void delete(int x);
+  }
+
+  /** File the log is written to; null once closed */
+  protected FileChannel channel;
+
+  /** Group being filled, starting with room for its header */
+  protected final ByteBuffer buffer;
+
+  /** Number of records per group */
+  protected final int groupSize;
+
+  /** Number of groups written between forcing the file; 0 to force only on flush and close */
+  protected final int syncGroups;
+
+  /** Position of the end of the log within the file */
+  protected long position;
+
+  /** Number of records in the buffer */
+  protected int pending = 0;
+
+  /** Number of groups written since the file was last forced */
+  protected int unsynced = 0;
+
+  /** Checksum of the records of a group */
+  protected final CRC32 crc = new CRC32();
+
+  /**
+   * Constructor.  Appends to the given file from the given position.
+   *
+   * @param channel file the log is written to
+   * @param position  position of the end of the log within the file
+   * @param groupSize number of records per group
+   * @param syncGroups  number of groups written between forcing the file; 0 to force only on
+   *    flush and close
+   */
+  protected OperationLog(FileChannel channel, long position, int groupSize, int syncGroups) {
+    this.channel = channel;
+    this.position = position;
+    this.groupSize = groupSize;
+    this.syncGroups = syncGroups;
+    this.buffer = ByteBuffer.allocateDirect(GROUP_HEADER + groupSize * RECORD_BYTES).order(ByteOrder.nativeOrder());
+    this.buffer.position(GROUP_HEADER);
+  }
+
+  /**
+   * Opens the log in the given file, creating the file if it does not exist, and replays
+   * its operations to the given visitor.  Anything after the last whole group, left by a
+   * crash in the middle of a write, is cut off, and new operations are appended after it.
+   *
+   * @param path  file of the log
+   * @param groupSize number of records per group, at least 1
+   * @param syncGroups  number of groups written between forcing the file; 0 to force only on
+   *    flush and close
+   * @param visitor receives the operations of the log; null to skip them
+   * @return  log appending to the file
+   * @throws IOException  if the file cannot be read or written
+   * @throws IllegalArgumentException if groupSize or syncGroups is out of range
+   */
+  public static OperationLog open(Path path, int groupSize, int syncGroups, Visitor visitor) throws IOException {
+    if ((groupSize < 1) || (groupSize > MAX_GROUP_SIZE) || (syncGroups < 0)) {
+      throw new IllegalArgumentException("invalid group size " + groupSize + " or sync interval " + syncGroups);
+    }
+
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+      StandardOpenOption.WRITE);
+
+    try {
+      long end = replay(channel, visitor);
+
+      if (end < channel.size()) {
+        channel.truncate(end);
+        channel.force(false);
+      }
+
+      return new OperationLog(channel, end, groupSize, syncGroups);
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Reads the groups of the log from the start of the file, passing their operations to
+   * the given visitor, until the end of the file or the first group that is incomplete or
+   * fails its checksum.
+   *
+   * @param channel file of the log
+   * @param visitor receives the operations of the log; null to skip them
+   * @return  position after the last whole group
+   * @throws IOException  if the file cannot be read
+   */
+  protected static long replay(FileChannel channel, Visitor visitor) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(GROUP_HEADER).order(ByteOrder.nativeOrder());
+    ByteBuffer records = ByteBuffer.allocate(0);
+    CRC32 crc = new CRC32();
+    long size = channel.size();
+    long position = 0;
+
+    while (position + GROUP_HEADER <= size) {
+      header.clear();
+      read(channel, header, position);
+
+      int n = header.getInt(0);
+
+      if ((n < 1) || (n > MAX_GROUP_SIZE) || (position + GROUP_HEADER + (long) n * RECORD_BYTES > size)) {
+        break;
+      }
+
+      if (records.capacity() < n * RECORD_BYTES) {
+        records = ByteBuffer.allocate(n * RECORD_BYTES).order(ByteOrder.nativeOrder());
+      }
+
+      records.clear().limit(n * RECORD_BYTES);
+      read(channel, records, position + GROUP_HEADER);
+      records.flip();
+      crc.reset();
+      crc.update(records.duplicate());
+
+      if ((int) crc.getValue() != header.getInt(4)) {
+        break;
+      }
+
+      for (int i=0; (visitor != null) && (i < n); i++) {
+        int r = i * RECORD_BYTES;
+
+        if (records.getInt(r) == PUT) {
+          visitor.put(records.getInt(r + 4), records.getLong(r + 8));
+        } else {
+          visitor.delete(records.getInt(r + 4));
+        }
+      }
+
+      position += GROUP_HEADER + n * RECORD_BYTES;
+    }
+
+    return position;
+  }
+
+  /**
+   * Reads the file from the given position until the buffer is full or the file ends.
+   *
+   * @param channel file being read
+   * @param buffer  buffer receiving the bytes
+   * @param position  position of the first byte
+   * @throws IOException  if the file cannot be read
+   */
+  protected static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    int start = buffer.position();
+
+    while (buffer.hasRemaining() && (channel.read(buffer, position + buffer.position() - start) > 0)) {
+      // keep reading until the buffer is full
+    }
+  }
+
+  /**
+   * Records a put of the given key and value.
+   *
+   * @param x key being put
+   * @param value value being stored with x
+   * @throws IOException  if a full group cannot be written
+   */
+  public void put(int x, long value) throws IOException {
+    this.append(PUT, x, value);
+  }
+
+  /**
+   * Records a delete of the given key.
+   *
+   * @param x key being deleted
+   * @throws IOException  if a full group cannot be written
+   */
+  public void delete(int x) throws IOException {
+    this.append(DELETE, x, 0);
+  }
+
+  /**
+   * Appends a record to the buffer, writing the group out once it is full.
+   *
+   * @param op  operation being recorded
+   * @param x key of the operation
+   * @param value value of the operation
+   * @throws IOException  if a full group cannot be written
+   */
+  protected void append(int op, int x, long value) throws IOException {
+    this.ensureOpen();
+
+    this.buffer.putInt(op).putInt(x).putLong(value);
+
+    if (++this.pending == this.groupSize) {
+      this.commit();
+    }
+  }
+
+  /**
+   * Writes the records in the buffer out as one group, and forces the file if syncGroups
+   * groups have been written since it was last forced.
+   *
+   * @throws IOException  if the group cannot be written
+   */
+  protected void commit() throws IOException {
+    if (this.pending == 0) {
+      return;
+    }
+
+    this.buffer.flip();
+    this.crc.reset();
+    this.crc.update(this.buffer.duplicate().position(GROUP_HEADER));
+    this.buffer.putInt(0, this.pending);
+    this.buffer.putInt(4, (int) this.crc.getValue());
+
+    while (this.buffer.hasRemaining()) {
+      this.position += this.channel.write(this.buffer, this.position);
+    }
+
+    this.buffer.clear().position(GROUP_HEADER);
+    this.pending = 0;
+
+    if ((this.syncGroups > 0) && (++this.unsynced >= this.syncGroups)) {
+      this.channel.force(false);
+      this.unsynced = 0;
+    } else if (this.syncGroups == 0) {
+      this.unsynced++;
+    }
+  }
+
+  /**
+   * Writes out the records in the buffer and forces the file to the storage device, so
+   * that every operation recorded so far is durable.
+   *
+   * @throws IOException  if the log cannot be written
+   */
+  public void flush() throws IOException {
+    this.ensureOpen();
+    this.commit();
+
+    if (this.unsynced > 0) {
+      this.channel.force(false);
+      this.unsynced = 0;
+    }
+  }
+
+  /**
+   * Empties the log, dropping the records in the buffer as well, once the table has been
+   * saved with all the operations recorded.
+   *
+   * @throws IOException  if the file cannot be truncated
+   */
+  public void reset() throws IOException {
+    this.ensureOpen();
+    this.buffer.clear().position(GROUP_HEADER);
+    this.pending = 0;
+    this.channel.truncate(0);
+    this.channel.force(false);
+    this.position = 0;
+    this.unsynced = 0;
+  }
+
+  /**
+   * @return  number of bytes of the log written to the file
+   */
+  public long length() {
+    return this.position;
+  }
+
+  /**
+   * Flushes the log and closes its file.  Closing it again does nothing.
+   *
+   * @throws IOException  if the log cannot be written
+   */
+  public void close() throws IOException {
+    if (this.channel == null) {
+      return;
+    }
+
+    try {
+      this.flush();
+    } finally {
+      this.channel.close();
+      this.channel = null;
+    }
+  }
+
+  /**
+   * Throws an IllegalStateException if the log has been closed.
+   */
+  protected void ensureOpen() {
+    if (this.channel == null) {
+      throw new IllegalStateException("log has been closed");
+    }
+  }
+}
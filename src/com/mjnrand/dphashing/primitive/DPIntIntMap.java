@@ -0,0 +1,124 @@
+/*
+ * DPIntIntMap.java
+ */
+package com.mjnrand.dphashing.primitive;
+
+import java.util.Arrays;
+
+import com.mjnrand.dphashing.DPHashConfig;
+
+/**
+ * DPIntIntMap is a map from int keys to int values built on Dynamic Perfect Hashing.  The
+ * values are kept in an int array parallel to the keys of the DPIntHashImpl, so an entry
+ * takes no objects of its own, and get, put and remove allocate nothing unless the table
+ * has to be rehashed.  A key that is not stored maps to 0.
+ *
+ * The class is not thread-safe.
+ */
+public class DPIntIntMap extends DPIntHashImpl {
+  /** Values of all slots of all bins */
+  protected int[] values = new int[0];
+
+  /**
+   * Constructor.  Creates an empty map with the default configuration.
+   */
+  public DPIntIntMap() {
+    this(DPHashConfig.builder().build());
+  }
+
+  /**
+   * Constructor.  Creates an empty map using the given configuration.
+   *
+   * @param config  configuration of this map
+   */
+  public DPIntIntMap(DPHashConfig config) {
+    super(config);
+
+    // setup the hash
+    this.rehash(false, 0);
+  }
+
+  /**
+   * Stores the given value with the key x, inserting x if it is not yet stored.
+   *
+   * @param x key to be stored
+   * @param value value to be stored with x
+   * @return  value previously stored with x; 0 if x was not stored
+   */
+  public int put(int x, int value) {
+    int location = this.insert(x);
+
+    if (location < 0) {
+      this.values[~location] = value;
+
+      return 0;
+    }
+
+    int previous = this.values[location];
+
+    this.values[location] = value;
+
+    return previous;
+  }
+
+  /**
+   * Returns the value stored with the key x.
+   *
+   * @param x key to be searched for
+   * @return  value stored with x; 0 if x is not stored
+   */
+  public int get(int x) {
+    int location = this.find(x);
+
+    return (location != -1) ? this.values[location] : 0;
+  }
+
+  /**
+   * Returns the value stored with the key x, or the given default if x is not stored.
+   *
+   * @param x key to be searched for
+   * @param defaultValue  value returned if x is not stored
+   * @return  value stored with x; defaultValue if x is not stored
+   */
+  public int getOrDefault(int x, int defaultValue) {
+    int location = this.find(x);
+
+    return (location != -1) ? this.values[location] : defaultValue;
+  }
+
+  /**
+   * Returns true if the key x is stored.
+   *
+   * @param x key to be searched for
+   * @return  true if x is stored, false otherwise
+   */
+  public boolean containsKey(int x) {
+    return (this.find(x) != -1);
+  }
+
+  /**
+   * Deletes the key x, if it is stored.
+   *
+   * @param x key to be deleted
+   * @return  value that was stored with x; 0 if x was not stored
+   */
+  public int remove(int x) {
+    int location = this.delete(x);
+
+    return (location != -1) ? this.values[location] : 0;
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.primitive.DPIntHashImpl#moveValue(int, int)
+   */
+  protected void moveValue(int from, int to) {
+    this.values[to] = this.values[from];
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.primitive.DPIntHashImpl#resizeValues(int)
+   */
+  protected void resizeValues(int length) {
+    this.values = Arrays.copyOf(this.values, length);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * DPIntSet.java
+ */
+package com.mjnrand.dphashing.primitive;
+
+import com.mjnrand.dphashing.DPHashConfig;
+
+/**
+ * DPIntSet is a set of int values built on Dynamic Perfect Hashing.  Being stored in the
+ * int array of keys of a DPIntHashImpl, the values take no objects of their own, and
+ * contains, add and remove allocate nothing unless the table has to be rehashed.
+ *
+ * The class is not thread-safe.
+ */
+public class DPIntSet extends DPIntHashImpl {
+  /**
+   * Constructor.  Creates an empty set with the default configuration.
+   */
+  public DPIntSet() {
+    this(DPHashConfig.builder().build());
+  }
+
+  /**
+   * Constructor.  Creates an empty set using the given configuration.
+   *
+   * @param config  configuration of this set
+   */
+  public DPIntSet(DPHashConfig config) {
+    super(config);
+
+    // setup the hash
+    this.rehash(false, 0);
+  }
+
+  /**
+   * Adds the value x to the set.
+   *
+   * @param x value to be added
+   * @return  true if x was added; false if it was already in the set
+   */
+  public boolean add(int x) {
+    return (this.insert(x) < 0);
+  }
+
+  /**
+   * Removes the value x from the set.
+   *
+   * @param x value to be removed
+   * @return  true if x was removed; false if it was not in the set
+   */
+  public boolean remove(int x) {
+    return (this.delete(x) != -1);
+  }
+
+  /**
+   * Returns true if the value x is in the set.
+   *
+   * @param x value to be searched for
+   * @return  true if x is in the set, false otherwise
+   */
+  public boolean contains(int x) {
+    return (this.find(x) != -1);
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.primitive.DPIntHashImpl#moveValue(int, int)
+   */
+  protected void moveValue(int from, int to) {
+    // a set has no values
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.primitive.DPIntHashImpl#resizeValues(int)
+   */
+  protected void resizeValues(int length) {
+    // a set has no values
+  }
+}
@@ -0,0 +1,630 @@
+/*
+ * DPLongHashImpl.java
+ */
+package com.mjnrand.dphashing.primitive;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashTable;
+import com.mjnrand.dphashing.MultiplyShiftHashFamily;
+import com.mjnrand.dphashing.UniversalHashFunction;
+
+/**
+ * DPLongHashImpl is the engine of the variants of the DPHash specialized for long keys,
+ * such as DPLongLongMap.  It is the same as DPIntHashImpl but for the width of the keys,
+ * which are kept in one long array.  The universal families of a DPHashConfig hash int
+ * values only, so the keys are hashed with the multiply-shift scheme of Dietzfelbinger et
+ * al over all 64 bits instead, (ax + b) >>> (64 - log m) for a random odd a, whatever the
+ * family of the configuration.  Like MultiplyShiftHashFamily it needs tables whose size
+ * is a power of two, and its collision probability is at most 2/m.
+ *
+ * It has the two levels of a DPHashFlatImpl, a directory of 32 bytes per bin and the
+ * slots of all bins in one array of keys, but stores no objects at all.  The subclasses
+ * keep the values of the slots in a primitive array parallel to the keys, which this
+ * class moves along with the keys through moveValue and resizeValues.
+ *
+ * As there is no data to mark a slot empty, an empty slot of a bin holds a key that the
+ * top level hash function sends to another bin, so that it can never be the key looked for
+ * in that slot.  A lookup reads one directory entry and one key, a put of a new key writes
+ * the key into its free slot unless the bin has to be rebuilt, and a delete writes the
+ * empty key back, none of them allocating.  A bin that is rebuilt is gathered into the
+ * free space behind the last slice and placed back from there.  A global rehash lays the
+ * new table out behind the last slice as well and then moves it to the front of the
+ * arrays.
+ *
+ * The class is not thread-safe.
+ */
+public abstract class DPLongHashImpl {
+  /** Number of ints used by each bin in the directory */
+  protected static final int DIR_STRIDE = 8;
+
+  /** Offset of the bin's slice within the slot arrays */
+  protected static final int OFFSET = 0;
+
+  /** Space allocated to the bin, s, which is also the size of its hash function */
+  protected static final int SIZE = 1;
+
+  /** Number of keys currently stored within the bin */
+  protected static final int LOAD = 2;
+
+  /** Number of elements permitted within the bin, m */
+  protected static final int CAPACITY = 3;
+
+  /** Low and high halves of variable a of the bin's hash function */
+  protected static final int A_LO = 4;
+  protected static final int A_HI = 5;
+
+  /** Low and high halves of variable b of the bin's hash function */
+  protected static final int B_LO = 6;
+  protected static final int B_HI = 7;
+
+  /** Configuration this DPHash was created with */
+  protected final DPHashConfig config;
+
+  /** Family whose table sizes and space factor the multiply-shift scheme shares */
+  protected final MultiplyShiftHashFamily family = MultiplyShiftHashFamily.INSTANCE;
+
+  /** Constant factor in which the top level of the DPHash grows */
+  protected final int C;
+
+  /** Amount that the subtables should be scaled by */
+  protected final double scale;
+
+  /** Source of the seeds of all hash functions chosen by this DPHash */
+  protected final SplittableRandom random;
+
+  /** Number of elements accomadated within hash */
+  protected int M = 0;
+
+  /** Number of sets that top level hash partitions S into */
+  protected int SM = 0;
+
+  /** Variables of the hash function currently used by the top level of the DPHash */
+  protected long a = 0;
+  protected long b = 0;
+
+  /** Shift of the top level hash function, which hashes into a table of size SM */
+  protected int shift = 0;
+
+  /** Number of inserts and deletes performed since the last global rehash */
+  protected int count = 0;
+
+  /** Number of keys stored */
+  protected int size = 0;
+
+  /** Directory of the bins, DIR_STRIDE ints per bin */
+  protected int[] dir = new int[0];
+
+  /** Keys of all slots of all bins */
+  protected long[] keys = new long[0];
+
+  /** Index of the first slot not yet handed out to a bin */
+  protected int top = 0;
+
+  /** Sum of the space allocated to all bins */
+  protected long space = 0;
+
+  /** Key held by the empty slots of every bin but emptyBin */
+  protected long empty = 0;
+
+  /** Directory entry of the bin that the top level hash function sends empty to */
+  protected int emptyBin = 0;
+
+  /** Key held by the empty slots of emptyBin */
+  protected long emptyAlt = 0;
+
+  /**
+   * Constructor.  The subclass sets up the table, by calling rehash, once its values have
+   * been initialized.
+   *
+   * @param config  configuration of this DPHash
+   * @throws IllegalArgumentException if the configuration asks for an option this engine
+   *    does not support
+   */
+  protected DPLongHashImpl(DPHashConfig config) {
+    config.checkRehashOptions(this.getClass().getSimpleName());
+
+    this.config = config;
+    this.C = config.getC();
+    this.scale = config.getScale();
+    this.random = new SplittableRandom(config.getSeed());
+  }
+
+  /**
+   * Returns the configuration this DPHash was created with.
+   *
+   * @return  configuration of this DPHash
+   */
+  public DPHashConfig getConfig() {
+    return this.config;
+  }
+
+  /**
+   * Returns the number of keys stored within this DPHash.
+   *
+   * @return  number of keys stored
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of slots allocated to the bins per key stored.
+   *
+   * @return  slots per key
+   */
+  public double getSlotsPerKey() {
+    return (double) this.space / Math.max(this.size, 1);
+  }
+
+  /**
+   * Moves the value of one slot to another slot.
+   *
+   * @param from  slot the value is read from
+   * @param to  slot the value is written to
+   */
+  protected abstract void moveValue(int from, int to);
+
+  /**
+   * Resizes the array of values to the given length, keeping the values of the slots that
+   * remain.
+   *
+   * @param length  new number of slots
+   */
+  protected abstract void resizeValues(int length);
+
+  /**
+   * Returns the slot holding the key x, or -1 if x is not stored.
+   *
+   * @param x key to be searched for
+   * @return  index of the slot holding x; -1 if x is not stored
+   */
+  protected final int find(long x) {
+    int d = this.hash(x) * DIR_STRIDE;
+
+    if (this.dir[d + LOAD] == 0) {
+      return -1;
+    }
+
+    int location = this.dir[d + OFFSET] + this.binHash(d, x);
+
+    return (this.keys[location] == x) ? location : -1;
+  }
+
+  /**
+   * Stores the key x if it is not stored yet.  The slot of a key that was stored already
+   * is returned as it is, holding the key's value; the slot of a new key is returned
+   * complemented, for the caller to store the key's value into.
+   *
+   * @param x key to be stored
+   * @return  slot of x if it was stored; ~slot of x if it is new
+   */
+  protected final int insert(long x) {
+    int d = this.hash(x) * DIR_STRIDE;
+    int location = -1;
+
+    if (this.dir[d + SIZE] > 0) {
+      location = this.dir[d + OFFSET] + this.binHash(d, x);
+
+      if (this.keys[location] == x) {
+        return location;
+      }
+    }
+
+    this.count++;
+    this.size++;
+
+    if (this.count > this.M) {
+      return ~this.rehash(true, x);
+    }
+
+    this.dir[d + LOAD]++;
+
+    if (this.dir[d + LOAD] <= this.dir[d + CAPACITY]) {
+      if (this.keys[location] == this.emptyKey(d)) {
+        this.keys[location] = x;
+
+        return ~location;
+      }
+
+      return ~this.rebuild(d, this.dir[d + SIZE], x);
+    }
+
+    int m = this.binCapacity(Math.max(this.dir[d + CAPACITY], 1));
+    int s = this.family.tableSize(2 * m * (m - 1));
+    int allocated = this.dir[d + SIZE];
+
+    this.dir[d + CAPACITY] = m;
+    this.dir[d + SIZE] = s;
+    this.space += s - allocated;
+
+    if (!this.verify()) {
+      this.dir[d + SIZE] = allocated;
+
+      return ~this.rehash(true, x);
+    }
+
+    return ~this.rebuild(d, allocated, x);
+  }
+
+  /**
+   * Deletes the key x if it is stored.  The value of the key is left in the returned slot
+   * until the next update, so that the caller may still read it; for the same reason a
+   * global rehash that the deletes call for is left to the next update.
+   *
+   * @param x key to be deleted
+   * @return  slot that held x; -1 if x was not stored
+   */
+  protected final int delete(long x) {
+    if (this.count >= this.M) {
+      this.rehash(false, 0);
+    }
+
+    int d = this.hash(x) * DIR_STRIDE;
+
+    if (this.dir[d + LOAD] == 0) {
+      return -1;
+    }
+
+    int location = this.dir[d + OFFSET] + this.binHash(d, x);
+
+    if (this.keys[location] != x) {
+      return -1;
+    }
+
+    this.keys[location] = this.emptyKey(d);
+    this.dir[d + LOAD]--;
+    this.size--;
+    this.count++;
+
+    return location;
+  }
+
+  /**
+   * Returns the key held by the empty slots of the bin with the given directory entry.
+   *
+   * @param d index of the bin's directory entry
+   * @return  key that the top level hash function sends to another bin
+   */
+  protected final long emptyKey(int d) {
+    return (d == this.emptyBin) ? this.emptyAlt : this.empty;
+  }
+
+  /**
+   * Hash the given key into the top level of the hash.
+   *
+   * @param x key to be hashed
+   * @return  bin of x
+   */
+  protected final int hash(long x) {
+    return DPLongHashImpl.hash(this.a, this.b, this.shift, x);
+  }
+
+  /**
+   * Hash the given key into the bin with the given directory entry.
+   *
+   * @param d index of the bin's directory entry
+   * @param x key to be hashed
+   * @return  slot of x relative to the start of the bin's slice
+   */
+  protected final int binHash(int d, long x) {
+    long a = ((long) this.dir[d + A_HI] << 32) | (this.dir[d + A_LO] & 0xFFFFFFFFL);
+    long b = ((long) this.dir[d + B_HI] << 32) | (this.dir[d + B_LO] & 0xFFFFFFFFL);
+
+    return DPLongHashImpl.hash(a, b, Long.numberOfLeadingZeros(this.dir[d + SIZE]), x);
+  }
+
+  /**
+   * Hash the given key with the multiply-shift function of the given variables.
+   *
+   * @param a odd multiplier of the function
+   * @param b addend of the function
+   * @param shift number of leading zeros of the size of the table, a power of two
+   * @param x key to be hashed
+   * @return  slot of x
+   */
+  protected static int hash(long a, long b, int shift, long x) {
+    // shifting by 1 and then by 63 - l keeps the result 0 for a table of size 1
+    return (int) (((a * x + b) >>> 1) >>> shift);
+  }
+
+  /**
+   * Returns the number of elements that a bin should permit when holding n elements.
+   *
+   * @param n number of elements the bin is sized for
+   * @return  number of elements permitted within the bin
+   */
+  protected int binCapacity(int n) {
+    int m = (int) (this.scale * n);
+
+    // just a slight modification for the case when the scale < 2
+    if (m == 1) {
+      m++;
+    }
+
+    return m;
+  }
+
+  /**
+   * Rebuilds the bin with the given directory entry from its keys plus the key x, which
+   * is counted in the bin's load already.  The bin is moved to a new slice at the end of
+   * the slot arrays if it no longer fits its current one.
+   *
+   * @param d index of the bin's directory entry
+   * @param allocated length of the bin's current slice
+   * @param x key being inserted into the bin
+   * @return  slot of x
+   */
+  protected int rebuild(int d, int allocated, long x) {
+    int offset = this.dir[d + OFFSET];
+    long empty = this.emptyKey(d);
+
+    if (this.dir[d + SIZE] != allocated) {
+      this.dir[d + OFFSET] = this.allocate(this.dir[d + SIZE]);
+    }
+
+    // gather the keys of the bin, and x after them, behind the last slice
+    int staging = this.top;
+    int n = staging;
+
+    this.reserve(staging + this.dir[d + LOAD]);
+
+    for (int i=offset; i < offset + allocated; i++) {
+      if (this.keys[i] != empty) {
+        this.keys[n] = this.keys[i];
+        this.moveValue(i, n++);
+      }
+    }
+
+    this.keys[n++] = x;
+
+    return this.place(d, staging, n, n - 1);
+  }
+
+  /**
+   * Stores the keys gathered in the given range of slots into the slice of the bin with
+   * the given directory entry, choosing random hash functions until one is found that is
+   * injective on the keys, and moves their values after them.
+   *
+   * @param d index of the bin's directory entry
+   * @param from  first slot holding a key of the bin
+   * @param to  slot after the last key of the bin
+   * @param tracked slot whose key's new slot is returned
+   * @return  new slot of the key in the tracked slot; -1 if it is not in the range
+   */
+  protected int place(int d, int from, int to, int tracked) {
+    int offset = this.dir[d + OFFSET];
+    int s = this.dir[d + SIZE];
+    long empty = this.emptyKey(d);
+    boolean injective = false;
+
+    while (!injective) {
+      injective = true;
+      Arrays.fill(this.keys, offset, offset + s, empty);
+
+      long seed = this.random.nextLong();
+      long a = UniversalHashFunction.mix(seed) | 1;
+      long b = UniversalHashFunction.mix(seed + UniversalHashFunction.GOLDEN_GAMMA);
+
+      this.dir[d + A_LO] = (int) a;
+      this.dir[d + A_HI] = (int) (a >>> 32);
+      this.dir[d + B_LO] = (int) b;
+      this.dir[d + B_HI] = (int) (b >>> 32);
+
+      for (int i=from; i < to; i++) {
+        int y = offset + this.binHash(d, this.keys[i]);
+
+        if (this.keys[y] != empty) {
+          injective = false;
+          break;
+        }
+
+        this.keys[y] = this.keys[i];
+      }
+    }
+
+    int slot = -1;
+
+    for (int i=from; i < to; i++) {
+      int y = offset + this.binHash(d, this.keys[i]);
+
+      this.moveValue(i, y);
+
+      if (i == tracked) {
+        slot = y;
+      }
+    }
+
+    this.dir[d + LOAD] = to - from;
+
+    return slot;
+  }
+
+  /**
+   * Hands out a new slice of the given length at the end of the slot arrays.
+   *
+   * @param length  number of slots needed
+   * @return  offset of the new slice
+   */
+  protected int allocate(int length) {
+    this.reserve(this.top + length);
+
+    int offset = this.top;
+
+    this.top += length;
+
+    return offset;
+  }
+
+  /**
+   * Grows the slot arrays, if necessary, to hold at least the given number of slots.
+   *
+   * @param length  number of slots needed
+   */
+  protected void reserve(int length) {
+    if (length > this.keys.length) {
+      int capacity = Math.max(length, 2 * this.keys.length);
+
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.resizeValues(capacity);
+    }
+  }
+
+  /**
+   * Rehashes the entire table as the table grew too big, or a bin could not grow.
+   *
+   * @param insert  true if x is to be added to the hash; false if deletion caused rehashing
+   * @param x key that has been inserted that caused rehashing
+   * @return  slot of x; -1 if x is not being inserted
+   */
+  protected int rehash(boolean insert, long x) {
+    int n = 0;
+    long[] k = new long[this.size];
+    int[] from = new int[k.length];
+
+    // gather all current keys and the slots of their values
+    for (int j=0; j < this.SM; ++j) {
+      int d = j * DIR_STRIDE;
+      int offset = this.dir[d + OFFSET];
+      long empty = this.emptyKey(d);
+
+      for (int i=offset; i < offset + this.dir[d + SIZE]; i++) {
+        if (this.keys[i] != empty) {
+          k[n] = this.keys[i];
+          from[n++] = i;
+        }
+      }
+    }
+
+    // add the key that caused the rehash, if any
+    if (insert) {
+      k[n] = x;
+      from[n++] = -1;
+    }
+
+    // set count to be the number of elements in the hash
+    this.count = n;
+    this.size = n;
+
+    // set value of M to be max(count, 4) * (1 + C) and allocate the directory
+    this.M = (1 + this.C) * Math.max(this.count, 4);
+    this.SM = this.family.tableSize(this.M * 2);
+
+    int[] directory = new int[this.SM * DIR_STRIDE];
+    int[] buckets = new int[n];
+    int[] start = new int[this.SM + 1];
+
+    // rehash all keys using a new hash function until we meet the necessary conditions
+    do {
+      long seed = this.random.nextLong();
+
+      this.a = UniversalHashFunction.mix(seed) | 1;
+      this.b = UniversalHashFunction.mix(seed + UniversalHashFunction.GOLDEN_GAMMA);
+      this.shift = Long.numberOfLeadingZeros(this.SM);
+
+      Arrays.fill(start, 0);
+
+      for (int i=0; i < n; ++i) {
+        buckets[i] = this.hash(k[i]);
+        start[buckets[i] + 1]++;
+      }
+
+      this.space = 0;
+
+      for (int j=0; j < this.SM; ++j) {
+        int d = j * DIR_STRIDE;
+        int b = start[j + 1];
+        int m = (b > 0) ? this.binCapacity(b) : 0;
+        int s = this.family.tableSize(2 * m * (m - 1));
+
+        directory[d + OFFSET] = (int) this.space;
+        directory[d + SIZE] = s;
+        directory[d + CAPACITY] = m;
+        this.space += s;
+      }
+    } while (!this.verify());
+
+    this.dir = directory;
+    this.emptyBin = this.hash(this.empty) * DIR_STRIDE;
+    this.emptyAlt = this.empty + 1;
+
+    while (this.hash(this.emptyAlt) * DIR_STRIDE == this.emptyBin) {
+      this.emptyAlt++;
+    }
+
+    // gather the keys bin by bin behind the last slice, along with their values
+    for (int j=0; j < this.SM; ++j) {
+      start[j + 1] += start[j];
+    }
+
+    int staging = this.top;
+    int[] next = Arrays.copyOf(start, this.SM);
+    int tracked = -1;
+
+    this.reserve(staging + n);
+
+    for (int i=0; i < n; ++i) {
+      int y = staging + next[buckets[i]]++;
+
+      this.keys[y] = k[i];
+
+      if (from[i] != -1) {
+        this.moveValue(from[i], y);
+      } else {
+        tracked = y;
+      }
+    }
+
+    // condition now holds so lay the bins out behind the gathered keys
+    int base = staging + n;
+    int slot = -1;
+
+    this.reserve(base + (int) this.space);
+
+    for (int j=0; j < this.SM; ++j) {
+      int d = j * DIR_STRIDE;
+
+      this.dir[d + OFFSET] += base;
+
+      if (start[j + 1] > start[j]) {
+        int y = this.place(d, staging + start[j], staging + start[j + 1], tracked);
+
+        if (y != -1) {
+          slot = y - base;
+        }
+      }
+
+      this.dir[d + OFFSET] -= base;
+    }
+
+    // and move the new table to the front of the slot arrays
+    this.top = (int) this.space;
+
+    System.arraycopy(this.keys, base, this.keys, 0, this.top);
+
+    for (int i=0; i < this.top; i++) {
+      this.moveValue(base + i, i);
+    }
+
+    this.keys = Arrays.copyOf(this.keys, Math.max(this.top, 1));
+    this.resizeValues(this.keys.length);
+
+    return slot;
+  }
+
+  /**
+   * Verify that the following condition holds true:
+   *
+   *  Sum of all s <= 32 * M^2 / SM + 4M
+   *
+   * where the right hand side is multiplied by the space factor of the hash family, as
+   * the family may have rounded up the space of every bin.
+   *
+   * @return  true if the condition holds, false otherwise
+   */
+  protected boolean verify() {
+    return DPHashTable.verify(this.M, this.SM, this.space, this.family.spaceFactor());
+  }
+}
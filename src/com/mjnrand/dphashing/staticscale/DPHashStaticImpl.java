@@ -5,13 +5,11 @@
  */
 package com.mjnrand.dphashing.staticscale;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.stream.IntStream;
 
 import com.mjnrand.dphashing.Bin;
+import com.mjnrand.dphashing.DPHashConfig;
 import com.mjnrand.dphashing.DPHashImpl;
-import com.mjnrand.dphashing.Entry;
-import com.mjnrand.dphashing.UniversalHashFunction;
 
 /**
  * DPHash is an implementation of Dynamic Perfect Hashing.  It allows for worst-case time
@@ -22,341 +20,108 @@ import com.mjnrand.dphashing.UniversalHashFunction;
  * <i>Dyanamic Perfect Hashing: Upper and Lower Bounds</i> and uses the standard
  * doubling scheme for dynamically allocating the size of the table and bins.
  * 
+ * Every bin of this implementation is scaled by the same, static amount.
+ * 
+ * @param <V>	type of the data stored with each element
  * @author mark
  */
-public class DPHashStaticImpl extends DPHashImpl {
+public class DPHashStaticImpl<V> extends DPHashImpl<V> {
 	/** Amount that the subtables should be scaled by */
-	public static double SCALE = 2;
+	protected final double scale;
 
-	/** Array representation of the DPHash that contains all bins within the hash */
-	protected Bin[] dphash = null;
+	/**
+	 * Constructor.  Creates an instance of DPHash that accepts every int as a value, hashing
+	 * modulo the Mersenne prime 2^61 - 1.
+	 * 
+	 * @param scale	amount that the subtables should be scaled by
+	 */
+	public DPHashStaticImpl(double scale) {
+		this(DPHashConfig.builder().scale(scale).build());
+	}
 	
 	/**
-	 * Default constructor.  Creates an instance of DPHash using the given maximum
+	 * Constructor.  Creates an instance of DPHash using the given maximum
 	 * universe size and prime number p that is >= |U|.
 	 * 
 	 * @param universeSize	maximum value that may be inserted into the hash
 	 * @param p	prime number that is >= universeSize
-	 * @param c	constant factor that DPHash.M is bigger than n
+	 * @param scale	amount that the subtables should be scaled by
 	 */
 	public DPHashStaticImpl(int universeSize, int p, double scale) {
-		DPHashImpl.MAX_UNIVERSE_SIZE = universeSize;
-		DPHashImpl.P = p;
-		DPHashStaticImpl.SCALE = scale;
-		this.dphash = new Bin[DPHashImpl.SM];
-		
-		// setup the hash
-		this.rehash(-1);
+		this(DPHashConfig.builder().universeSize(universeSize).prime(p).scale(scale).build());
 	}
 	
 	/**
-	 * Insert the value x into the hash with the given data.
+	 * Constructor.  Creates an instance of DPHash using the given configuration.
 	 * 
-	 * @param x	value to be inserted into the hash
-	 * @param data	data to be stored with value
+	 * @param config	configuration of this DPHash
 	 */
-	public void insert(int x, Object data) {
-		this.count++;
+	public DPHashStaticImpl(DPHashConfig config) {
+		super(config);
+		config.checkScaleTargets(this.getClass().getSimpleName());
+		this.scale = config.getScale();
 		
-		if (this.count > DPHashImpl.M) {
-			this.rehash(x);
-		} else {
-			int j = this.h.hash(x);
-			int location = -1 ;
-			
-			if (this.dphash[j].m > 0) {
-				location = this.dphash[j].h.hash(x);
-			}
-			
-			if ((location != -1) && 
-					(this.dphash[j].bin[location] != null) && 
-					(this.dphash[j].bin[location].getValue() == x)) {
-				if (this.dphash[j].bin[location].isDeleted()) {
-					this.dphash[j].bin[location].setDeleted(false);
-				}
-			} else {
-				this.dphash[j].b++;
-				
-				if (this.dphash[j].b <= this.dphash[j].m) {
-					if (this.dphash[j].bin[location] == null) {
-						this.dphash[j].bin[location] = new Entry(x, data);
-					} else {
-						List l = new ArrayList();
-						
-						for (int i=0; i < this.dphash[j].s; i++) {
-							if (this.dphash[j].bin[i] != null && !this.dphash[j].bin[i].isDeleted()) {
-								l.add(this.dphash[j].bin[i]);
-							}
-							
-							// clean up references 
-							this.dphash[j].bin[i] = null;							
-						}
-						
-						l.add(new Entry(x, data));
-						
-						boolean injective = false;
-						
-						while (!injective) {
-							injective = true;
-							this.dphash[j].bin = null;
-							this.dphash[j].bin = new Entry[this.dphash[j].s];
-							this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-							
-							for (int i=0; i < l.size(); i++) {
-								Entry e = (Entry) l.get(i);
-								int y = this.dphash[j].h.hash(e.getValue());
-						
-								if (this.dphash[j].bin[y] != null) {
-									injective = false;
-									break;
-								}
-						
-								this.dphash[j].bin[y] = e;
-							}
-						}
-						
-						l.clear();
-					}
-				} else {
-					this.dphash[j].m = (int) (DPHashStaticImpl.SCALE * Math.max(this.dphash[j].m, 1));
-					
-					// just a slight modification for the case when DPHash.SCALE < 2
-					if (this.dphash[j].m == 1) {
-						this.dphash[j].m++;
-					}
-					
-					this.dphash[j].s = 2 * (this.dphash[j].m) * (this.dphash[j].m - 1);
-					
-					if (this.verify()) {
-						List l = new ArrayList();
-						
-						if (this.dphash[j].bin != null) {
-							for (int i=0; i < this.dphash[j].bin.length; i++) {
-								if ((this.dphash[j].bin[i] != null) && (!this.dphash[j].bin[i].isDeleted())) {
-									l.add(this.dphash[j].bin[i]);
-								}
-								
-								// clean up references 
-								this.dphash[j].bin[i] = null;							
-							}
-						}
-						
-						l.add(new Entry(x, data));
-						
-						boolean injective = false;
-						
-						while (!injective) {
-							injective = true;
-							this.dphash[j].bin = null;
-							this.dphash[j].bin = new Entry[this.dphash[j].s];
-							this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-							
-							for (int i=0; i < l.size(); i++) {
-								Entry e = (Entry) l.get(i);								
-								int y = this.dphash[j].h.hash(e.getValue());
-						
-								if (this.dphash[j].bin[y] != null) {
-									injective = false;
-									break;
-								}
-								
-								this.dphash[j].bin[y] = e;
-							}
-						}
-						
-						l.clear();
-					} else {
-						this.rehash(x);
-					}
-				}
-			}
-		}
+		// setup the hash
+		this.rehash(null);
 	}
 	
 	/**
-	 * Delete the value x from the hash, if it exists.
+	 * Creates a DPHash holding the given elements, building the table once for the final
+	 * number of elements instead of inserting the elements one by one.
 	 * 
-	 * @param x	value to be deleted from the hash
+	 * @param <V>	type of the data stored with each element
+	 * @param config	configuration of the DPHash
+	 * @param keys	values of the elements, which must all be different
+	 * @param values	data stored with each element, in the order of the keys; null for none
+	 * @return	new DPHash holding the elements
+	 * @throws IllegalArgumentException	if the arrays differ in length or a value repeats
 	 */
-	public void delete(int x) {
-		this.count++;
-		
-		int j = this.h.hash(x);
+	public static <V> DPHashStaticImpl<V> of(DPHashConfig config, int[] keys, V[] values) {
+		DPHashStaticImpl<V> hash = new DPHashStaticImpl<V>(config);
 		
-		if (this.dphash[j] != null) {
-			int location = this.dphash[j].h.hash(x);
-			
-			if (this.dphash[j].bin[location] != null) {
-				this.dphash[j].bin[location].setDeleted(true);
-			}
-		}
+		hash.load(keys, values);
 		
-		if (this.count >= DPHashStaticImpl.M) {
-			this.rehash(-1);
-		}
+		return hash;
 	}
 	
 	/**
-	 * Returns true if the value x is stored in the hash, and false otherwise.
+	 * Creates a DPHash holding the given elements without data, building the table once.
 	 * 
-	 * @param x	value to be searched for in the hash
-	 * @return	true if the value is stored in the hash; false otherwise
+	 * @param <V>	type of the data stored with each element
+	 * @param config	configuration of the DPHash
+	 * @param keys	values of the elements, which must all be different
+	 * @return	new DPHash holding the elements
+	 * @throws IllegalArgumentException	if a value repeats
 	 */
-	public boolean lookup(int x) {
-		int j = this.h.hash(x);
-		
-		if ((this.dphash[j] != null) && (this.dphash[j].b > 0)) {
-			int location = this.dphash[j].h.hash(x);
-			
-			if ((this.dphash[j].bin[location] != null) && 
-					(this.dphash[j].bin[location].getValue() == x) &&
-					(!this.dphash[j].bin[location].isDeleted())) {
-				return true;
-			}
-		}
-		return false;
+	public static <V> DPHashStaticImpl<V> of(DPHashConfig config, int[] keys) {
+		return DPHashStaticImpl.of(config, keys, null);
 	}
 	
 	/**
-	 * Rehashes the entire table as a collision occurred, or the table grew too big.
+	 * Creates a DPHash holding the elements of the given stream without data, building the
+	 * table once after the stream has been consumed.
 	 * 
-	 * @param x	value that has been inserted that caused rehashing; -1 if deletion caused rehashing
+	 * @param <V>	type of the data stored with each element
+	 * @param config	configuration of the DPHash
+	 * @param keys	values of the elements, which must all be different
+	 * @return	new DPHash holding the elements
+	 * @throws IllegalArgumentException	if a value repeats
 	 */
-	protected void rehash(int x) {
-		List l = new ArrayList();
-		
-		// gather all current entries in hash
-		for (int i=0; i < DPHashImpl.SM; ++i) {
-			if (this.dphash[i] != null && this.dphash[i].bin != null) {
-				for (int j=0; j < this.dphash[i].bin.length; ++j) {
-					if ((this.dphash[i].bin != null) && (this.dphash[i].bin[j] != null)) {
-						if (!this.dphash[i].bin[j].isDeleted()) {
-							l.add(this.dphash[i].bin[j]);
-						}
-						// clean up any references so that garbace collector can do it's job
-						this.dphash[i].bin[j] = null;
-					}
-				}
-				
-				this.dphash[i].h = null;
-				this.dphash[i].bin = null;
-				this.dphash[i] = null;
-			}
-		}
-		
-		// get rid of old header table since it is gone now...
-		this.dphash = null;
-		
-		// add value x if it is in U
-		if (x != -1) {
-			l.add(new Entry(x));
-		}
-		
-		// set count to be the number of elements in the hash
-		this.count = l.size();
-		
-		// set value of DPHash.M to be max(count, 4) * (1 + DPHash.C) and allocate header table
-		DPHashStaticImpl.M = (1 + DPHashImpl.C) * Math.max(this.count, 4);
-		DPHashStaticImpl.SM = DPHashImpl.M * 2;
-		this.dphash = new Bin[DPHashImpl.SM];
-		
-		// rehash all elements using a new hash function until we meet the necessary conditions
-		List[] sublists = new ArrayList[DPHashImpl.SM];
-		
-		do {
-			this.h = UniversalHashFunction.generateHashFunction(DPHashImpl.SM);
-
-			// clean up the sublists before we start this procedure
-			for (int k=0; k < DPHashImpl.SM; ++k) {
-				if (sublists[k] != null) {
-					sublists[k].clear();
-				} else {
-					sublists[k] = new ArrayList();
-				}
-			}
-
-			for (int i=0; i < l.size(); ++i) {
-				Entry e = (Entry) l.get(i);
-				int bucket = this.h.hash(e.getValue());
-				
-				sublists[bucket].add(e);
-			}
-			
-			for (int j=0; j < DPHashImpl.SM; ++j) {
-				if (sublists[j] == null) {
-					// create empty list for those buckets that didn't get any elements
-					sublists[j] = new ArrayList();
-				}
-				
-				this.dphash[j] = null;
-				this.dphash[j] = new Bin();
-				this.dphash[j].b = sublists[j].size();
-				this.dphash[j].m =  (int) (DPHashStaticImpl.SCALE * this.dphash[j].b);
-				
-				// special case for when DPHash.SCALE < 2
-				if (this.dphash[j].m == 1) {
-					this.dphash[j].m++;
-				}
-				
-				this.dphash[j].s = 2 * (this.dphash[j].m) * (this.dphash[j].m -  1);
-				this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-			}			
-		} while (!this.verify());
-		
-		l.clear();
-		
-		// condition now holds so insert the elements into the appropriate bins
-		for (int j=0; j < DPHashImpl.SM; ++j) {
-			if ((sublists[j] != null) && (sublists[j].size() != 0)) {
-				boolean injective = false;
-				
-				while (!injective) {
-					this.dphash[j].bin = null;
-					this.dphash[j].bin = new Entry[this.dphash[j].s];
-					this.dphash[j].h = UniversalHashFunction.generateHashFunction(this.dphash[j].s);
-				
-					injective = true;
-						
-					for (int i=0; i < sublists[j].size(); ++i) {
-						Entry e = (Entry) sublists[j].get(i);
-						int location = this.dphash[j].h.hash(e.getValue());
-						
-						if (this.dphash[j].bin[location] != null) {
-							injective = false;
-							break;
-						}
-						
-						this.dphash[j].bin[location] = e;
-					}
-				}
-			}
-			
-			sublists[j].clear();
-		}
+	public static <V> DPHashStaticImpl<V> of(DPHashConfig config, IntStream keys) {
+		return DPHashStaticImpl.of(config, keys.toArray(), null);
 	}
 	
 	/**
-	 * Verify that the following condition holds true:
-	 * 
-	 * 	Sum of all dphash[j].s <= 32 * M^2 / SM + 4M
-	 * 
-	 * @return	true if the condition holds, false otherwise
+	 * @see com.mjnrand.dphashing.DPHashImpl#createBin()
 	 */
-	protected boolean verify() {
-		int total = 0;
-		int condition = (32 * (DPHashImpl.M^2)) / DPHashImpl.SM + 4 * DPHashImpl.M;
-		
-		for (int i=0; i < this.dphash.length; i++) {
-			if (this.dphash[i] != null) {
-				total += this.dphash[i].s;
-			}
-			
-			// small optimization:  if we have already broken the condition, there is no need to keep going...
-			if (total > condition) {
-				return false;
-			}
-		}
-							
-		return (total <= condition);
+	protected Bin createBin() {
+		return new Bin();
+	}
+	
+	/**
+	 * @see com.mjnrand.dphashing.DPHashImpl#binScale(com.mjnrand.dphashing.Bin)
+	 */
+	protected double binScale(Bin bin) {
+		return this.scale;
 	}
 }
@@ -0,0 +1,128 @@
+/*
+ * BatchTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compareAll;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.concurrent.DPHashConcurrentImpl;
+import com.mjnrand.dphashing.concurrent.StampedDPHash;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.flat.DPHashFlatImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * BatchTest checks the batch operations of every DPHash against a HashMap.  The batches
+ * are drawn from a small key space, so that they repeat keys within themselves, where the
+ * data of the last occurrence has to win, and hit keys that are already stored or were
+ * deleted before, along with new ones.  After every batch the keys of the batch are read
+ * back with getAll and lookupAll, and the whole key space is compared at the end.
+ *
+ * Usage: BatchTest [batches] [key space]
+ */
+public class BatchTest {
+  /**
+   * Runs the batches against every engine and the StampedDPHash wrapper.
+   *
+   * @param args  number of batches and size of the key space, both optional
+   */
+  public static void main(String args[]) {
+    int batches = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 30000;
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    System.out.println("BATCH TEST - " + batches + " BATCHES OVER " + keys + " KEYS\n");
+
+    try {
+      test("static", new DPHashStaticImpl<Integer>(config), batches, keys);
+      test("dynamic", new DPHashDynamicImpl<Integer>(config), batches, keys);
+      test("incremental", new DPHashStaticImpl<Integer>(config.toBuilder().incrementalRehash(4).build()), batches, keys);
+      test("background", new DPHashStaticImpl<Integer>(config.toBuilder().backgroundRehash(executor).build()), batches,
+        keys);
+      test("flat", new DPHashFlatImpl<Integer>(config), batches, keys);
+      test("concurrent", new DPHashConcurrentImpl<Integer>(config), batches, keys);
+      test("stamped", new StampedDPHash<Integer>(new DPHashStaticImpl<Integer>(config)), batches, keys);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs random batches of inserts and deletes, with a few single puts in between, against
+   * the given hash and a HashMap and compares the two.
+   *
+   * @param name  name of the hash, printed with the result
+   * @param hash  empty hash to be tested
+   * @param batches number of batches
+   * @param keys  size of the key space
+   */
+  protected static void test(String name, DPHash<Integer> hash, int batches, int keys) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(3);
+    int repeated = 0;
+
+    for (int b=0; b < batches; b++) {
+      int n = 1 + random.nextInt(2000);
+      int[] batch = new int[n];
+      Integer[] values = new Integer[n];
+
+      for (int i=0; i < n; i++) {
+        batch[i] = random.nextInt(keys);
+        values[i] = random.nextInt();
+      }
+
+      if (random.nextInt(3) > 0) {
+        hash.insertAll(batch, values);
+
+        for (int i=0; i < n; i++) {
+          if (reference.put(batch[i], values[i]) != null) {
+            repeated++;
+          }
+        }
+      } else {
+        hash.deleteAll(batch);
+
+        for (int i=0; i < n; i++) {
+          reference.remove(batch[i]);
+        }
+      }
+
+      if (random.nextInt(10) == 0) {
+        for (int i=0; i < 100; i++) {
+          int x = random.nextInt(keys);
+
+          hash.put(x, i);
+          reference.put(x, i);
+        }
+      }
+
+      Integer[] found = new Integer[n];
+      boolean[] present = new boolean[n];
+
+      hash.getAll(batch, found);
+      hash.lookupAll(batch, present);
+
+      for (int i=0; i < n; i++) {
+        Integer expected = reference.get(batch[i]);
+
+        check(name, Objects.equals(found[i], expected), "getAll read " + found[i] + " for " + batch[i] + " instead of "
+          + expected);
+        check(name, present[i] == (expected != null), "lookupAll of " + batch[i] + " is wrong");
+      }
+    }
+
+    compareAll(name, hash, reference, keys);
+
+    System.out.println(String.format("%-12s ok  %d elements, %d keys stored again", name, reference.size(), repeated));
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * BuildTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compare;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashImpl;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * BuildTest checks the bulk build factories of the static and the dynamic engine.  Tables
+ * of several sizes, down to none, are built from arrays with and without data and from
+ * streams, and every key must be found with the data at its own index.  Each table then
+ * takes random puts and deletes, which it must carry out like a HashMap, as the table
+ * built at once has to grow and rebuild its bins like any other.  A repeated key and
+ * arrays of different lengths must be refused.
+ *
+ * Usage: BuildTest [elements]
+ */
+public class BuildTest {
+  /**
+   * Factory creates tables of one engine through its bulk build factories.
+   */
+  protected interface Factory {
+    /**
+     * @see DPHashStaticImpl#of(DPHashConfig, int[], Object[])
+     */
+    DPHashImpl<Integer> of(int[] keys, Integer[] values);
+
+    /**
+     * @see DPHashStaticImpl#of(DPHashConfig, int[])
+     */
+    DPHashImpl<Integer> of(int[] keys);
+
+    /**
+     * @see DPHashStaticImpl#of(DPHashConfig, IntStream)
+     */
+    DPHashImpl<Integer> of(IntStream keys);
+  }
+
+  /**
+   * Runs the builds of every size against both engines.
+   *
+   * @param args  number of elements of the largest table, optional
+   */
+  public static void main(String args[]) {
+    int elements = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    final DPHashConfig config = DPHashConfig.builder().seed(1).build();
+
+    System.out.println("BUILD TEST - UP TO " + elements + " ELEMENTS\n");
+
+    test("static", new Factory() {
+      public DPHashImpl<Integer> of(int[] keys, Integer[] values) {
+        return DPHashStaticImpl.of(config, keys, values);
+      }
+
+      public DPHashImpl<Integer> of(int[] keys) {
+        return DPHashStaticImpl.of(config, keys);
+      }
+
+      public DPHashImpl<Integer> of(IntStream keys) {
+        return DPHashStaticImpl.of(config, keys);
+      }
+    }, elements);
+
+    test("dynamic", new Factory() {
+      public DPHashImpl<Integer> of(int[] keys, Integer[] values) {
+        return DPHashDynamicImpl.of(config, keys, values);
+      }
+
+      public DPHashImpl<Integer> of(int[] keys) {
+        return DPHashDynamicImpl.of(config, keys);
+      }
+
+      public DPHashImpl<Integer> of(IntStream keys) {
+        return DPHashDynamicImpl.of(config, keys);
+      }
+    }, elements);
+  }
+
+  /**
+   * Builds tables of no, one, a few and the given number of elements through every factory
+   * of the engine, and checks that bad input is refused.
+   *
+   * @param name  name of the engine, printed with the result
+   * @param factory factories of the engine
+   * @param elements  number of elements of the largest table
+   */
+  protected static void test(String name, Factory factory, int elements) {
+    SplittableRandom random = new SplittableRandom(37);
+
+    for (int n : new int[] { 0, 1, 1000, elements }) {
+      // distinct keys spread over every int, as the factories refuse repeated ones
+      int[] keys = random.ints().distinct().limit(n).toArray();
+      Integer[] values = new Integer[n];
+
+      for (int i=0; i < n; i++) {
+        values[i] = random.nextInt();
+      }
+
+      String size = name + ", " + n + " elements";
+
+      update(size + " with data", factory.of(keys, values), keys, values, random);
+      update(size + " without data", factory.of(keys), keys, new Integer[n], random);
+      update(size + " from a stream", factory.of(Arrays.stream(keys)), keys, new Integer[n], random);
+    }
+
+    int[] repeated = { 5, -3, Integer.MIN_VALUE, 12, -3 };
+
+    refused(name + ", repeated key", () -> factory.of(repeated));
+    refused(name + ", repeated key with data", () -> factory.of(repeated, new Integer[repeated.length]));
+    refused(name + ", repeated key in a stream", () -> factory.of(Arrays.stream(repeated)));
+    refused(name + ", more data than keys", () -> factory.of(new int[] { 1, 2 }, new Integer[3]));
+
+    System.out.println(String.format("%-8s ok  up to %d elements, bad input refused", name, elements));
+  }
+
+  /**
+   * Checks that the given table holds exactly the given elements, then runs random puts and
+   * deletes of the same and of new keys against it and a HashMap and compares the two.
+   *
+   * @param name  name of the case
+   * @param hash  table just built from the elements
+   * @param keys  values of the elements
+   * @param values  data stored with each element, in the order of the keys
+   * @param random  source of the updates
+   */
+  protected static void update(String name, DPHashImpl<Integer> hash, int[] keys, Integer[] values,
+      SplittableRandom random) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+
+    for (int i=0; i < keys.length; i++) {
+      reference.put(keys[i], values[i]);
+    }
+
+    check(name, hash.size() == keys.length, "built with " + hash.size() + " elements instead of " + keys.length);
+
+    for (int i=0; i < keys.length; i++) {
+      compare(name, hash, reference, keys[i]);
+    }
+
+    int updates = 2 * keys.length + 1000;
+    int[] touched = new int[updates];
+
+    for (int i=0; i < updates; i++) {
+      // half of the updates hit a key that was built in, the others a new key
+      int x = ((keys.length > 0) && random.nextBoolean()) ? keys[random.nextInt(keys.length)] : random.nextInt();
+
+      touched[i] = x;
+
+      if (random.nextInt(3) == 0) {
+        hash.delete(x);
+        reference.remove(x);
+      } else {
+        hash.put(x, i);
+        reference.put(x, i);
+      }
+    }
+
+    for (int x : keys) {
+      compare(name, hash, reference, x);
+    }
+
+    for (int x : touched) {
+      compare(name, hash, reference, x);
+    }
+
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+  }
+
+  /**
+   * Checks that the given build throws an IllegalArgumentException.
+   *
+   * @param name  name of the case
+   * @param build build to be run
+   */
+  protected static void refused(String name, Runnable build) {
+    try {
+      build.run();
+    } catch (IllegalArgumentException ex) {
+      return;
+    }
+
+    check(name, false, "bad input was accepted");
+  }
+}
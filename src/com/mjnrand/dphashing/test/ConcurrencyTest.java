@@ -0,0 +1,174 @@
+/*
+ * ConcurrencyTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compareAll;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.concurrent.DPHashConcurrentImpl;
+import com.mjnrand.dphashing.concurrent.StampedDPHash;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * ConcurrencyTest checks the thread-safe DPHashes with readers running while the table is
+ * updated.  The first keys are stored before the threads start and never updated, so every
+ * read of one of them must find it with its own data, however the bins and the table are
+ * rebuilt meanwhile.  The other keys are put and deleted by the writers, with data of
+ * either the key or its negation, so a read of one of them must find nothing or one of
+ * those two.  Every writer owns the keys congruent to its number modulo the number of
+ * writers, so the writers update bins at the same time without updating the same keys.
+ * Once the threads are done, every key is compared with HashMaps holding what the writers
+ * did.
+ *
+ * Usage: ConcurrencyTest [readers] [writers] [updates per writer] [key space]
+ */
+public class ConcurrencyTest {
+  /**
+   * Runs the readers and writers against the concurrent engine and the StampedDPHash
+   * wrapper over each rehash mode.
+   *
+   * @param args  numbers of readers, of writers and of updates per writer, and size of the
+   *  key space, all optional
+   */
+  public static void main(String args[]) throws InterruptedException {
+    int readers = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+    int writers = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+    int updates = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+    int keys = (args.length > 3) ? Integer.parseInt(args[3]) : 100000;
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    System.out.println("CONCURRENCY TEST - " + readers + " READERS, " + writers + " WRITERS, " + updates
+      + " UPDATES EACH OVER " + keys + " KEYS\n");
+
+    try {
+      test("concurrent", new DPHashConcurrentImpl<Integer>(config), readers, writers, updates, keys);
+      test("stamped static", new StampedDPHash<Integer>(new DPHashStaticImpl<Integer>(config)), readers, writers,
+        updates, keys);
+      test("stamped incremental", new StampedDPHash<Integer>(new DPHashStaticImpl<Integer>(
+        config.toBuilder().incrementalRehash(4).build())), readers, writers, updates, keys);
+      test("stamped background", new StampedDPHash<Integer>(new DPHashStaticImpl<Integer>(
+        config.toBuilder().backgroundRehash(executor).build())), readers, writers, updates, keys);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs the readers against the given hash while the writers update it, then compares the
+   * hash with what the writers did.
+   *
+   * @param name  name of the hash, printed with the result
+   * @param hash  empty hash to be tested
+   * @param readers number of reader threads
+   * @param writers number of writer threads
+   * @param updates number of updates made by every writer
+   * @param keys  size of the key space
+   */
+  protected static void test(String name, final DPHash<Integer> hash, int readers, final int writers, final int updates,
+      final int keys) throws InterruptedException {
+    final int stable = keys / 4;
+    final int owned = (keys - stable) / writers;
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final LongAdder reads = new LongAdder();
+    final HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    List<HashMap<Integer, Integer>> written = new ArrayList<HashMap<Integer, Integer>>();
+    Thread[] threads = new Thread[readers + writers];
+
+    for (int x=0; x < stable; x++) {
+      hash.insert(x, x);
+    }
+
+    for (int t=0; t < readers; t++) {
+      final SplittableRandom random = new SplittableRandom(t);
+
+      threads[t] = new Thread(() -> {
+        long n = 0;
+
+        while (!stop.get() && (failure.get() == null)) {
+          int x = random.nextInt(stable);
+          int y = stable + random.nextInt(keys - stable);
+          Integer data = hash.get(y);
+
+          if (!Objects.equals(hash.get(x), x) || !hash.lookup(x)) {
+            failure.compareAndSet(null, "lost stable key " + x);
+          } else if ((data != null) && (data != y) && (data != -y)) {
+            failure.compareAndSet(null, "read " + data + " for " + y);
+          }
+
+          n++;
+        }
+
+        reads.add(n);
+      });
+      threads[t].start();
+    }
+
+    for (int w=0; w < writers; w++) {
+      final SplittableRandom random = new SplittableRandom(readers + w);
+      final HashMap<Integer, Integer> updated = new HashMap<Integer, Integer>();
+      final int first = stable + w;
+
+      written.add(updated);
+      threads[readers + w] = new Thread(() -> {
+        try {
+          for (int i=0; (i < updates) && (failure.get() == null); i++) {
+            int y = first + writers * random.nextInt(owned);
+
+            if (random.nextInt(3) == 0) {
+              hash.delete(y);
+              updated.remove(y);
+            } else {
+              int data = random.nextBoolean() ? y : -y;
+
+              hash.put(y, data);
+              updated.put(y, data);
+            }
+          }
+        } catch (RuntimeException ex) {
+          failure.compareAndSet(null, "writer failed with " + ex);
+        }
+      });
+      threads[readers + w].start();
+    }
+
+    for (int t=readers; t < threads.length; t++) {
+      threads[t].join();
+    }
+
+    stop.set(true);
+
+    for (int t=0; t < readers; t++) {
+      threads[t].join();
+    }
+
+    check(name, failure.get() == null, failure.get());
+
+    for (int x=0; x < stable; x++) {
+      reference.put(x, x);
+    }
+
+    for (HashMap<Integer, Integer> updated : written) {
+      reference.putAll(updated);
+    }
+
+    compareAll(name, hash, reference, keys);
+
+    System.out.println(String.format("%-20s ok  %d elements, %d reads", name, reference.size(), reads.sum()));
+  }
+}
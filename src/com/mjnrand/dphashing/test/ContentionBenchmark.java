@@ -0,0 +1,145 @@
+/*
+ * ContentionBenchmark.java
+ */
+package com.mjnrand.dphashing.test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.concurrent.DPHashConcurrentImpl;
+import com.mjnrand.dphashing.concurrent.StampedDPHash;
+import com.mjnrand.dphashing.concurrent.SynchronizedDPHash;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * ContentionBenchmark measures the throughput of the thread-safe ways of sharing a DPHash
+ * with 1 to 64 threads running a mixed workload of lookups and updates: the static and the
+ * dynamic hash wrapped in a SynchronizedDPHash and in a StampedDPHash, and the concurrent
+ * hash.  Every thread runs for a fixed time, choosing its keys uniformly at random out of
+ * a key space that is half filled before the threads are started.
+ *
+ * Usage: ContentionBenchmark [write percentage] [key space] [milliseconds per run]
+ */
+public class ContentionBenchmark {
+  protected static int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+  /**
+   * Creates a new hash of the kind with the given name.
+   *
+   * @param kind  name of the kind of hash
+   * @return  new, empty hash
+   */
+  protected static DPHash<Integer> create(String kind) {
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+
+    switch (kind) {
+      case "synchronized static":
+        return new SynchronizedDPHash<Integer>(new DPHashStaticImpl<Integer>(config));
+      case "stamped static":
+        return new StampedDPHash<Integer>(new DPHashStaticImpl<Integer>(config));
+      case "synchronized dynamic":
+        return new SynchronizedDPHash<Integer>(new DPHashDynamicImpl<Integer>(config));
+      case "stamped dynamic":
+        return new StampedDPHash<Integer>(new DPHashDynamicImpl<Integer>(config));
+      default:
+        return new DPHashConcurrentImpl<Integer>(config);
+    }
+  }
+
+  /**
+   * Main benchmark driver program.
+   *
+   * @param args  command line arguments
+   */
+  public static void main(String args[]) throws InterruptedException {
+    int writes = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 1 << 20;
+    long millis = (args.length > 2) ? Long.parseLong(args[2]) : 1000;
+    String[] kinds = { "synchronized static", "stamped static", "synchronized dynamic", "stamped dynamic", "concurrent" };
+
+    System.out.println("CONTENTION BENCHMARK - " + writes + "% WRITES, " + keys + " KEYS\n");
+
+    for (int k=0; k < kinds.length; k++) {
+      System.out.println("Hash: " + kinds[k]);
+
+      for (int t=0; t < THREADS.length; t++) {
+        DPHash<Integer> hash = create(kinds[k]);
+
+        for (int i=0; i < keys; i += 2) {
+          hash.insert(i, i);
+        }
+
+        double ops = run(hash, THREADS[t], writes, keys, millis);
+
+        System.out.println("  " + THREADS[t] + " threads: " + String.format("%.2f", ops / 1e6) + " Mops/s");
+      }
+    }
+  }
+
+  /**
+   * Runs the workload on the given hash with the given number of threads.
+   *
+   * @param hash  hash being measured
+   * @param threads number of threads
+   * @param writes  percentage of operations that are updates
+   * @param keys  size of the key space
+   * @param millis  time each thread runs for
+   * @return  number of operations per second of all threads together
+   */
+  protected static double run(final DPHash<Integer> hash, int threads, final int writes, final int keys, long millis)
+      throws InterruptedException {
+    final AtomicBoolean stop = new AtomicBoolean();
+    final LongAdder ops = new LongAdder();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+
+    for (int t=0; t < threads; t++) {
+      final SplittableRandom random = new SplittableRandom(t);
+
+      workers[t] = new Thread(() -> {
+        long n = 0;
+
+        try {
+          start.await();
+        } catch (InterruptedException ex) {
+          return;
+        }
+
+        while (!stop.get()) {
+          int x = random.nextInt(keys);
+          int op = random.nextInt(100);
+
+          if (op >= writes) {
+            hash.lookup(x);
+          } else if ((op & 1) == 0) {
+            hash.insert(x, x);
+          } else {
+            hash.delete(x);
+          }
+
+          n++;
+        }
+
+        ops.add(n);
+      });
+      workers[t].start();
+    }
+
+    long begin = System.nanoTime();
+
+    start.countDown();
+    Thread.sleep(millis);
+    stop.set(true);
+
+    for (int t=0; t < threads; t++) {
+      workers[t].join();
+    }
+
+    return ops.sum() / ((System.nanoTime() - begin) / 1e9);
+  }
+}
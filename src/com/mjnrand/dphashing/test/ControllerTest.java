@@ -0,0 +1,218 @@
+/*
+ * ControllerTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compareAll;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.Bin;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashTable;
+import com.mjnrand.dphashing.LinearSpacePolicy;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.dynamicscale.DynamicBin;
+
+/**
+ * ControllerTest checks the feedback controller that steers the scale of the bins of a
+ * DPHashDynamicImpl.  The table is filled under the linear space policy, whose bins are
+ * small enough that inserts collide in them often, and every growth of a bin is recorded
+ * with what the bin had seen since it last grew.  A bin whose inserts collided or whose
+ * rebuilds retried too often must have its scale raised, while the table holds no more
+ * slots per element than its maximum, and lowered once it holds more, however much the
+ * bin collided.  A growth rejected by the space bound must leave the scale of the bin,
+ * its statistics and the scale of new bins as they were.
+ *
+ * Usage: ControllerTest [elements]
+ */
+public class ControllerTest {
+  /**
+   * Growth records one growth of a bin as the controller saw it.
+   */
+  protected static class Growth {
+    /** Scale of the bin before it grew, and after the growth was accepted or rejected */
+    protected double before, after;
+
+    /** Scale of new bins before and after the growth */
+    protected double startBefore, startAfter;
+
+    /** Collisions of the bin since it last grew, before and after the growth */
+    protected int collisionsBefore, collisionsAfter;
+
+    /** True if the bin collided or retried more often than the controller allows */
+    protected boolean troubled;
+
+    /** Slots per element of the table when the bin grew */
+    protected double slotsPerKey;
+
+    /** True if the growth was kept */
+    protected boolean accepted;
+  }
+
+  /**
+   * Probe is a DPHashDynamicImpl recording every growth of its bins, which can be made to
+   * have the space bound reject every so many growths.
+   */
+  protected static class Probe extends DPHashDynamicImpl<Integer> {
+    /** Growths recorded so far */
+    protected final List<Growth> growths = new ArrayList<Growth>();
+
+    /** Every how many growths one is rejected; 0 to reject none beyond the space bound */
+    protected final int rejectEvery;
+
+    /** Growth under way, between growBin and grown */
+    protected Growth growth = null;
+
+    /** True if the space bound is to reject the growth under way */
+    protected boolean rejecting = false;
+
+    /**
+     * Constructor.  Creates the table with the given configuration.
+     *
+     * @param config  configuration of the table
+     * @param rejectEvery every how many growths one is rejected; 0 for none
+     */
+    protected Probe(DPHashConfig config, int rejectEvery) {
+      super(config);
+      this.rejectEvery = rejectEvery;
+    }
+
+    protected void growBin(Bin bin) {
+      DynamicBin dynamic = (DynamicBin) bin;
+
+      if (bin.m != 0) {
+        this.growth = new Growth();
+        this.growth.before = dynamic.scale;
+        this.growth.startBefore = this.startScale;
+        this.growth.collisionsBefore = dynamic.collisions;
+        this.growth.troubled = (dynamic.collisions > COLLISION_RATE * Math.max(bin.b - dynamic.resizedAt, 1))
+          || (dynamic.tries > RETRY_RATE * Math.max(dynamic.rebuilds, 1));
+        this.growth.slotsPerKey = this.getSlotsPerKey();
+        this.rejecting = (this.rejectEvery > 0) && (this.growths.size() % this.rejectEvery == this.rejectEvery - 1);
+      }
+
+      super.growBin(bin);
+    }
+
+    protected boolean verify(DPHashTable t) {
+      if (this.rejecting) {
+        this.rejecting = false;
+        return false;
+      }
+
+      return super.verify(t);
+    }
+
+    protected void grown(Bin bin, boolean accepted) {
+      super.grown(bin, accepted);
+
+      if (this.growth != null) {
+        DynamicBin dynamic = (DynamicBin) bin;
+
+        this.growth.after = dynamic.scale;
+        this.growth.startAfter = this.startScale;
+        this.growth.collisionsAfter = dynamic.collisions;
+        this.growth.accepted = accepted;
+        this.growths.add(this.growth);
+        this.growth = null;
+      }
+    }
+  }
+
+  /**
+   * Fills tables without a target, with a maximum of slots per element and with growths
+   * rejected, and checks every growth recorded.
+   *
+   * @param args  number of elements, optional
+   */
+  public static void main(String args[]) {
+    int elements = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    DPHashConfig config = DPHashConfig.builder().seed(1).spacePolicy(new LinearSpacePolicy(2)).build();
+
+    System.out.println("CONTROLLER TEST - " + elements + " ELEMENTS\n");
+
+    Probe free = fill("no target", new Probe(config, 0), elements);
+    int rose = 0;
+
+    for (Growth g : free.growths) {
+      // the scale of a bin only stops moving at the bounds of DynamicBin
+      if (g.troubled) {
+        check("no target", g.after >= g.before, "scale fell from " + g.before + " to " + g.after
+          + " after collisions or retries");
+        rose += (g.after > g.before) ? 1 : 0;
+      } else {
+        check("no target", g.after <= g.before, "scale rose from " + g.before + " to " + g.after + " without trouble");
+      }
+    }
+
+    check("no target", rose > 0, "no scale ever rose");
+    System.out.println(String.format("%-16s ok  %d growths, %d raised a scale", "no target", free.growths.size(), rose));
+
+    // a maximum the table exceeds once it has filled up a little
+    double max = free.getSlotsPerKey() * 0.9;
+    Probe bounded = fill("max slots", new Probe(config.toBuilder().maxSlotsPerKey(max).build(), 0), elements);
+    int fell = 0;
+
+    for (Growth g : bounded.growths) {
+      if (g.slotsPerKey > max) {
+        check("max slots", g.after <= g.before, "scale rose from " + g.before + " to " + g.after + " at " + g.slotsPerKey
+          + " slots per key");
+        fell += ((g.after < g.before) && g.troubled) ? 1 : 0;
+      } else if (g.troubled) {
+        check("max slots", g.after >= g.before, "scale fell from " + g.before + " to " + g.after + " within the maximum");
+      }
+    }
+
+    check("max slots", fell > 0, "no scale of a troubled bin fell over the maximum");
+    System.out.println(String.format("%-16s ok  %d growths, %d troubled bins scaled down", "max slots",
+      bounded.growths.size(), fell));
+
+    Probe rejected = fill("rejected", new Probe(config, 3), elements);
+    int rejections = 0;
+
+    for (Growth g : rejected.growths) {
+      if (!g.accepted) {
+        check("rejected", g.after == g.before, "scale went from " + g.before + " to " + g.after);
+        check("rejected", g.startAfter == g.startBefore, "scale of new bins went from " + g.startBefore + " to "
+          + g.startAfter);
+        check("rejected", g.collisionsAfter == g.collisionsBefore, "collisions went from " + g.collisionsBefore
+          + " to " + g.collisionsAfter);
+        rejections++;
+      }
+    }
+
+    check("rejected", rejections > 0, "no growth was rejected");
+    System.out.println(String.format("%-16s ok  %d growths, %d rejected", "rejected", rejected.growths.size(),
+      rejections));
+  }
+
+  /**
+   * Inserts random elements into the given table and checks it against a HashMap.
+   *
+   * @param name  name of the case
+   * @param hash  empty table to be filled
+   * @param elements  number of elements
+   * @return  the table
+   */
+  protected static Probe fill(String name, Probe hash, int elements) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(43);
+
+    for (int i=0; i < elements; i++) {
+      int x = random.nextInt(4 * elements);
+
+      hash.put(x, i);
+      reference.put(x, i);
+    }
+
+    compareAll(name, hash, reference, 4 * elements);
+    check(name, !hash.growths.isEmpty(), "no bin ever grew");
+
+    return hash;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * DeleteTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compare;
+import static com.mjnrand.dphashing.test.TestSupport.compareAll;
+
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashImpl;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * DeleteTest checks how a DPHash disposes of deleted elements.  Random puts and deletes
+ * are run against the hash and a HashMap with compaction off and at two thresholds.  With
+ * a threshold set, no bin may ever be left holding that share of tombstones, so neither
+ * may the whole table.  Compacting every bin afterwards must drop exactly the tombstones
+ * counted, and leave the elements as they were.
+ *
+ * Then the hash is filled and all but a small share of its elements deleted again, with
+ * the low-water mark off and set, while rehashing at once, incrementally and in the
+ * background.  A table is only shrunk once the elements left fall below the mark, so with
+ * the mark set it must end up taking no more space per element than a table built for the
+ * elements left, divided by the mark, give or take a factor of two.
+ *
+ * Usage: DeleteTest [updates] [key space]
+ */
+public class DeleteTest {
+  /**
+   * Runs the compaction thresholds against the static and the dynamic engine, and the
+   * low-water marks against every rehash mode.
+   *
+   * @param args  number of updates and size of the key space, both optional
+   */
+  public static void main(String args[]) {
+    int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+
+    System.out.println("DELETE TEST - " + updates + " UPDATES OVER " + keys + " KEYS\n");
+
+    for (double threshold : new double[] { 0, 0.25, 0.5 }) {
+      DPHashConfig compacting = config.toBuilder().compactionThreshold(threshold).build();
+
+      compaction("static, compaction " + threshold, new DPHashStaticImpl<Integer>(compacting), updates, keys);
+      compaction("dynamic, compaction " + threshold, new DPHashDynamicImpl<Integer>(compacting), updates, keys);
+    }
+
+    System.out.println();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      for (double mark : new double[] { 0, 0.25 }) {
+        DPHashConfig shrinking = config.toBuilder().lowWaterMark(mark).build();
+
+        shrink("static, mark " + mark, new DPHashStaticImpl<Integer>(shrinking), updates);
+        shrink("dynamic, mark " + mark, new DPHashDynamicImpl<Integer>(shrinking), updates);
+        shrink("incremental, mark " + mark, new DPHashStaticImpl<Integer>(shrinking.toBuilder().incrementalRehash(4)
+          .build()), updates);
+        shrink("background, mark " + mark, new DPHashStaticImpl<Integer>(shrinking.toBuilder().backgroundRehash(executor)
+          .build()), updates);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs random puts and deletes against the given hash and a HashMap, checking the
+   * tombstones of the hash against its compaction threshold, then compacts the whole table.
+   *
+   * @param name  name of the hash, printed with the result
+   * @param hash  empty hash to be tested
+   * @param updates number of updates
+   * @param keys  size of the key space
+   */
+  protected static void compaction(String name, DPHashImpl<Integer> hash, int updates, int keys) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(13);
+    double threshold = hash.getConfig().getCompactionThreshold();
+    int most = 0;
+
+    for (int i=0; i < updates; i++) {
+      int x = random.nextInt(keys);
+
+      if (random.nextInt(2) == 0) {
+        hash.delete(x);
+        reference.remove(x);
+      } else {
+        hash.put(x, i);
+        reference.put(x, i);
+      }
+
+      if (i % 1000 == 0) {
+        int dead = hash.getTombstones();
+
+        // every bin holds less than the threshold of tombstones among its entries
+        check(name, (threshold == 0) || (dead < threshold * (hash.size() + dead)) || (dead == 0), dead
+          + " tombstones among " + hash.size() + " elements");
+        most = Math.max(most, dead);
+      }
+    }
+
+    compareAll(name, hash, reference, keys);
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+
+    int dead = hash.getTombstones();
+    int dropped = hash.compact(Integer.MAX_VALUE);
+
+    check(name, dropped == dead, "compaction dropped " + dropped + " of " + dead + " tombstones");
+    check(name, hash.getTombstones() == 0, hash.getTombstones() + " tombstones left after compaction");
+    compareAll(name + ", compacted", hash, reference, keys);
+    check(name, hash.size() == reference.size(), hash.size() + " elements left after compaction");
+
+    System.out.println(String.format("%-28s ok  %d elements, at most %d tombstones, %d compacted", name, hash.size(),
+      most, dropped));
+  }
+
+  /**
+   * Fills the given hash with random elements and deletes all but one in a hundred of them,
+   * checking the hash against a HashMap, then compares its space per element with that of
+   * a table built for the elements left, which it may exceed by the inverse of the mark.
+   *
+   * @param name  name of the hash, printed with the result
+   * @param hash  empty hash to be tested
+   * @param elements  number of elements inserted
+   */
+  protected static void shrink(String name, DPHashImpl<Integer> hash, int elements) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(17);
+    int[] keys = new int[elements];
+    double full;
+
+    for (int i=0; i < elements; i++) {
+      keys[i] = random.nextInt();
+      hash.put(keys[i], i);
+      reference.put(keys[i], i);
+    }
+
+    hash.awaitRehash();
+    full = hash.getSlotsPerKey();
+
+    for (int i=0; i < elements; i++) {
+      if (i % 100 != 0) {
+        hash.delete(keys[i]);
+        reference.remove(keys[i]);
+      }
+
+      if (i % 997 == 0) {
+        compare(name, hash, reference, keys[random.nextInt(elements)]);
+      }
+    }
+
+    hash.awaitRehash();
+
+    // an incremental rehash only moves on with the updates, so finish it with deletes of a key deleted before
+    while (hash.isRehashing()) {
+      hash.delete(keys[1]);
+    }
+
+    for (int i=0; i < elements; i++) {
+      compare(name, hash, reference, keys[i]);
+    }
+
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+
+    DPHashImpl<Integer> fresh = new DPHashStaticImpl<Integer>(DPHashConfig.builder().seed(1).build());
+
+    for (int x : reference.keySet()) {
+      fresh.insert(x, null);
+    }
+
+    double mark = hash.getConfig().getLowWaterMark();
+    double left = hash.getSlotsPerKey();
+
+    check(name, (mark == 0) || (left <= 2 * fresh.getSlotsPerKey() / mark), String.format(
+      "%.2f slots per element, more than %.2f over the mark", left, fresh.getSlotsPerKey()));
+
+    System.out.println(String.format("%-24s ok  %.2f slots per element full, %.2f after deletes, %.2f built", name,
+      full, left, fresh.getSlotsPerKey()));
+  }
+}
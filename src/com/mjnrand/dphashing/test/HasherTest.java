@@ -0,0 +1,144 @@
+/*
+ * HasherTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.BatchHasher;
+import com.mjnrand.dphashing.HashFamily;
+import com.mjnrand.dphashing.HashFunction;
+import com.mjnrand.dphashing.MersenneHashFamily;
+import com.mjnrand.dphashing.MersenneHashFunction;
+import com.mjnrand.dphashing.MultiplyShiftHashFamily;
+import com.mjnrand.dphashing.MultiplyShiftHashFunction;
+
+/**
+ * HasherTest checks that the vectorized BatchHasher returns exactly what the scalar one
+ * does, for the Mersenne and the multiply-shift family.  Blocks of random values and of
+ * the extreme values of an int are hashed both into the buckets of a single function and
+ * into the slots of a function per value, with random functions and with the largest and
+ * smallest variables each family allows, at offsets and lengths that leave part of a vector
+ * over at either end.  The test has to be run with --add-modules jdk.incubator.vector, as
+ * there is nothing to compare without it.
+ *
+ * Usage: HasherTest [blocks]
+ */
+public class HasherTest {
+  /** Extreme values of an int and their neighbours */
+  protected static final int[] EXTREMES = { Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -2, -1, 0, 1, 2,
+    Integer.MAX_VALUE - 1, Integer.MAX_VALUE };
+
+  /**
+   * Compares the hashers on random and extreme blocks for both families.
+   *
+   * @param args  number of blocks per family, optional
+   */
+  public static void main(String args[]) {
+    int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    BatchHasher vector = BatchHasher.getInstance();
+
+    System.out.println("HASHER TEST - " + blocks + " BLOCKS, " + vector + " AGAINST " + BatchHasher.SCALAR + "\n");
+
+    check("hasher", vector.isVectorized(), "no vectorized hasher was loaded; run with --add-modules jdk.incubator.vector");
+
+    long[][] mersenne = { { 1, MersenneHashFunction.P61 - 1 }, { 0, MersenneHashFunction.P61 - 1 } };
+    long[][] multiplyShift = { { 1, -1, Long.MIN_VALUE + 1, Long.MAX_VALUE }, { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE } };
+
+    test(MersenneHashFamily.INSTANCE, mersenne, vector, blocks);
+    test(MultiplyShiftHashFamily.INSTANCE, multiplyShift, vector, blocks);
+  }
+
+  /**
+   * Hashes random blocks with both hashers and compares the results.
+   *
+   * @param family  family of the hash functions
+   * @param extremes  extreme values of the variables a and b allowed by the family
+   * @param vector  vectorized hasher
+   * @param blocks  number of blocks
+   */
+  protected static void test(HashFamily family, long[][] extremes, BatchHasher vector, int blocks) {
+    SplittableRandom random = new SplittableRandom(47);
+    String name = family.getClass().getSimpleName();
+    long values = 0;
+
+    for (int i=0; i < blocks; i++) {
+      int n = random.nextInt(200);
+      int keysPos = random.nextInt(16);
+      int outPos = random.nextInt(16);
+      int[] keys = new int[keysPos + n];
+      long[] a = new long[outPos + n];
+      long[] b = new long[outPos + n];
+      int[] m = new int[outPos + n];
+
+      for (int k=0; k < keys.length; k++) {
+        // every other block is drawn mostly from the extremes
+        keys[k] = ((i % 2 == 0) || (random.nextInt(4) == 0)) ? random.nextInt() : EXTREMES[random.nextInt(
+          EXTREMES.length)];
+      }
+
+      for (int k=0; k < a.length; k++) {
+        HashFunction h = family.generateHashFunction(size(family, random), random.nextLong());
+
+        a[k] = (random.nextInt(4) == 0) ? extremes[0][random.nextInt(extremes[0].length)] : h.getA();
+        b[k] = (random.nextInt(4) == 0) ? extremes[1][random.nextInt(extremes[1].length)] : h.getB();
+        m[k] = h.getSize();
+      }
+
+      HashFunction h = function(family, extremes, random);
+      int[] expected = new int[outPos + n];
+      int[] found = new int[outPos + n];
+
+      BatchHasher.SCALAR.hash(h, keys, keysPos, expected, outPos, n);
+      vector.hash(h, keys, keysPos, found, outPos, n);
+      check(name, Arrays.equals(expected, found), "buckets differ for " + h + " on " + Arrays.toString(keys));
+
+      Arrays.fill(expected, 0);
+      Arrays.fill(found, 0);
+      BatchHasher.SCALAR.hash(family, a, b, m, keys, keysPos, expected, outPos, n);
+      vector.hash(family, a, b, m, keys, keysPos, found, outPos, n);
+      check(name, Arrays.equals(expected, found), "slots differ on " + Arrays.toString(keys));
+
+      values += n;
+    }
+
+    System.out.println(String.format("%-24s ok  %d values hashed both ways", name, values));
+  }
+
+  /**
+   * Returns a function of the family into a random table size, which has the extreme
+   * variables of the family in one case out of four.
+   *
+   * @param family  family of the function
+   * @param extremes  extreme values of the variables a and b allowed by the family
+   * @param random  source of the function
+   * @return  function of the family
+   */
+  protected static HashFunction function(HashFamily family, long[][] extremes, SplittableRandom random) {
+    int m = size(family, random);
+
+    if (random.nextInt(4) > 0) {
+      return family.generateHashFunction(m, random.nextLong());
+    }
+
+    long a = extremes[0][random.nextInt(extremes[0].length)];
+    long b = extremes[1][random.nextInt(extremes[1].length)];
+
+    return (family instanceof MersenneHashFamily) ? new MersenneHashFunction(a, b, m, 0)
+      : new MultiplyShiftHashFunction(a, b, m, 0);
+  }
+
+  /**
+   * Returns a random table size of the family, from 1 up to 2^30.
+   *
+   * @param family  family the table is hashed into by
+   * @param random  source of the size
+   * @return  table size
+   */
+  protected static int size(HashFamily family, SplittableRandom random) {
+    return Math.max(family.tableSize(1 + random.nextInt(1 << random.nextInt(31))), 1);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * LogTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.offheap.DurableDPHash;
+
+/**
+ * LogTest checks that a DurableDPHash recovers the updates of its operation log.  Updates
+ * are made around a checkpoint and the table is reopened, which must replay the log over
+ * the snapshot.  Then the last group of the log is damaged the way a crash in the middle
+ * of writing it would, by cutting it short, by corrupting one of its records and by
+ * leaving garbage after it: reopening must drop exactly that group, keep every group before
+ * it, and append the updates made afterwards where the log was cut.
+ *
+ * Usage: LogTest [updates] [key space]
+ */
+public class LogTest {
+  /** Number of operations per group of the log */
+  protected static int GROUP_SIZE = 64;
+
+  /** Number of bytes of a group header and of a record, as laid out by OperationLog */
+  protected static int GROUP_HEADER = 8;
+  protected static int RECORD_BYTES = 16;
+
+  /**
+   * Runs the replay and the three kinds of damage one after the other over the same
+   * directory, a temporary one that is removed again.
+   *
+   * @param args  number of updates and size of the key space, both optional
+   */
+  public static void main(String args[]) throws IOException {
+    int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+    Path directory = Files.createTempDirectory("dphash");
+    Path log = directory.resolve("log");
+    HashMap<Integer, Long> reference = new HashMap<Integer, Long>();
+    SplittableRandom random = new SplittableRandom(11);
+
+    System.out.println("LOG TEST - " + updates + " UPDATES OVER " + keys + " KEYS\n");
+
+    try {
+      try (DurableDPHash hash = DurableDPHash.open(directory, config, Long.BYTES, GROUP_SIZE, 1)) {
+        update(hash, reference, random, updates, keys);
+        hash.checkpoint();
+        check("checkpoint", hash.getLogLength() == 0, "log not emptied");
+        update(hash, reference, random, updates, keys);
+      }
+
+      try (DurableDPHash hash = DurableDPHash.open(directory, config, Long.BYTES, GROUP_SIZE, 1)) {
+        compare("replay", hash, reference, keys);
+      }
+
+      System.out.println("replay over the snapshot ok, " + reference.size() + " elements");
+
+      for (String damage : new String[] { "cut short", "corrupted", "followed by garbage" }) {
+        HashMap<Integer, Long> durable;
+        long end;
+
+        // end the log with a partial group, which close writes as a group of its own
+        try (DurableDPHash hash = DurableDPHash.open(directory, config, Long.BYTES, GROUP_SIZE, 1)) {
+          update(hash, reference, random, GROUP_SIZE * 10, keys);
+          durable = new HashMap<Integer, Long>(reference);
+          update(hash, reference, random, GROUP_SIZE / 2, keys);
+          end = hash.getLogLength();
+        }
+
+        long length = Files.size(log);
+
+        check(damage, length == end + GROUP_HEADER + RECORD_BYTES * (GROUP_SIZE / 2), "last group is "
+          + (length - end) + " bytes long");
+
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+          if (damage.equals("cut short")) {
+            channel.truncate(length - RECORD_BYTES / 2);
+          } else if (damage.equals("corrupted")) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x55 }), length - RECORD_BYTES);
+          } else {
+            // garbage that reads as the header of a group far larger than the rest of the file
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f, 0x7f, 0x7f, 0x7f, 1, 2, 3, 4 }), length);
+            end = length;
+            durable = new HashMap<Integer, Long>(reference);
+          }
+        }
+
+        reference = durable;
+
+        try (DurableDPHash hash = DurableDPHash.open(directory, config, Long.BYTES, GROUP_SIZE, 1)) {
+          compare(damage, hash, reference, keys);
+          check(damage, hash.getLogLength() == end, "log replayed to " + hash.getLogLength() + " instead of " + end);
+          update(hash, reference, random, GROUP_SIZE * 3, keys);
+        }
+
+        try (DurableDPHash hash = DurableDPHash.open(directory, config, Long.BYTES, GROUP_SIZE, 1)) {
+          compare(damage + ", appended to", hash, reference, keys);
+        }
+
+        System.out.println("log " + damage + " ok, replayed " + end + " of " + length + " bytes");
+      }
+    } finally {
+      Files.deleteIfExists(log);
+      Files.deleteIfExists(directory.resolve("snapshot"));
+      Files.deleteIfExists(directory.resolve("snapshot.tmp"));
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * Runs random puts and deletes, single and in batches, against the given table and a
+   * HashMap.
+   *
+   * @param hash  table being updated
+   * @param reference HashMap receiving the same updates
+   * @param random  source of the updates
+   * @param updates number of updates
+   * @param keys  size of the key space
+   */
+  protected static void update(DurableDPHash hash, HashMap<Integer, Long> reference, SplittableRandom random,
+      int updates, int keys) throws IOException {
+    int i = 0;
+
+    while (i < updates) {
+      int x = random.nextInt(keys);
+      int op = random.nextInt(8);
+
+      if ((op == 0) && (i + 8 <= updates)) {
+        int[] batch = new int[8];
+        long[] values = new long[8];
+
+        for (int k=0; k < batch.length; k++) {
+          batch[k] = random.nextInt(keys);
+          values[k] = random.nextLong();
+          reference.put(batch[k], values[k]);
+        }
+
+        hash.putAll(batch, values);
+        i += batch.length;
+      } else if (op < 3) {
+        hash.delete(x);
+        reference.remove(x);
+        i++;
+      } else {
+        long value = random.nextLong();
+
+        hash.put(x, value);
+        reference.put(x, value);
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Compares every key of the key space between the table and the HashMap, and their sizes.
+   *
+   * @param name  name of the case
+   * @param hash  table being compared
+   * @param reference HashMap holding the expected elements
+   * @param keys  size of the key space
+   */
+  protected static void compare(String name, DurableDPHash hash, HashMap<Integer, Long> reference, int keys) {
+    for (int x=0; x < keys; x++) {
+      Long expected = reference.get(x);
+
+      check(name, hash.lookup(x) == (expected != null), "lookup of " + x + " is wrong");
+      check(name, (expected == null) || (hash.get(x) == expected), "holds " + hash.get(x) + " for " + x + " instead of "
+        + expected);
+    }
+
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+  }
+}
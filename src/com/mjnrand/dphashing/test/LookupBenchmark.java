@@ -0,0 +1,114 @@
+/*
+ * LookupBenchmark.java
+ */
+package com.mjnrand.dphashing.test;
+
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.BatchHasher;
+import com.mjnrand.dphashing.DPHash;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.flat.DPHashFlatImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * LookupBenchmark compares looking up a batch of values with lookupAll against looking
+ * them up one by one with lookup.  The tables hold random values and are made larger than
+ * the processor's caches, so that nearly every lookup misses; half of the values queried
+ * are stored in the table.
+ *
+ * Usage: LookupBenchmark [table size] [batch size] [rounds]
+ *
+ * Run with --add-modules jdk.incubator.vector to hash the batches in vector lanes.
+ */
+public class LookupBenchmark {
+  /**
+   * Main benchmark driver program.
+   *
+   * @param args  command line arguments
+   */
+  public static void main(String args[]) {
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1 << 22;
+    int batch = (args.length > 1) ? Integer.parseInt(args[1]) : 256;
+    int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+    SplittableRandom random = new SplittableRandom(1);
+    int[] keys = new int[size];
+
+    for (int i=0; i < size; i++) {
+      keys[i] = random.nextInt();
+    }
+
+    // the random keys may repeat, so they are inserted one by one
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+    DPHash<Integer> staticHash = new DPHashStaticImpl<Integer>(config);
+    DPHash<Integer> flatHash = new DPHashFlatImpl<Integer>(config);
+
+    for (int i=0; i < size; i++) {
+      staticHash.insert(keys[i], null);
+      flatHash.insert(keys[i], null);
+    }
+
+    // queries: every other one is a stored value, the others are most likely not
+    int[] queries = new int[1 << 20];
+
+    for (int i=0; i < queries.length; i++) {
+      queries[i] = ((i & 1) == 0) ? keys[random.nextInt(size)] : random.nextInt();
+    }
+
+    System.out.println("LOOKUP BENCHMARK - " + size + " ELEMENTS, BATCHES OF " + batch + ", " +
+      BatchHasher.getInstance().toString().toUpperCase() + " HASHING\n");
+
+    for (int r=0; r < rounds; r++) {
+      System.out.println("========== Run #" + (r + 1) + " ==========");
+      run("static", staticHash, queries, batch);
+      run("flat", flatHash, queries, batch);
+    }
+  }
+
+  /**
+   * Looks up all queries in batches, with lookup in a loop and with lookupAll, and prints
+   * the time per lookup of both.
+   *
+   * @param name  name of the hash
+   * @param hash  hash being measured
+   * @param queries values to be looked up
+   * @param batch number of values per batch
+   */
+  protected static void run(String name, DPHash<Integer> hash, int[] queries, int batch) {
+    int[] keys = new int[batch];
+    boolean[] out = new boolean[batch];
+    int found = 0;
+    long start, scalar, staged;
+
+    start = System.nanoTime();
+    for (int from=0; from + batch <= queries.length; from += batch) {
+      for (int k=0; k < batch; k++) {
+        if (hash.lookup(queries[from + k])) {
+          found++;
+        }
+      }
+    }
+    scalar = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int from=0; from + batch <= queries.length; from += batch) {
+      System.arraycopy(queries, from, keys, 0, batch);
+      hash.lookupAll(keys, out);
+
+      for (int k=0; k < batch; k++) {
+        if (out[k]) {
+          found--;
+        }
+      }
+    }
+    staged = System.nanoTime() - start;
+
+    if (found != 0) {
+      System.out.println("lookupAll and lookup disagree on " + Math.abs(found) + " values");
+    }
+
+    System.out.println(name + ": lookup " + String.format("%.1f", (double) scalar / queries.length) + " ns, lookupAll " +
+      String.format("%.1f", (double) staged / queries.length) + " ns per value, speedup " +
+      String.format("%.2f", (double) scalar / staged));
+  }
+}
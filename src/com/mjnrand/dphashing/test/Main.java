@@ -49,7 +49,7 @@ public class Main {
         System.out.println("========== Test run #" + (m + 1) + " ==========\n");
         
         for (int test=0; test < testSizes.length; test++) {
-          DPHashStaticImpl hash = new DPHashStaticImpl(Main.UNIVERSE_SIZE, Main.PRIME, scales[l]);
+          DPHashStaticImpl<Object> hash = new DPHashStaticImpl<Object>(Main.UNIVERSE_SIZE, Main.PRIME, scales[l]);
           
           System.out.println("Test size: " + testSizes[test]);
           
@@ -169,7 +169,7 @@ public class Main {
         System.out.println("========== Test run #" + (m + 1) + " ==========\n");
         
         for (int test=0; test < testSizes.length; test++) {
-          DPHashDynamicImpl hash = new DPHashDynamicImpl(Main.UNIVERSE_SIZE, Main.PRIME, steps[l], increment);
+          DPHashDynamicImpl<Object> hash = new DPHashDynamicImpl<Object>(Main.UNIVERSE_SIZE, Main.PRIME, steps[l], increment);
           
           System.out.println("Test size: " + testSizes[test]);
           
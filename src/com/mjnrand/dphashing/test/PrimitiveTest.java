@@ -0,0 +1,269 @@
+/*
+ * PrimitiveTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.MultiplyShiftHashFamily;
+import com.mjnrand.dphashing.primitive.DPIntIntMap;
+import com.mjnrand.dphashing.primitive.DPIntLongMap;
+import com.mjnrand.dphashing.primitive.DPIntSet;
+import com.mjnrand.dphashing.primitive.DPLongLongMap;
+
+/**
+ * PrimitiveTest checks the primitive sets and maps against a HashSet or a HashMap given the
+ * same random adds, puts and removes, comparing what every call returns, and every key in
+ * use once the updates are done.  The keys are drawn from a small range around 0 along
+ * with the extreme values of their type, so that no key value is left to mark an empty
+ * slot.
+ *
+ * Usage: PrimitiveTest [updates] [key space]
+ */
+public class PrimitiveTest {
+  /**
+   * Runs every set and map with the Mersenne and the multiply-shift family.
+   *
+   * @param args  number of updates and size of the key range, both optional
+   */
+  public static void main(String args[]) {
+    int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+    DPHashConfig[] configs = { DPHashConfig.builder().seed(1).build(),
+      DPHashConfig.builder().seed(1).hashFamily(MultiplyShiftHashFamily.INSTANCE).build() };
+
+    System.out.println("PRIMITIVE TEST - " + updates + " UPDATES OVER " + keys + " KEYS\n");
+
+    for (int c=0; c < configs.length; c++) {
+      String family = " " + configs[c].getHashFamily();
+
+      testIntSet("DPIntSet" + family, new DPIntSet(configs[c]), updates, keys);
+      testIntIntMap("DPIntIntMap" + family, new DPIntIntMap(configs[c]), updates, keys);
+      testIntLongMap("DPIntLongMap" + family, new DPIntLongMap(configs[c]), updates, keys);
+      testLongLongMap("DPLongLongMap" + family, new DPLongLongMap(configs[c]), updates, keys);
+    }
+  }
+
+  /**
+   * Returns a random int key: mostly from the range around 0, otherwise an extreme value.
+   *
+   * @param random  source of the key
+   * @param keys  size of the range around 0
+   * @return  random key
+   */
+  protected static int intKey(SplittableRandom random, int keys) {
+    int[] extremes = { Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -1, 0, Integer.MAX_VALUE - 1, Integer.MAX_VALUE };
+
+    return (random.nextInt(100) == 0) ? extremes[random.nextInt(extremes.length)] : random.nextInt(keys) - keys / 2;
+  }
+
+  /**
+   * Returns a random long key: mostly from the range around 0 or spread over the whole type,
+   * otherwise an extreme value.
+   *
+   * @param random  source of the key
+   * @param keys  size of the range around 0
+   * @return  random key
+   */
+  protected static long longKey(SplittableRandom random, int keys) {
+    long[] extremes = { Long.MIN_VALUE, Long.MIN_VALUE + 1, -1, 0, Long.MAX_VALUE - 1, Long.MAX_VALUE,
+      Integer.MIN_VALUE, Integer.MAX_VALUE + 1L };
+
+    if (random.nextInt(100) == 0) {
+      return extremes[random.nextInt(extremes.length)];
+    }
+
+    // a key with the same low half as a key of the range, so that the high half has to be compared
+    return (random.nextInt(4) == 0) ? ((long) random.nextInt(4) << 32) + random.nextInt(keys) : random.nextInt(keys)
+      - keys / 2;
+  }
+
+  /**
+   * Tests a DPIntSet against a HashSet.
+   *
+   * @param name  name of the case, printed with the result
+   * @param set set to be tested
+   * @param updates number of updates
+   * @param keys  size of the key range
+   */
+  protected static void testIntSet(String name, DPIntSet set, int updates, int keys) {
+    HashSet<Integer> reference = new HashSet<Integer>();
+    SplittableRandom random = new SplittableRandom(19);
+
+    for (int i=0; i < updates; i++) {
+      int x = intKey(random, keys);
+
+      if (random.nextInt(3) == 0) {
+        check(name, set.remove(x) == reference.remove(x), "remove of " + x + " returned the wrong result");
+      } else {
+        check(name, set.add(x) == reference.add(x), "add of " + x + " returned the wrong result");
+      }
+
+      x = intKey(random, keys);
+      check(name, set.contains(x) == reference.contains(x), "contains of " + x + " is wrong");
+    }
+
+    for (int x=-keys; x < keys; x++) {
+      check(name, set.contains(x) == reference.contains(x), "contains of " + x + " is wrong");
+    }
+
+    for (int x : reference) {
+      check(name, set.contains(x), "lost " + x);
+    }
+
+    check(name, set.size() == reference.size(), "holds " + set.size() + " values instead of " + reference.size());
+    print(name, set.size(), set.getSlotsPerKey());
+  }
+
+  /**
+   * Tests a DPIntIntMap against a HashMap.
+   *
+   * @param name  name of the case, printed with the result
+   * @param map map to be tested
+   * @param updates number of updates
+   * @param keys  size of the key range
+   */
+  protected static void testIntIntMap(String name, DPIntIntMap map, int updates, int keys) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(23);
+
+    for (int i=0; i < updates; i++) {
+      int x = intKey(random, keys);
+
+      if (random.nextInt(3) == 0) {
+        Integer expected = reference.remove(x);
+
+        check(name, map.remove(x) == ((expected != null) ? expected : 0), "remove of " + x + " returned the wrong value");
+      } else {
+        int value = random.nextInt();
+        Integer expected = reference.put(x, value);
+
+        check(name, map.put(x, value) == ((expected != null) ? expected : 0), "put of " + x + " returned the wrong value");
+      }
+
+      x = intKey(random, keys);
+      check(name, Objects.equals(reference.get(x), map.containsKey(x) ? map.get(x) : null), "holds the wrong value for "
+        + x);
+      check(name, map.getOrDefault(x, 7) == reference.getOrDefault(x, 7), "getOrDefault of " + x + " is wrong");
+    }
+
+    for (int x=-keys; x < keys; x++) {
+      check(name, Objects.equals(reference.get(x), map.containsKey(x) ? map.get(x) : null), "holds the wrong value for "
+        + x);
+    }
+
+    for (HashMap.Entry<Integer, Integer> e : reference.entrySet()) {
+      check(name, map.containsKey(e.getKey()) && (map.get(e.getKey()) == e.getValue()), "lost " + e.getKey());
+    }
+
+    check(name, map.size() == reference.size(), "holds " + map.size() + " keys instead of " + reference.size());
+    print(name, map.size(), map.getSlotsPerKey());
+  }
+
+  /**
+   * Tests a DPIntLongMap against a HashMap.
+   *
+   * @param name  name of the case, printed with the result
+   * @param map map to be tested
+   * @param updates number of updates
+   * @param keys  size of the key range
+   */
+  protected static void testIntLongMap(String name, DPIntLongMap map, int updates, int keys) {
+    HashMap<Integer, Long> reference = new HashMap<Integer, Long>();
+    SplittableRandom random = new SplittableRandom(29);
+
+    for (int i=0; i < updates; i++) {
+      int x = intKey(random, keys);
+
+      if (random.nextInt(3) == 0) {
+        Long expected = reference.remove(x);
+
+        check(name, map.remove(x) == ((expected != null) ? expected : 0), "remove of " + x + " returned the wrong value");
+      } else {
+        long value = random.nextLong();
+        Long expected = reference.put(x, value);
+
+        check(name, map.put(x, value) == ((expected != null) ? expected : 0), "put of " + x + " returned the wrong value");
+      }
+
+      x = intKey(random, keys);
+      check(name, Objects.equals(reference.get(x), map.containsKey(x) ? map.get(x) : null), "holds the wrong value for "
+        + x);
+      check(name, map.getOrDefault(x, 7) == reference.getOrDefault(x, 7L), "getOrDefault of " + x + " is wrong");
+    }
+
+    for (int x=-keys; x < keys; x++) {
+      check(name, Objects.equals(reference.get(x), map.containsKey(x) ? map.get(x) : null), "holds the wrong value for "
+        + x);
+    }
+
+    for (HashMap.Entry<Integer, Long> e : reference.entrySet()) {
+      check(name, map.containsKey(e.getKey()) && (map.get(e.getKey()) == e.getValue()), "lost " + e.getKey());
+    }
+
+    check(name, map.size() == reference.size(), "holds " + map.size() + " keys instead of " + reference.size());
+    print(name, map.size(), map.getSlotsPerKey());
+  }
+
+  /**
+   * Tests a DPLongLongMap against a HashMap.
+   *
+   * @param name  name of the case, printed with the result
+   * @param map map to be tested
+   * @param updates number of updates
+   * @param keys  size of the key range
+   */
+  protected static void testLongLongMap(String name, DPLongLongMap map, int updates, int keys) {
+    HashMap<Long, Long> reference = new HashMap<Long, Long>();
+    SplittableRandom random = new SplittableRandom(31);
+
+    for (int i=0; i < updates; i++) {
+      long x = longKey(random, keys);
+
+      if (random.nextInt(3) == 0) {
+        Long expected = reference.remove(x);
+
+        check(name, map.remove(x) == ((expected != null) ? expected : 0), "remove of " + x + " returned the wrong value");
+      } else {
+        long value = random.nextLong();
+        Long expected = reference.put(x, value);
+
+        check(name, map.put(x, value) == ((expected != null) ? expected : 0), "put of " + x + " returned the wrong value");
+      }
+
+      x = longKey(random, keys);
+      check(name, Objects.equals(reference.get(x), map.containsKey(x) ? map.get(x) : null), "holds the wrong value for "
+        + x);
+      check(name, map.getOrDefault(x, 7) == reference.getOrDefault(x, 7L), "getOrDefault of " + x + " is wrong");
+    }
+
+    for (HashMap.Entry<Long, Long> e : reference.entrySet()) {
+      check(name, map.containsKey(e.getKey()) && (map.get(e.getKey()) == e.getValue()), "lost " + e.getKey());
+    }
+
+    for (long x=-keys; x < keys; x++) {
+      check(name, Objects.equals(reference.get(x), map.containsKey(x) ? map.get(x) : null), "holds the wrong value for "
+        + x);
+    }
+
+    check(name, map.size() == reference.size(), "holds " + map.size() + " keys instead of " + reference.size());
+    print(name, map.size(), map.getSlotsPerKey());
+  }
+
+  /**
+   * Prints the result of a case that passed.
+   *
+   * @param name  name of the case
+   * @param size  number of keys left in the set or map
+   * @param slots slots per key of the set or map
+   */
+  protected static void print(String name, int size, double slots) {
+    System.out.println(String.format("%-56s ok  %d keys, %.2f slots/key", name, size, slots));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * RehashTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compare;
+import static com.mjnrand.dphashing.test.TestSupport.compareAll;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashImpl;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * RehashTest checks that a DPHash rehashing incrementally, in the background or in a
+ * fork-join pool holds the same elements as a HashMap given the same random puts and
+ * deletes.  Every update is followed by lookups of the key updated and of a random key,
+ * so that the elements still waiting in the old generation, or recorded in the delta of a
+ * background rehash, are looked up while the rehash is under way, and the whole key space
+ * is compared once the updates are done.
+ *
+ * Usage: RehashTest [updates] [key space]
+ */
+public class RehashTest {
+  /**
+   * Runs every rehash mode against the static and the dynamic engine.
+   *
+   * @param args  number of updates and size of the key space, both optional
+   */
+  public static void main(String args[]) {
+    int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+    DPHashConfig config = DPHashConfig.builder().seed(1).build();
+
+    System.out.println("REHASH TEST - " + updates + " UPDATES OVER " + keys + " KEYS\n");
+
+    for (int rate : new int[] { 1, 4, 64 }) {
+      DPHashConfig incremental = config.toBuilder().incrementalRehash(rate).build();
+
+      test("static, incremental " + rate, new DPHashStaticImpl<Integer>(incremental), updates, keys);
+      test("dynamic, incremental " + rate, new DPHashDynamicImpl<Integer>(incremental), updates, keys);
+    }
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      DPHashConfig background = config.toBuilder().backgroundRehash(executor).build();
+
+      test("static, background", new DPHashStaticImpl<Integer>(background), updates, keys);
+      test("dynamic, background", new DPHashDynamicImpl<Integer>(background), updates, keys);
+    } finally {
+      executor.shutdown();
+    }
+
+    final AtomicInteger tasks = new AtomicInteger();
+
+    // a pool counting the tasks it is given, to tell that the builds did run in parallel
+    ForkJoinPool pool = new ForkJoinPool(4) {
+      public <T> T invoke(ForkJoinTask<T> task) {
+        tasks.incrementAndGet();
+        return super.invoke(task);
+      }
+    };
+
+    try {
+      DPHashConfig parallel = config.toBuilder().parallelRehash(pool).build();
+
+      parallel("static, parallel", new DPHashStaticImpl<Integer>(parallel), tasks, updates, keys);
+      parallel("dynamic, parallel", new DPHashDynamicImpl<Integer>(parallel), tasks, updates, keys);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Runs random puts and deletes against the given hash and a HashMap, growing the key
+   * space in use over the first half of the updates so that the table keeps rehashing,
+   * and compares the two throughout.
+   *
+   * @param name  name of the hash, printed with the result
+   * @param hash  empty hash to be tested
+   * @param updates number of updates
+   * @param keys  number of keys to choose from
+   */
+  protected static void test(String name, DPHashImpl<Integer> hash, int updates, int keys) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(7);
+    int rehashing = 0;
+
+    for (int i=0; i < updates; i++) {
+      int range = Math.max(16, (int) Math.min(keys, 2L * keys * i / updates));
+      int x = random.nextInt(range);
+
+      if (random.nextInt(3) == 0) {
+        hash.delete(x);
+        reference.remove(x);
+      } else {
+        check(name, Objects.equals(hash.put(x, i), reference.put(x, i)), "put of " + x + " returned the wrong data");
+      }
+
+      if (hash.isRehashing()) {
+        rehashing++;
+      }
+
+      compare(name, hash, reference, x);
+      compare(name, hash, reference, random.nextInt(keys));
+    }
+
+    hash.awaitRehash();
+
+    compareAll(name, hash, reference, keys);
+
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+
+    System.out.println(String.format("%-24s ok  %d elements, rehashing after %d updates", name, hash.size(), rehashing));
+  }
+
+  /**
+   * Runs the test against a hash that rebuilds in a fork-join pool, and checks that the
+   * table grew large enough for at least one generation to be built in the pool.
+   *
+   * @param name  name of the hash, printed with the result
+   * @param hash  empty hash to be tested
+   * @param tasks number of tasks the pool of the hash was given so far
+   * @param updates number of updates
+   * @param keys  number of keys to choose from
+   */
+  protected static void parallel(String name, DPHashImpl<Integer> hash, AtomicInteger tasks, int updates, int keys) {
+    int before = tasks.get();
+
+    test(name, hash, updates, keys);
+    check(name, tasks.get() > before, "no generation was large enough to be built in the pool");
+  }
+}
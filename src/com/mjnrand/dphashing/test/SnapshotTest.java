@@ -0,0 +1,178 @@
+/*
+ * SnapshotTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.HashFamily;
+import com.mjnrand.dphashing.MersenneHashFamily;
+import com.mjnrand.dphashing.MultiplyShiftHashFamily;
+import com.mjnrand.dphashing.offheap.DPHashOffHeapImpl;
+
+/**
+ * SnapshotTest checks that an off-heap DPHash saved to a snapshot opens with the same
+ * elements, bin seeds and size, for values of both widths and for the Mersenne and the
+ * multiply-shift family.  The mapped table is then updated, which must leave the snapshot
+ * untouched, and saved over the very snapshot that a second table is still mapped from,
+ * which must neither tear the new snapshot nor change what the second table reads.  A file
+ * that is not a snapshot must be refused.
+ *
+ * Usage: SnapshotTest [updates] [key space]
+ */
+public class SnapshotTest {
+  /**
+   * Runs the round trip for both families and both widths of the values, in a temporary
+   * directory that is removed again.
+   *
+   * @param args  number of updates and size of the key space, both optional
+   */
+  public static void main(String args[]) throws IOException {
+    int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+    HashFamily[] families = { MersenneHashFamily.INSTANCE, MultiplyShiftHashFamily.INSTANCE };
+    Path directory = Files.createTempDirectory("dphash");
+
+    System.out.println("SNAPSHOT TEST - " + updates + " UPDATES OVER " + keys + " KEYS\n");
+
+    try {
+      for (int f=0; f < families.length; f++) {
+        for (int valueBytes : new int[] { Integer.BYTES, Long.BYTES }) {
+          DPHashConfig config = DPHashConfig.builder().seed(1).hashFamily(families[f]).build();
+
+          test(families[f] + ", " + valueBytes + " byte values", config, valueBytes, directory.resolve("snapshot"),
+            updates, keys);
+        }
+      }
+
+      Files.write(directory.resolve("invalid"), new byte[4096]);
+
+      try {
+        DPHashOffHeapImpl.open(directory.resolve("invalid")).close();
+        throw new AssertionError("opened a file that is not a snapshot");
+      } catch (IOException ex) {
+        System.out.println("invalid snapshot rejected: " + ex.getMessage());
+      }
+    } finally {
+      Files.deleteIfExists(directory.resolve("snapshot"));
+      Files.deleteIfExists(directory.resolve("invalid"));
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * Saves and opens a table of the given configuration and width, updates the mapped table
+   * and saves it over its own snapshot, comparing the tables with a HashMap at every step.
+   *
+   * @param name  name of the case, printed with the result
+   * @param config  configuration of the table
+   * @param valueBytes  number of bytes of every value
+   * @param path  file the snapshot is saved to
+   * @param updates number of updates made before saving
+   * @param keys  size of the key space
+   */
+  protected static void test(String name, DPHashConfig config, int valueBytes, Path path, int updates, int keys)
+      throws IOException {
+    HashMap<Integer, Long> reference = new HashMap<Integer, Long>();
+    SplittableRandom random = new SplittableRandom(5);
+    long[] seeds;
+
+    try (DPHashOffHeapImpl hash = new DPHashOffHeapImpl(config, valueBytes)) {
+      update(hash, reference, random, valueBytes, updates, keys);
+      hash.save(path);
+      seeds = hash.getBinSeeds();
+    }
+
+    HashMap<Integer, Long> saved = new HashMap<Integer, Long>(reference);
+
+    try (DPHashOffHeapImpl mapped = DPHashOffHeapImpl.open(path);
+        DPHashOffHeapImpl other = DPHashOffHeapImpl.open(path)) {
+      check(name, mapped.isMapped(), "snapshot was not mapped");
+      check(name, Arrays.equals(mapped.getBinSeeds(), seeds), "bin seeds differ after opening");
+      compare(name + ", opened", mapped, saved, keys);
+
+      // the first update copies the table off the mapping, leaving the snapshot as saved
+      update(mapped, reference, random, valueBytes, updates / 10, keys);
+      check(name, !mapped.isMapped(), "table still mapped after an update");
+      compare(name + ", updated", mapped, reference, keys);
+
+      try (DPHashOffHeapImpl reopened = DPHashOffHeapImpl.open(path)) {
+        compare(name + ", reopened", reopened, saved, keys);
+      }
+
+      // save over the snapshot that the other table is still mapped from
+      mapped.save(path);
+      compare(name + ", still mapped", other, saved, keys);
+      check(name, !Files.exists(path.resolveSibling(path.getFileName() + ".tmp")), "temporary file left behind");
+
+      try (DPHashOffHeapImpl reopened = DPHashOffHeapImpl.open(path)) {
+        compare(name + ", saved over", reopened, reference, keys);
+
+        // and save a table that is still mapped over its own snapshot
+        reopened.save(path);
+        compare(name + ", saved over itself", reopened, reference, keys);
+      }
+
+      try (DPHashOffHeapImpl reopened = DPHashOffHeapImpl.open(path)) {
+        compare(name + ", reopened again", reopened, reference, keys);
+      }
+    }
+
+    System.out.println(String.format("%-40s ok  %d elements, %d bytes", name, reference.size(), Files.size(path)));
+  }
+
+  /**
+   * Runs random puts and deletes against the given table and a HashMap.
+   *
+   * @param hash  table being updated
+   * @param reference HashMap receiving the same updates
+   * @param random  source of the updates
+   * @param valueBytes  number of bytes of every value
+   * @param updates number of updates
+   * @param keys  size of the key space
+   */
+  protected static void update(DPHashOffHeapImpl hash, HashMap<Integer, Long> reference, SplittableRandom random,
+      int valueBytes, int updates, int keys) {
+    for (int i=0; i < updates; i++) {
+      int x = random.nextInt(keys);
+
+      if (random.nextInt(4) == 0) {
+        hash.delete(x);
+        reference.remove(x);
+      } else {
+        long value = (valueBytes == Integer.BYTES) ? random.nextInt() : random.nextLong();
+
+        hash.put(x, value);
+        reference.put(x, value);
+      }
+    }
+  }
+
+  /**
+   * Compares every key of the key space between the table and the HashMap, and their sizes.
+   *
+   * @param name  name of the case
+   * @param hash  table being compared
+   * @param reference HashMap holding the expected elements
+   * @param keys  size of the key space
+   */
+  protected static void compare(String name, DPHashOffHeapImpl hash, HashMap<Integer, Long> reference, int keys) {
+    for (int x=0; x < keys; x++) {
+      Long expected = reference.get(x);
+
+      check(name, hash.lookup(x) == (expected != null), "lookup of " + x + " is wrong");
+      check(name, (expected == null) || (hash.get(x) == expected), "holds " + hash.get(x) + " for " + x + " instead of "
+        + expected);
+    }
+
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+  }
+}
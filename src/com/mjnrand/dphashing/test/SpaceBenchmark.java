@@ -0,0 +1,75 @@
+/*
+ * SpaceBenchmark.java
+ */
+package com.mjnrand.dphashing.test;
+
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.LinearSpacePolicy;
+import com.mjnrand.dphashing.QuadraticSpacePolicy;
+import com.mjnrand.dphashing.SpacePolicy;
+import com.mjnrand.dphashing.TwoChoiceSpacePolicy;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * SpaceBenchmark compares the space policies of the bins: for each one it inserts random
+ * values one by one and prints the slots allocated per element, the hash functions tried
+ * per rebuild of a bin, and the time taken by the inserts and by lookups of which half
+ * hit.  A larger scale makes the bins permit more elements, which is where the policies
+ * differ the most; above a scale of about 2.5 the quadratic bins no longer fit the space
+ * bound of the top level at all.
+ *
+ * Usage: SpaceBenchmark [table size] [scale]
+ */
+public class SpaceBenchmark {
+  /**
+   * Main benchmark driver program.
+   *
+   * @param args  command line arguments
+   */
+  public static void main(String args[]) {
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1 << 20;
+    double scale = (args.length > 1) ? Double.parseDouble(args[1]) : 2;
+    SpacePolicy[] policies = { QuadraticSpacePolicy.INSTANCE, new LinearSpacePolicy(2), new LinearSpacePolicy(4),
+      new TwoChoiceSpacePolicy(2), new TwoChoiceSpacePolicy(3) };
+    SplittableRandom random = new SplittableRandom(1);
+    int[] keys = new int[size];
+    int[] queries = new int[size];
+
+    for (int i=0; i < size; i++) {
+      keys[i] = random.nextInt();
+    }
+
+    for (int i=0; i < size; i++) {
+      queries[i] = ((i & 1) == 0) ? keys[random.nextInt(size)] : random.nextInt();
+    }
+
+    System.out.println("SPACE BENCHMARK - " + size + " ELEMENTS, SCALE " + scale + "\n");
+
+    for (int p=0; p < policies.length; p++) {
+      DPHashConfig config = DPHashConfig.builder().seed(1).scale(scale).spacePolicy(policies[p]).build();
+      DPHashStaticImpl<Integer> hash = new DPHashStaticImpl<Integer>(config);
+      int found = 0;
+      long start, inserts, lookups;
+
+      start = System.nanoTime();
+      for (int i=0; i < size; i++) {
+        hash.insert(keys[i], null);
+      }
+      inserts = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i=0; i < size; i++) {
+        if (hash.lookup(queries[i])) {
+          found++;
+        }
+      }
+      lookups = System.nanoTime() - start;
+
+      System.out.println(String.format("%-18s %6.2f slots/key %7.3f tries/rebuild  insert %6.1f ns  lookup %5.1f ns  (%d found)",
+        policies[p], hash.getSlotsPerKey(), hash.getTriesPerRebuild(), (double) inserts / size, (double) lookups / size,
+        found));
+    }
+  }
+}
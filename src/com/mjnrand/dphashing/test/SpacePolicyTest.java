@@ -0,0 +1,120 @@
+/*
+ * SpacePolicyTest.java
+ */
+package com.mjnrand.dphashing.test;
+
+import static com.mjnrand.dphashing.test.TestSupport.check;
+import static com.mjnrand.dphashing.test.TestSupport.compare;
+import static com.mjnrand.dphashing.test.TestSupport.compareAll;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import com.mjnrand.dphashing.Bin;
+import com.mjnrand.dphashing.DPHashConfig;
+import com.mjnrand.dphashing.DPHashImpl;
+import com.mjnrand.dphashing.Entry;
+import com.mjnrand.dphashing.LinearSpacePolicy;
+import com.mjnrand.dphashing.QuadraticSpacePolicy;
+import com.mjnrand.dphashing.SpacePolicy;
+import com.mjnrand.dphashing.TwoChoiceSpacePolicy;
+import com.mjnrand.dphashing.dynamicscale.DPHashDynamicImpl;
+import com.mjnrand.dphashing.staticscale.DPHashStaticImpl;
+
+/**
+ * SpacePolicyTest checks that the static and the dynamic engine hold the same elements as
+ * a HashMap under every space policy, given the same random puts and deletes.  The
+ * deletes leave tombstones that later puts revive or that are dropped when their bin is
+ * rebuilt, and under the two-choice policies the bins are built by cuckoo displacement,
+ * which must actually have evicted entries from their first slot for the case to count.
+ *
+ * Usage: SpacePolicyTest [updates] [key space]
+ */
+public class SpacePolicyTest {
+  /**
+   * Runs every space policy against both engines.
+   *
+   * @param args  number of updates and size of the key space, both optional
+   */
+  public static void main(String args[]) {
+    int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+    int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+    SpacePolicy[] policies = { QuadraticSpacePolicy.INSTANCE, new LinearSpacePolicy(2), new LinearSpacePolicy(4),
+      new TwoChoiceSpacePolicy(2), new TwoChoiceSpacePolicy(3) };
+
+    System.out.println("SPACE POLICY TEST - " + updates + " UPDATES OVER " + keys + " KEYS\n");
+
+    for (int p=0; p < policies.length; p++) {
+      DPHashConfig config = DPHashConfig.builder().seed(1).spacePolicy(policies[p]).build();
+      final int[] evictions = new int[1];
+
+      test("static, " + policies[p], new DPHashStaticImpl<Integer>(config) {
+        protected boolean displace(Bin bin, Entry e, int n) {
+          evictions[0] += evicts(bin, e);
+          return super.displace(bin, e, n);
+        }
+      }, evictions, updates, keys);
+
+      test("dynamic, " + policies[p], new DPHashDynamicImpl<Integer>(config) {
+        protected boolean displace(Bin bin, Entry e, int n) {
+          evictions[0] += evicts(bin, e);
+          return super.displace(bin, e, n);
+        }
+      }, evictions, updates, keys);
+    }
+  }
+
+  /**
+   * Tells whether placing the given entry into a two-choice bin evicts another entry, as
+   * both of its slots are taken.
+   *
+   * @param bin bin the entry is about to be placed into
+   * @param e entry to be placed
+   * @return  1 if the placement evicts an entry, 0 otherwise
+   */
+  protected static int evicts(Bin bin, Entry e) {
+    return ((bin.bin[bin.h.hash(e.getValue())] != null) && (bin.bin[bin.h2.hash(e.getValue())] != null)) ? 1 : 0;
+  }
+
+  /**
+   * Runs random puts and deletes against the given hash and a HashMap and compares the two
+   * throughout.
+   *
+   * @param name  name of the case, printed with the result
+   * @param hash  empty hash to be tested
+   * @param evictions number of evictions of the hash so far, counted as it displaces entries
+   * @param updates number of updates
+   * @param keys  size of the key space
+   */
+  protected static void test(String name, DPHashImpl<Integer> hash, int[] evictions, int updates, int keys) {
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    SplittableRandom random = new SplittableRandom(41);
+    int choices = hash.getConfig().getSpacePolicy().getChoices();
+
+    evictions[0] = 0;
+
+    for (int i=0; i < updates; i++) {
+      // the key space in use grows over the first half of the updates, so that the bins keep growing
+      int range = Math.max(16, (int) Math.min(keys, 2L * keys * i / updates));
+      int x = random.nextInt(range);
+
+      if (random.nextInt(3) == 0) {
+        hash.delete(x);
+        reference.remove(x);
+      } else {
+        check(name, Objects.equals(hash.put(x, i), reference.put(x, i)), "put of " + x + " returned the wrong data");
+      }
+
+      compare(name, hash, reference, x);
+      compare(name, hash, reference, random.nextInt(keys));
+    }
+
+    compareAll(name, hash, reference, keys);
+    check(name, hash.size() == reference.size(), "holds " + hash.size() + " elements instead of " + reference.size());
+    check(name, (choices == 1) || (evictions[0] > 0), "no entry was ever displaced");
+
+    System.out.println(String.format("%-28s ok  %d elements, %.2f slots/key, %d evictions", name, hash.size(),
+      hash.getSlotsPerKey(), evictions[0]));
+  }
+}
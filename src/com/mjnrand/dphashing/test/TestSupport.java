@@ -0,0 +1,66 @@
+/*
+ * TestSupport.java
+ */
+package com.mjnrand.dphashing.test;
+
+import java.util.Map;
+import java.util.Objects;
+
+import com.mjnrand.dphashing.DPHash;
+
+/**
+ * TestSupport holds the checks shared by the self-checking tests of this package.  A
+ * check that fails throws an AssertionError naming the case that failed, which ends the
+ * test with a stack trace and a non-zero exit status.
+ */
+final class TestSupport {
+  /**
+   * Constructor.  Made private since the class only holds static methods.
+   */
+  private TestSupport() {
+  }
+
+  /**
+   * Throws an AssertionError with the given message if the condition does not hold.
+   *
+   * @param name  name of the case being tested
+   * @param condition condition that must hold
+   * @param message description of the failure
+   */
+  static void check(String name, boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(name + ": " + message);
+    }
+  }
+
+  /**
+   * Checks that the hash holds the same data as the map for the given key, through both
+   * get and lookup.
+   *
+   * @param name  name of the case being tested
+   * @param hash  hash being tested
+   * @param reference map holding the expected elements
+   * @param x key to be compared
+   */
+  static void compare(String name, DPHash<Integer> hash, Map<Integer, Integer> reference, int x) {
+    Integer expected = reference.get(x);
+
+    check(name, Objects.equals(hash.get(x), expected), "holds " + hash.get(x) + " for " + x + " instead of " + expected);
+    check(name, hash.lookup(x) == reference.containsKey(x), "lookup of " + x + " is wrong");
+  }
+
+  /**
+   * Checks every key from 0 up to the given number of keys as compare does.
+   *
+   * @param name  name of the case being tested
+   * @param hash  hash being tested
+   * @param reference map holding the expected elements
+   * @param keys  size of the key space
+   * @see #compare(String, DPHash, Map, int)
+   */
+  static void compareAll(String name, DPHash<Integer> hash, Map<Integer, Integer> reference, int keys) {
+    for (int x=0; x < keys; x++) {
+      compare(name, hash, reference, x);
+    }
+  }
+}
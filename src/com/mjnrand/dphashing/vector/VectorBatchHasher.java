@@ -0,0 +1,173 @@
+/*
+ * VectorBatchHasher.java
+ */
+package com.mjnrand.dphashing.vector;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import com.mjnrand.dphashing.BatchHasher;
+import com.mjnrand.dphashing.HashFamily;
+import com.mjnrand.dphashing.HashFunction;
+import com.mjnrand.dphashing.MersenneHashFamily;
+import com.mjnrand.dphashing.MersenneHashFunction;
+import com.mjnrand.dphashing.MultiplyShiftHashFamily;
+import com.mjnrand.dphashing.MultiplyShiftHashFunction;
+
+/**
+ * VectorBatchHasher hashes a block of values in the lanes of the widest vector registers
+ * of the processor, using the incubating Vector API.  Every value is widened into a 64 bit
+ * lane, so a 512 bit register hashes 8 values at once.  This class must be compiled and
+ * run with --add-modules jdk.incubator.vector; BatchHasher.getInstance only loads it when
+ * the module is present.
+ *
+ * The multiply-shift family vectorizes directly, as it is one multiplication, one addition
+ * and two shifts.  The Mersenne family needs the high half of a 128 bit product, for which
+ * there is no lane operation.  As x < 2^32, a < 2^61 is split into a = aHi * 2^32 + aLo
+ * instead, giving two products that fit into 64 bits: aLo * x < 2^64, which is folded like
+ * the 128 bit product of the scalar function, and aHi * x < 2^61, of which the bits that
+ * the factor 2^32 shifts past 2^61 are folded back to the bottom.  The prime family needs
+ * two divisions, for which there is no fast lane operation either, so its values are
+ * hashed one after the other just as BatchHasher.SCALAR does.
+ *
+ * All arithmetic of a loop is written out within the loop, as the JIT only keeps vectors
+ * in registers when no call boundary lies between the operations.
+ */
+public class VectorBatchHasher extends BatchHasher {
+  /** Species of the 64 bit lanes that the values are hashed in */
+  protected static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+  /** Species of the 32 bit values and results, with as many lanes as LONGS */
+  protected static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class,
+    VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+  /** The Mersenne prime 2^61 - 1 */
+  protected static final long P61 = MersenneHashFunction.P61;
+
+  /** Low 29 bits of a number */
+  protected static final long LOW_29 = (1L << 29) - 1;
+
+  /** Low 32 bits of a number */
+  protected static final long LOW_32 = 0xFFFFFFFFL;
+
+  /**
+   * Constructor.  Called by BatchHasher.getInstance.
+   */
+  public VectorBatchHasher() {
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.BatchHasher#hash(HashFunction, int[], int, int[], int, int)
+   */
+  public void hash(HashFunction h, int[] keys, int keysPos, int[] out, int outPos, int n) {
+    int bound = INTS.loopBound(n);
+    int k = 0;
+
+    if (h instanceof MultiplyShiftHashFunction) {
+      LongVector a = LongVector.broadcast(LONGS, h.getA());
+      LongVector b = LongVector.broadcast(LONGS, h.getB());
+      int shift = Long.numberOfLeadingZeros(h.getSize());
+
+      for (; k < bound; k += INTS.length()) {
+        LongVector x = ((LongVector) IntVector.fromArray(INTS, keys, keysPos + k)
+          .convertShape(VectorOperators.I2L, LONGS, 0)).and(LOW_32);
+        LongVector r = x.mul(a).add(b).lanewise(VectorOperators.LSHR, 1).lanewise(VectorOperators.LSHR, shift);
+
+        ((IntVector) r.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(out, outPos + k);
+      }
+    } else if (h instanceof MersenneHashFunction) {
+      long aLo = h.getA() & LOW_32;
+      long aHi = h.getA() >>> 32;
+      long b = h.getB();
+      long m = h.getSize();
+
+      for (; k < bound; k += INTS.length()) {
+        LongVector x = ((LongVector) IntVector.fromArray(INTS, keys, keysPos + k)
+          .convertShape(VectorOperators.I2L, LONGS, 0)).and(LOW_32);
+        LongVector lo = x.mul(aLo);
+        LongVector hi = x.mul(aHi);
+
+        // every term is below 2^61, so the sum is below 2^63 and stays positive
+        LongVector r = lo.and(P61).add(lo.lanewise(VectorOperators.LSHR, 61))
+          .add(hi.and(LOW_29).lanewise(VectorOperators.LSHL, 32)).add(hi.lanewise(VectorOperators.LSHR, 29)).add(b);
+
+        r = r.and(P61).add(r.lanewise(VectorOperators.LSHR, 61));
+        r = r.sub(P61, r.compare(VectorOperators.GE, P61));
+        r = r.lanewise(VectorOperators.LSHR, 29).mul(m).lanewise(VectorOperators.LSHR, 32);
+
+        ((IntVector) r.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(out, outPos + k);
+      }
+    }
+
+    for (; k < n; k++) {
+      out[outPos + k] = h.hash(keys[keysPos + k]);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.BatchHasher#hash(HashFamily, long[], long[], int[], int[], int, int[], int, int)
+   */
+  public void hash(HashFamily family, long[] a, long[] b, int[] m, int[] keys, int keysPos, int[] out, int outPos, int n) {
+    int bound = INTS.loopBound(n);
+    int k = 0;
+
+    if (family instanceof MultiplyShiftHashFamily) {
+      long[] shifts = new long[bound];
+
+      for (int i=0; i < bound; i++) {
+        shifts[i] = Long.numberOfLeadingZeros(m[outPos + i]);
+      }
+
+      for (; k < bound; k += INTS.length()) {
+        int i = outPos + k;
+        LongVector x = ((LongVector) IntVector.fromArray(INTS, keys, keysPos + k)
+          .convertShape(VectorOperators.I2L, LONGS, 0)).and(LOW_32);
+        LongVector r = x.mul(LongVector.fromArray(LONGS, a, i)).add(LongVector.fromArray(LONGS, b, i))
+          .lanewise(VectorOperators.LSHR, 1).lanewise(VectorOperators.LSHR, LongVector.fromArray(LONGS, shifts, k));
+
+        ((IntVector) r.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(out, i);
+      }
+    } else if (family instanceof MersenneHashFamily) {
+      for (; k < bound; k += INTS.length()) {
+        int i = outPos + k;
+        LongVector x = ((LongVector) IntVector.fromArray(INTS, keys, keysPos + k)
+          .convertShape(VectorOperators.I2L, LONGS, 0)).and(LOW_32);
+        LongVector va = LongVector.fromArray(LONGS, a, i);
+        LongVector lo = x.mul(va.and(LOW_32));
+        LongVector hi = x.mul(va.lanewise(VectorOperators.LSHR, 32));
+
+        // every term is below 2^61, so the sum is below 2^63 and stays positive
+        LongVector r = lo.and(P61).add(lo.lanewise(VectorOperators.LSHR, 61))
+          .add(hi.and(LOW_29).lanewise(VectorOperators.LSHL, 32)).add(hi.lanewise(VectorOperators.LSHR, 29))
+          .add(LongVector.fromArray(LONGS, b, i));
+
+        r = r.and(P61).add(r.lanewise(VectorOperators.LSHR, 61));
+        r = r.sub(P61, r.compare(VectorOperators.GE, P61));
+        r = r.lanewise(VectorOperators.LSHR, 29).mul(IntVector.fromArray(INTS, m, i).convertShape(VectorOperators.I2L, LONGS, 0))
+          .lanewise(VectorOperators.LSHR, 32);
+
+        ((IntVector) r.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(out, i);
+      }
+    }
+
+    for (; k < n; k++) {
+      int i = outPos + k;
+
+      out[i] = family.hash(a[i], b[i], m[i], keys[keysPos + k]);
+    }
+  }
+
+  /**
+   * @see com.mjnrand.dphashing.BatchHasher#isVectorized()
+   */
+  public boolean isVectorized() {
+    return true;
+  }
+
+  public String toString() {
+    return "vector (" + LONGS.length() + " lanes)";
+  }
+}